@@ -0,0 +1,51 @@
+package xuml.tools.benchmarks;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Account.Events.CountDown;
+import xuml.tools.benchmarks.domain.Account.Events.Credit;
+import xuml.tools.benchmarks.domain.Account.Events.Open;
+import xuml.tools.benchmarks.domain.Account.Events.Transfer;
+
+/**
+ * Behaviour of the generated {@link Account} entity. Kept trivial so that the
+ * benchmarks measure the runtime and generated code rather than the actions.
+ */
+public class AccountBehaviour implements Account.Behaviour {
+
+    private final Account self;
+
+    public AccountBehaviour(Account self) {
+        this.self = self;
+    }
+
+    @Override
+    public void onEntryOpened(Open event) {
+        self.setId(event.getAccountID());
+        self.setBalance(0);
+        self.setRemaining(0);
+    }
+
+    @Override
+    public void onEntryCredited(Credit event) {
+        self.setBalance(self.getBalance() + event.getAmount());
+    }
+
+    @Override
+    public void onEntryCountingDown(CountDown event) {
+        self.setRemaining(event.getRemaining());
+        if (event.getRemaining() > 0)
+            self.signal(new CountDown(event.getRemaining() - 1));
+    }
+
+    @Override
+    public void onEntryTransferring(Transfer event) {
+        Optional<Account> to = Account.find(event.getToAccountID());
+        if (!to.isPresent())
+            throw new RuntimeException("account does not exist: " + event.getToAccountID());
+        self.setBalance(self.getBalance() - event.getAmount());
+        to.get().signal(new Credit(event.getAmount()));
+    }
+
+}
@@ -0,0 +1,45 @@
+package xuml.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Context;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Starts and stops the domain generated from
+ * <code>src/main/resources/benchmark-domain.xml</code> by the
+ * xuml-tools-maven-plugin.
+ */
+final class BenchmarkDomain {
+
+    private BenchmarkDomain() {
+        // prevent instantiation
+    }
+
+    static void start(Database database, SignallerConfig config) {
+        EntityManagerFactory emf = database
+                .createEntityManagerFactory(config.getEntityActorPoolSize());
+        Context.setEntityManagerFactory(emf, config);
+        Account.setBehaviourFactory(AccountBehaviour.class);
+    }
+
+    /**
+     * Waits until every signal sent and every signal caused by them has been
+     * processed.
+     * 
+     * @throws InterruptedException
+     */
+    static void awaitIdle() throws InterruptedException {
+        if (!Context.awaitIdle(5, TimeUnit.MINUTES))
+            throw new IllegalStateException("signals still being processed");
+    }
+
+    static void stop() {
+        Context.stop();
+        Context.close();
+    }
+
+}
@@ -0,0 +1,87 @@
+package xuml.tools.benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.h2.tools.Server;
+
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Account.Events.CountDown;
+import xuml.tools.benchmarks.domain.Account.Events.Open;
+import xuml.tools.benchmarks.domain.Context;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Runs the generated benchmark domain as one node of a cluster sharing an H2
+ * server, to try clustered signal processing with several JVMs on one
+ * machine. Start the server and then any number of nodes, each with its own
+ * id:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar xuml.tools.benchmarks.ClusterNode server
+ * java -cp target/benchmarks.jar xuml.tools.benchmarks.ClusterNode node a
+ * java -cp target/benchmarks.jar xuml.tools.benchmarks.ClusterNode node b
+ * </pre>
+ *
+ * Each node creates some accounts and counts each of them down, printing the
+ * size of the shared queue as it goes. The partitions are rebalanced as nodes
+ * join and leave, and the partitions of a node that is killed are taken over
+ * by the others once its leases expire.
+ */
+public final class ClusterNode {
+
+    private static final String DATABASE = "cluster";
+    private static final int PARTITIONS = 16;
+    private static final long LEASE_SECONDS = 10;
+    private static final int ACCOUNTS = 100;
+    private static final int COUNT_DOWN = 1000;
+
+    private ClusterNode() {
+        // prevent instantiation
+    }
+
+    public static void main(String[] args) throws SQLException, InterruptedException {
+        if (args.length == 1 && args[0].equals("server"))
+            runServer();
+        else if (args.length == 2 && args[0].equals("node"))
+            runNode(args[1]);
+        else {
+            System.err.println("usage: ClusterNode server | ClusterNode node <nodeId>");
+            System.exit(1);
+        }
+    }
+
+    private static void runServer() throws SQLException, InterruptedException {
+        Server server = Server.createTcpServer().start();
+        // create the tables before the nodes start so they don't race to
+        Database.createH2ServerEntityManagerFactory(DATABASE, 1).close();
+        System.out.println("H2 server listening at " + server.getURL());
+        Thread.currentThread().join();
+    }
+
+    private static void runNode(String nodeId) throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        EntityManagerFactory emf = Database.createH2ServerEntityManagerFactory(DATABASE, cores);
+        SignallerConfig config = SignallerConfig.builder().entityActorPoolSize(cores)
+                .cluster(nodeId, PARTITIONS, LEASE_SECONDS, TimeUnit.SECONDS).build();
+        Context.setEntityManagerFactory(emf, config);
+        Account.setBehaviourFactory(AccountBehaviour.class);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // releases this node's partitions to the others
+            Context.stop();
+            Context.close();
+        }));
+        System.out.println("node " + nodeId + " recovered " + Context.sendSignalsInQueue()
+                + " signals");
+        for (int i = 0; i < ACCOUNTS; i++)
+            Account.create(new Open(nodeId + "-" + System.currentTimeMillis() + "-" + i))
+                    .signal(new CountDown(COUNT_DOWN));
+        while (true) {
+            System.out.println("node " + nodeId + " queue size " + Context.queueSize());
+            TimeUnit.SECONDS.sleep(1);
+        }
+    }
+
+}
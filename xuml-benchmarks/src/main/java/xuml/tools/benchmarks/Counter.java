@@ -0,0 +1,155 @@
+package xuml.tools.benchmarks;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import com.google.common.base.Optional;
+
+import scala.concurrent.duration.Duration;
+import xuml.tools.model.compiler.runtime.CreationEvent;
+import xuml.tools.model.compiler.runtime.Entity;
+import xuml.tools.model.compiler.runtime.EntityHelper;
+import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.PrioritisedEvent;
+import xuml.tools.model.compiler.runtime.Signaller;
+
+/**
+ * Minimal entity with a single event that increments a counter, written in the
+ * same shape as classes generated by xuml-model-compiler so that the runtime
+ * can be benchmarked in isolation.
+ */
+@javax.persistence.Entity
+@Table(name = "bench_counter")
+public class Counter implements Entity<Counter> {
+
+    private static Signaller signaller;
+
+    static void setSignaller_(Signaller sig) {
+        signaller = sig;
+    }
+
+    @Transient
+    private EntityHelper _helper;
+
+    @Id
+    @Column(name = "counter_id")
+    private String id;
+
+    @Column(name = "counter_value", nullable = false)
+    private int value;
+
+    public Counter() {
+        // JPA
+    }
+
+    public static Counter create(Signaller signaller, String id) {
+        return signaller.create(Counter.class, new Events.Create(id));
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public String uniqueId() {
+        return Counter.class.getName() + ":" + getId();
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event) {
+        helper().signal(event);
+        return this;
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event, Duration delay) {
+        helper().signal(event, Optional.of(delay));
+        return this;
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event, long time) {
+        return signal(event,
+                Duration.create(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public Counter event(Event<Counter> event) {
+        helper().beforeEvent();
+        if (event instanceof Events.Create)
+            id = ((Events.Create) event).getId();
+        else if (event instanceof Events.Increment || event instanceof Events.UrgentIncrement)
+            value++;
+        helper().afterEvent();
+        return this;
+    }
+
+    @Override
+    public synchronized EntityHelper helper() {
+        if (_helper == null)
+            _helper = new EntityHelper(signaller, this);
+        return _helper;
+    }
+
+    public static class Events {
+
+        @SuppressWarnings("serial")
+        public static class Create implements CreationEvent<Counter>, Serializable {
+
+            public static final String signatureKey = "String;";
+
+            private final String id;
+
+            public Create(String id) {
+                this.id = id;
+            }
+
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public String signatureKey() {
+                return signatureKey;
+            }
+        }
+
+        @SuppressWarnings("serial")
+        public static class Increment implements Event<Counter>, Serializable {
+
+            public static final String signatureKey = "";
+
+            @Override
+            public String signatureKey() {
+                return signatureKey;
+            }
+        }
+
+        @SuppressWarnings("serial")
+        public static class UrgentIncrement implements PrioritisedEvent<Counter>, Serializable {
+
+            public static final String signatureKey = "";
+
+            @Override
+            public String signatureKey() {
+                return signatureKey;
+            }
+
+            @Override
+            public int priority() {
+                return 1;
+            }
+        }
+    }
+
+}
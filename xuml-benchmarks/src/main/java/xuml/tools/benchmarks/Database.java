@@ -0,0 +1,90 @@
+package xuml.tools.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import com.google.common.collect.Maps;
+
+import xuml.tools.util.database.DerbyUtil;
+
+/**
+ * Embedded in-memory databases that benchmarks are run against.
+ */
+public enum Database {
+
+    // the schema of the generated domain must exist before hibernate creates
+    // its tables, derby creates it implicitly
+    H2("org.hibernate.dialect.H2Dialect", "org.h2.Driver",
+            "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS bench"),
+
+    DERBY("org.hibernate.dialect.DerbyTenSevenDialect", "org.apache.derby.jdbc.EmbeddedDriver",
+            "jdbc:derby:memory:%s;create=true");
+
+    // an H2 server started on this machine by ClusterNode
+    private static final String H2_SERVER_URL_FORMAT = "jdbc:h2:tcp://localhost/mem:%s"
+            + ";DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS bench";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final String dialect;
+    private final String driver;
+    private final String urlFormat;
+
+    private Database(String dialect, String driver, String urlFormat) {
+        this.dialect = dialect;
+        this.driver = driver;
+        this.urlFormat = urlFormat;
+    }
+
+    /**
+     * Returns a new EntityManagerFactory for the persistence unit
+     * <code>benchmarks</code> backed by a freshly created database.
+     * 
+     * @param poolSize
+     *            size of the JDBC connection pool
+     * @return entity manager factory
+     */
+    public EntityManagerFactory createEntityManagerFactory(int poolSize) {
+        if (this == DERBY)
+            DerbyUtil.disableDerbyLog();
+        String name = "bench" + counter.incrementAndGet();
+        return createEntityManagerFactory(dialect, driver, String.format(urlFormat, name),
+                "create-drop", poolSize);
+    }
+
+    /**
+     * Returns a new EntityManagerFactory for the persistence unit
+     * <code>benchmarks</code> backed by the in-memory database
+     * <code>name</code> of an H2 server running on this machine, so that
+     * several JVMs can share it. Tables are created if they do not exist.
+     * 
+     * @param name
+     *            database name
+     * @param poolSize
+     *            size of the JDBC connection pool
+     * @return entity manager factory
+     */
+    public static EntityManagerFactory createH2ServerEntityManagerFactory(String name,
+            int poolSize) {
+        return createEntityManagerFactory(H2.dialect, H2.driver,
+                String.format(H2_SERVER_URL_FORMAT, name), "update", poolSize);
+    }
+
+    private static EntityManagerFactory createEntityManagerFactory(String dialect, String driver,
+            String url, String hbm2ddl, int poolSize) {
+        Map<String, String> map = Maps.newHashMap();
+        map.put("hibernate.hbm2ddl.auto", hbm2ddl);
+        map.put("hibernate.connection.pool_size", String.valueOf(poolSize));
+        map.put("hibernate.jdbc.batch_size", "100");
+        map.put("hibernate.order_inserts", "true");
+        map.put("hibernate.show_sql", "false");
+        map.put("hibernate.dialect", dialect);
+        map.put("hibernate.connection.driver_class", driver);
+        map.put("hibernate.connection.url", url);
+        return Persistence.createEntityManagerFactory("benchmarks", map);
+    }
+
+}
@@ -0,0 +1,123 @@
+package xuml.tools.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import xuml.tools.model.compiler.runtime.SignalListener;
+import xuml.tools.model.compiler.runtime.Signaller;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Measures the latency of a high priority signal, from send until its
+ * transaction has committed, while a background thread keeps a flood of low
+ * priority signals in flight. Compare the p99 reported with and without
+ * priority lanes: with lanes it should stay close to the latency of an idle
+ * signaller however large the flood.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar PriorityLaneBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriorityLaneBenchmark {
+
+    private static final int ENTITIES = 1000;
+
+    @Param({ "false", "true" })
+    public boolean lanes;
+
+    @Param({ "0", "1000", "10000" })
+    public int flood;
+
+    private Signaller signaller;
+    private List<Counter> counters;
+    private Counter probe;
+    private Thread flooder;
+
+    private final Semaphore processed = new Semaphore(0);
+    private final Counter.Events.Increment event = new Counter.Events.Increment();
+    private final Counter.Events.UrgentIncrement urgent = new Counter.Events.UrgentIncrement();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        EntityManagerFactory emf = Database.H2.createEntityManagerFactory(cores);
+        SignallerConfig.Builder builder = SignallerConfig.builder().entityActorPoolSize(cores)
+                .listener(new SignalListener() {
+                    @Override
+                    public void processed(Signal<?> signal, long startNanos,
+                            long commitStartNanos, long endNanos) {
+                        if (signal.getPriority() > 0)
+                            processed.release();
+                    }
+                });
+        if (lanes)
+            // enough to keep every pool thread busy, the rest are held
+            builder.priorityLanes(cores * 2);
+        signaller = new Signaller(emf, builder.build(), null);
+        Counter.setSignaller_(signaller);
+        counters = Lists.newArrayList();
+        for (int i = 0; i < ENTITIES; i++)
+            counters.add(Counter.create(signaller, String.valueOf(i)));
+        probe = Counter.create(signaller, "probe");
+        flooder = new Thread(this::floodLowPriority, "flooder");
+        flooder.setDaemon(true);
+        flooder.start();
+    }
+
+    private void floodLowPriority() {
+        int i = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (signaller.inFlightSignals() < flood) {
+                    counters.get(i).signal(event);
+                    i = (i + 1) % ENTITIES;
+                } else
+                    Thread.sleep(1);
+            }
+        } catch (InterruptedException e) {
+            // stopped by tearDown
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        flooder.interrupt();
+        flooder.join();
+        signaller.stop();
+        signaller.close();
+    }
+
+    @Benchmark
+    public void signalHighPriorityAndWait() throws InterruptedException {
+        probe.signal(urgent);
+        if (!processed.tryAcquire(5, TimeUnit.MINUTES))
+            throw new IllegalStateException("high priority signal not processed");
+    }
+
+}
@@ -0,0 +1,98 @@
+package xuml.tools.benchmarks;
+
+import static xuml.tools.benchmarks.domain.Account.Attribute.balance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Account.Events.Credit;
+import xuml.tools.benchmarks.domain.Account.Events.Open;
+import xuml.tools.benchmarks.domain.Context;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Measures queries built with the generated
+ * {@link xuml.tools.model.compiler.runtime.query.SelectBuilder} against
+ * accounts whose balances are 0 to {@code ACCOUNTS - 1}.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar QueryBenchmark -rf json
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+
+    @Param({ "H2", "DERBY" })
+    public Database database;
+
+    private EntityManager em;
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        BenchmarkDomain.start(database,
+                SignallerConfig.builder().entityActorPoolSize(cores).build());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = Account.create(new Open("account" + i));
+            if (i > 0)
+                account.signal(new Credit(i));
+        }
+        BenchmarkDomain.awaitIdle();
+        em = Context.createEntityManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        em.close();
+        BenchmarkDomain.stop();
+    }
+
+    @Benchmark
+    public List<Account> selectAll() {
+        List<Account> list = Account.select().many(em);
+        em.clear();
+        return list;
+    }
+
+    @Benchmark
+    public List<Account> selectRange() {
+        List<Account> list = Account
+                .select(balance.gte(ACCOUNTS / 2).and(balance.lt(ACCOUNTS / 2 + 10))).many(em);
+        em.clear();
+        return list;
+    }
+
+    @Benchmark
+    public Optional<Account> selectOne() {
+        Optional<Account> account = Account.select(balance.eq(ACCOUNTS / 3)).one(em);
+        em.clear();
+        return account;
+    }
+
+}
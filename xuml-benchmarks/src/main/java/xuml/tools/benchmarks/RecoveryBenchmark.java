@@ -0,0 +1,89 @@
+package xuml.tools.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Account.Events.Credit;
+import xuml.tools.benchmarks.domain.Account.Events.Open;
+import xuml.tools.benchmarks.domain.Context;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Time to recover a backlog of queued signals as after a restart, from
+ * {@link Context#sendSignalsInQueue()} until every signal has been processed.
+ * The backlog is persisted before each invocation and spread over a fixed
+ * number of accounts.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar RecoveryBenchmark -rf json
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class RecoveryBenchmark {
+
+    private static final int ACCOUNTS = 100;
+
+    @Param({ "H2", "DERBY" })
+    public Database database;
+
+    @Param({ "1000", "10000" })
+    public int backlog;
+
+    private List<Account> accounts;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        BenchmarkDomain.start(database,
+                SignallerConfig.builder().entityActorPoolSize(cores).build());
+        accounts = Lists.newArrayList();
+        for (int i = 0; i < ACCOUNTS; i++)
+            accounts.add(Account.create(new Open("account" + i)));
+    }
+
+    @Setup(Level.Invocation)
+    public void persistBacklog() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < backlog; i++) {
+            Account account = accounts.get(i % ACCOUNTS);
+            Context.persistSignal("benchmark", account.getId(), Account.class, new Credit(1),
+                    now, Optional.<Long> absent(), account.uniqueId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDomain.stop();
+    }
+
+    @Benchmark
+    public int recover() throws InterruptedException {
+        int count = Context.sendSignalsInQueue();
+        BenchmarkDomain.awaitIdle();
+        return count;
+    }
+
+}
@@ -0,0 +1,194 @@
+package xuml.tools.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Kryo.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+
+import xuml.tools.model.compiler.runtime.KryoRegistry;
+import xuml.tools.model.compiler.runtime.Util;
+
+/**
+ * Compares encoding and decoding an event payload with the stream per call
+ * approach Util used to take against Util with registered classes, writing
+ * to a byte array or a direct ByteBuffer. Payload sizes are printed at setup.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar SerializationBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    public enum Codec {
+        LEGACY, REGISTERED, DIRECT;
+    }
+
+    @Param({ "LEGACY", "REGISTERED", "DIRECT" })
+    public Codec codec;
+
+    private final Payload payload = new Payload(new PayloadId("order", 12345L), "shipped",
+            new BigDecimal("123.45"), new Date(1500000000000L), new Line("sku-1", 3));
+    private final ByteBuffer direct = ByteBuffer.allocateDirect(4096);
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] legacy = Legacy.toBytes(payload);
+        for (Class<?> cls : new Class<?>[] { Payload.class,
+                PayloadId.class, Line.class })
+            KryoRegistry.register(cls, KryoRegistry.idFor(cls.getCanonicalName()));
+        if (codec == Codec.LEGACY)
+            encoded = legacy;
+        else
+            encoded = Util.toBytes(payload);
+        if (codec == Codec.DIRECT) {
+            direct.clear();
+            Util.toBytes(payload, direct);
+            direct.flip();
+        }
+        System.out.println("\npayload bytes: legacy=" + legacy.length + ", registered="
+                + Util.toBytes(payload).length);
+    }
+
+    @Benchmark
+    public Object encode() {
+        switch (codec) {
+        case LEGACY:
+            return Legacy.toBytes(payload);
+        case REGISTERED:
+            return Util.toBytes(payload);
+        default:
+            direct.clear();
+            return Util.toBytes(payload, direct);
+        }
+    }
+
+    @Benchmark
+    public Object decode() {
+        switch (codec) {
+        case LEGACY:
+            return Legacy.toObject(encoded, Payload.class);
+        case REGISTERED:
+            return Util.toObject(encoded, Payload.class);
+        default:
+            direct.rewind();
+            return Util.toObject(direct, Payload.class);
+        }
+    }
+
+    /**
+     * Util before buffers were reused and classes registered.
+     */
+    private static final class Legacy {
+
+        private static final KryoPool pool = new KryoPool.Builder(new KryoFactory() {
+            @Override
+            public Kryo create() {
+                Kryo kryo = new Kryo();
+                kryo.setInstantiatorStrategy(
+                        new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+                return kryo;
+            }
+        }).softReferences().build();
+
+        static byte[] toBytes(Object object) {
+            Kryo kryo = pool.borrow();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                Output output = new Output(bytes);
+                try {
+                    kryo.writeObject(output, object);
+                } finally {
+                    output.close();
+                }
+                return bytes.toByteArray();
+            } finally {
+                pool.release(kryo);
+            }
+        }
+
+        static <T> T toObject(byte[] bytes, Class<T> cls) {
+            Kryo kryo = pool.borrow();
+            try {
+                Input input = new Input(new ByteArrayInputStream(bytes));
+                try {
+                    return kryo.readObject(input, cls);
+                } finally {
+                    input.close();
+                }
+            } finally {
+                pool.release(kryo);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static class Payload implements Serializable {
+        Serializable id;
+        String status;
+        BigDecimal amount;
+        Date time;
+        Object line;
+
+        Payload(Serializable id, String status, BigDecimal amount, Date time, Object line) {
+            this.id = id;
+            this.status = status;
+            this.amount = amount;
+            this.time = time;
+            this.line = line;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static class PayloadId implements Serializable {
+        String type;
+        long number;
+
+        PayloadId(String type, long number) {
+            this.type = type;
+            this.number = number;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static class Line implements Serializable {
+        String sku;
+        int quantity;
+
+        Line(String sku, int quantity) {
+            this.sku = sku;
+            this.quantity = quantity;
+        }
+    }
+
+}
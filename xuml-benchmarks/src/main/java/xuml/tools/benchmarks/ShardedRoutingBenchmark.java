@@ -0,0 +1,85 @@
+package xuml.tools.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import xuml.tools.model.compiler.runtime.SignalAcknowledgerBatchedDelete;
+import xuml.tools.model.compiler.runtime.Signaller;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Measures end to end signal throughput to many entities while sweeping the
+ * number of RootActor shards. Resident actors and batched acknowledgement are
+ * used so that routing rather than entity loading dominates.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ShardedRoutingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedRoutingBenchmark {
+
+    private static final int ENTITIES = 1000;
+
+    @Param({ "1", "2", "4", "8", "16" })
+    public int shards;
+
+    private Signaller signaller;
+    private List<Counter> counters;
+
+    private final Counter.Events.Increment event = new Counter.Events.Increment();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        EntityManagerFactory emf = Database.H2.createEntityManagerFactory(cores);
+        SignallerConfig config = SignallerConfig.builder().entityActorPoolSize(cores)
+                .rootActorShards(shards)
+                .signalAcknowledger(new SignalAcknowledgerBatchedDelete())
+                .residentActors(1, TimeUnit.MINUTES, ENTITIES).build();
+        signaller = new Signaller(emf, config, null);
+        Counter.setSignaller_(signaller);
+        counters = Lists.newArrayList();
+        for (int i = 0; i < ENTITIES; i++)
+            counters.add(Counter.create(signaller, String.valueOf(i)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        signaller.stop();
+        signaller.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTITIES)
+    public void signalEveryEntityAndWait() throws InterruptedException {
+        for (Counter counter : counters)
+            counter.signal(event);
+        Signals.awaitIdle(signaller);
+    }
+
+}
@@ -0,0 +1,116 @@
+package xuml.tools.benchmarks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.QueuedSignal;
+import xuml.tools.model.compiler.runtime.SignalIdGenerator;
+import xuml.tools.model.compiler.runtime.SignalIdGeneratorRandom;
+import xuml.tools.model.compiler.runtime.SignalIdGeneratorTimeOrdered;
+import xuml.tools.model.compiler.runtime.Util;
+
+/**
+ * Measures inserting a queued signal and deleting the oldest one against a
+ * table already holding {@code rows} signals, with random and time ordered
+ * signal ids.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar SignalIdBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignalIdBenchmark {
+
+    public enum Generator {
+        RANDOM, TIME_ORDERED;
+
+        SignalIdGenerator create() {
+            if (this == RANDOM)
+                return new SignalIdGeneratorRandom();
+            else
+                return new SignalIdGeneratorTimeOrdered(0);
+        }
+    }
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({ "H2", "DERBY" })
+    public Database database;
+
+    @Param({ "RANDOM", "TIME_ORDERED" })
+    public Generator generator;
+
+    @Param({ "1000000" })
+    public int rows;
+
+    private EntityManagerFactory emf;
+    private SignalIdGenerator ids;
+    // ids in insertion order, the head is deleted next
+    private final ArrayDeque<Long> queued = new ArrayDeque<Long>();
+    private final byte[] idContent = Util.toBytes("1");
+    private final byte[] eventContent = Util.toBytes(new Counter.Events.Increment());
+
+    @Setup(Level.Trial)
+    public void setup() {
+        emf = database.createEntityManagerFactory(1);
+        ids = generator.create();
+        for (int i = 0; i < rows; i += BATCH_SIZE) {
+            EntityManager em = emf.createEntityManager();
+            em.getTransaction().begin();
+            for (int j = 0; j < BATCH_SIZE && i + j < rows; j++)
+                em.persist(createSignal());
+            em.getTransaction().commit();
+            em.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        emf.close();
+    }
+
+    @Benchmark
+    public void insertAndDeleteOldest() {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(createSignal());
+        em.createQuery("delete from " + QueuedSignal.class.getSimpleName() + " where id=:id")
+                .setParameter("id", queued.poll()).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    private QueuedSignal createSignal() {
+        QueuedSignal signal = new QueuedSignal(ids.next(), String.class.getName(), idContent,
+                Counter.class.getName(), Counter.Events.Increment.class.getName(), null,
+                eventContent, System.currentTimeMillis(), Optional.<Long> absent(), "benchmark",
+                Counter.class.getName() + ":1");
+        queued.add(signal.id);
+        return signal;
+    }
+
+}
@@ -0,0 +1,78 @@
+package xuml.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.Signaller;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * Compares persisting signals with one transaction per signal against group
+ * commit where concurrent callers share a transaction.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar SignalPersistenceBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(16)
+public class SignalPersistenceBenchmark {
+
+    private static final String ENTITY_ID = "1";
+    private static final String ENTITY_UNIQUE_ID = Counter.class.getName() + ":" + ENTITY_ID;
+
+    @Param({ "H2", "DERBY" })
+    public Database database;
+
+    @Param({ "false", "true" })
+    public boolean groupCommit;
+
+    private Signaller signaller;
+
+    private final Counter.Events.Increment event = new Counter.Events.Increment();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        EntityManagerFactory emf = database.createEntityManagerFactory(16);
+        SignallerConfig.Builder config = SignallerConfig.builder().entityActorPoolSize(16);
+        if (groupCommit)
+            config = config.groupCommit(100, 1, TimeUnit.MILLISECONDS);
+        signaller = new Signaller(emf, config.build(), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        signaller.stop();
+        signaller.close();
+    }
+
+    @Benchmark
+    public long persistSignal() {
+        return signaller.persistSignal("benchmark", ENTITY_ID, Counter.class, event,
+                System.currentTimeMillis(), Optional.<Long> absent(), ENTITY_UNIQUE_ID);
+    }
+
+}
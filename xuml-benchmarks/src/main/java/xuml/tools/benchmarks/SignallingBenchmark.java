@@ -0,0 +1,106 @@
+package xuml.tools.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import scala.concurrent.duration.Duration;
+import xuml.tools.benchmarks.domain.Account;
+import xuml.tools.benchmarks.domain.Account.Events.CountDown;
+import xuml.tools.benchmarks.domain.Account.Events.Credit;
+import xuml.tools.benchmarks.domain.Account.Events.Open;
+import xuml.tools.benchmarks.domain.Account.Events.Transfer;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+
+/**
+ * End to end rates for the generated {@link Account} entity: synchronous
+ * creation, signals an entity sends itself, signals sent to another entity
+ * after commit and signals delayed through the scheduler. Each signalling
+ * benchmark waits until the signaller is idle.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar SignallingBenchmark -rf json
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignallingBenchmark {
+
+    private static final int ACCOUNTS = 20;
+    private static final int COUNT_DOWN = 50;
+
+    @Param({ "H2", "DERBY" })
+    public Database database;
+
+    private List<Account> accounts;
+    private long created;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        BenchmarkDomain.start(database,
+                SignallerConfig.builder().entityActorPoolSize(cores).build());
+        accounts = Lists.newArrayList();
+        for (int i = 0; i < ACCOUNTS; i++)
+            accounts.add(Account.create(new Open("account" + i)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDomain.stop();
+    }
+
+    @Benchmark
+    public Account create() {
+        return Account.create(new Open("created" + created++));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCOUNTS * COUNT_DOWN)
+    public void selfSignal() throws InterruptedException {
+        // each account signals itself until the count reaches zero
+        for (Account account : accounts)
+            account.signal(new CountDown(COUNT_DOWN - 1));
+        BenchmarkDomain.awaitIdle();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCOUNTS)
+    public void crossEntitySignal() throws InterruptedException {
+        // each transfer signals a credit to the next account
+        for (int i = 0; i < ACCOUNTS; i++)
+            accounts.get(i).signal(
+                    new Transfer(1, accounts.get((i + 1) % ACCOUNTS).getId()));
+        BenchmarkDomain.awaitIdle();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCOUNTS)
+    public void delayedSignal() throws InterruptedException {
+        Duration delay = Duration.create(1, TimeUnit.MILLISECONDS);
+        for (Account account : accounts)
+            account.signal(new Credit(1), delay);
+        BenchmarkDomain.awaitIdle();
+    }
+
+}
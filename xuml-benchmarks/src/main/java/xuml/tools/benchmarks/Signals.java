@@ -0,0 +1,28 @@
+package xuml.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import xuml.tools.model.compiler.runtime.Signaller;
+
+/**
+ * Waiting shared by the benchmarks that signal {@link Counter} entities.
+ */
+final class Signals {
+
+    private Signals() {
+        // prevent instantiation
+    }
+
+    /**
+     * Waits until every signal sent and every signal caused by them has been
+     * processed.
+     * 
+     * @param signaller
+     * @throws InterruptedException
+     */
+    static void awaitIdle(Signaller signaller) throws InterruptedException {
+        if (!signaller.awaitIdle(5, TimeUnit.MINUTES))
+            throw new IllegalStateException("signals still being processed");
+    }
+
+}
@@ -0,0 +1,74 @@
+package xuml.tools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xuml.tools.model.compiler.runtime.TypeRegistry;
+
+/**
+ * Measures the per signal cost of resolving the classes named in a queued
+ * signal row and of constructing an entity, with reflection against the
+ * {@link TypeRegistry} populated by the generated Context. {@code register}
+ * measures the startup cost of registering one entity and its events.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar TypeResolutionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TypeResolutionBenchmark {
+
+    private static final String ENTITY_CLASS_NAME = Counter.class.getName();
+    private static final String EVENT_CLASS_NAME = Counter.Events.Increment.class.getName();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        register();
+    }
+
+    @Benchmark
+    public Object replayReflective() throws ClassNotFoundException {
+        Class.forName(ENTITY_CLASS_NAME);
+        return Class.forName(EVENT_CLASS_NAME);
+    }
+
+    @Benchmark
+    public Object replayRegistry() {
+        TypeRegistry.classForName(ENTITY_CLASS_NAME);
+        return TypeRegistry.classForName(EVENT_CLASS_NAME);
+    }
+
+    @Benchmark
+    public Object createReflective() throws InstantiationException, IllegalAccessException {
+        return Counter.class.newInstance();
+    }
+
+    @Benchmark
+    public Object createRegistry() {
+        return TypeRegistry.newInstance(Counter.class);
+    }
+
+    @Benchmark
+    public void register() {
+        TypeRegistry.registerEntity(Counter.class, Counter::new);
+        TypeRegistry.registerClass(Counter.Events.Create.class);
+        TypeRegistry.registerClass(Counter.Events.Increment.class);
+    }
+
+}
@@ -0,0 +1,85 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A lease held by a node of a cluster sharing the queued signal table (see
+ * {@link SignallerConfig.Builder#cluster}). There is one row per signal
+ * partition, owned by the node that processes the signals to entities in that
+ * partition, and one row per node that the node renews to show it is alive.
+ * A lease is free once its expiry has passed.
+ */
+@Entity
+@Table(name = "xuml_cluster_lease")
+public class ClusterLease {
+
+    private static final String PARTITION_PREFIX = "partition-";
+    private static final String NODE_PREFIX = "node-";
+
+    public ClusterLease() {
+        // no-arg constructor required by JPA
+    }
+
+    public ClusterLease(String id, String owner, Date expiry) {
+        this.id = id;
+        this.owner = owner;
+        this.expiry = expiry;
+    }
+
+    @Id
+    @Column(name = "lease_id", length = 255)
+    public String id;
+
+    @Column(name = "owner", nullable = true, length = 255)
+    public String owner;
+
+    @Column(name = "expiry", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date expiry;
+
+    static String partitionLeaseId(int partition) {
+        return PARTITION_PREFIX + partition;
+    }
+
+    static String nodeLeaseId(String nodeId) {
+        return NODE_PREFIX + nodeId;
+    }
+
+    // matches the ids of node rows in a like expression
+    static String nodeLeaseIdPattern() {
+        return NODE_PREFIX + "%";
+    }
+
+    boolean isPartition() {
+        return id.startsWith(PARTITION_PREFIX);
+    }
+
+    int partition() {
+        return Integer.parseInt(id.substring(PARTITION_PREFIX.length()));
+    }
+
+    boolean isNode() {
+        return id.startsWith(NODE_PREFIX);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ClusterLease [id=");
+        builder.append(id);
+        builder.append(", owner=");
+        builder.append(owner);
+        builder.append(", expiry=");
+        builder.append(expiry);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,13 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Marks an event of which only the last of consecutive pending signals to an
+ * entity needs to be processed. Generated for events named in an
+ * {@code xt:Coalesce} extension with mode {@code latest}.
+ * 
+ * @param <T>
+ *            entity type
+ */
+public interface CoalescibleEvent<T> extends Event<T> {
+
+}
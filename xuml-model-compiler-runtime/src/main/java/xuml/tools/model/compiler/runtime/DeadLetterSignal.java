@@ -0,0 +1,164 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.google.common.base.Optional;
+
+/**
+ * A queued signal whose processing failed as many times as
+ * {@link SignallerConfig#getMaxAttempts()} allows. It is kept here until
+ * replayed by {@link Signaller#replayDeadLetter(long)} or deleted by the
+ * application.
+ */
+@Entity
+@Table(name = "xuml_dead_letter_signal", indexes = {
+        // dead letters in the order they failed
+        @Index(name = "xuml_dead_letter_signal_last_failure", columnList = "time_last_failure") })
+public class DeadLetterSignal {
+
+    // longest failure description kept
+    private static final int MAX_FAILURE_LENGTH = 4000;
+
+    public DeadLetterSignal() {
+        // no-arg constructor required by JPA
+    }
+
+    public DeadLetterSignal(QueuedSignal signal, String failure) {
+        this.id = signal.id;
+        this.entityClassName = signal.entityClassName;
+        this.eventClassName = signal.eventClassName;
+        this.eventTypeId = signal.eventTypeId;
+        this.eventSignatureKey = signal.eventSignatureKey;
+        this.idClassName = signal.idClassName;
+        this.idTypeId = signal.idTypeId;
+        this.idContent = signal.idContent;
+        this.eventContent = signal.eventContent;
+        this.time = signal.time;
+        this.repeatIntervalMs = signal.repeatIntervalMs;
+        this.fromEntityUniqueId = signal.fromEntityUniqueId;
+        this.toEntityUniqueId = signal.toEntityUniqueId;
+        this.priority = signal.priority;
+        this.numFailures = signal.numFailures;
+        this.timeFirstFailure = signal.timeFirstFailure;
+        this.timeLastFailure = signal.timeLastFailure;
+        this.failure = failure.length() > MAX_FAILURE_LENGTH
+                ? failure.substring(0, MAX_FAILURE_LENGTH) : failure;
+    }
+
+    @Id
+    @Column(name = "signal_id")
+    public long id;
+
+    @Column(name = "entity_class_name", nullable = false)
+    public String entityClassName;
+
+    // null if eventTypeId is set, as for QueuedSignal
+    @Column(name = "event_class_name", nullable = true)
+    public String eventClassName;
+
+    @Column(name = "event_type_id", nullable = true)
+    public Integer eventTypeId;
+
+    @Column(name = "event_signature_key", nullable = true)
+    public String eventSignatureKey;
+
+    @Column(name = "id_class_name", nullable = true)
+    public String idClassName;
+
+    @Column(name = "id_type_id", nullable = true)
+    public Integer idTypeId;
+
+    @Column(name = "id_content", nullable = false)
+    public byte[] idContent;
+
+    @Column(name = "event_content", nullable = false)
+    @Lob
+    public byte[] eventContent;
+
+    // when the signal was last due
+    @Column(name = "time", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date time;
+
+    @Column(name = "repeat_interval_ms", nullable = true)
+    public Long repeatIntervalMs;
+
+    @Column(name = "from_entity_unique_id")
+    public String fromEntityUniqueId;
+
+    @Column(name = "to_entity_unique_id", nullable = false)
+    public String toEntityUniqueId;
+
+    @Column(name = "priority", nullable = false)
+    public int priority;
+
+    @Column(name = "num_failures", nullable = false)
+    public int numFailures;
+
+    @Column(name = "time_first_failure", nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date timeFirstFailure;
+
+    @Column(name = "time_last_failure", nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date timeLastFailure;
+
+    // stack trace of the last failure, truncated
+    @Column(name = "failure", nullable = true, length = MAX_FAILURE_LENGTH)
+    public String failure;
+
+    /**
+     * Returns a queued signal with the same id and content, due at the given
+     * time and with its failures forgotten.
+     *
+     * @param time
+     *            epoch ms
+     * @return queued signal
+     */
+    public QueuedSignal toQueuedSignal(long time) {
+        QueuedSignal signal = new QueuedSignal(id, idClassName, idContent, entityClassName,
+                eventClassName, eventSignatureKey, eventContent, time,
+                Optional.fromNullable(repeatIntervalMs), fromEntityUniqueId, toEntityUniqueId);
+        signal.eventTypeId = eventTypeId;
+        signal.eventClassName = eventClassName;
+        signal.idTypeId = idTypeId;
+        signal.idClassName = idClassName;
+        signal.priority = priority;
+        return signal;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("DeadLetterSignal [id=");
+        builder.append(id);
+        builder.append(", entityClassName=");
+        builder.append(entityClassName);
+        builder.append(", eventClassName=");
+        builder.append(eventClassName);
+        builder.append(", eventTypeId=");
+        builder.append(eventTypeId);
+        builder.append(", toEntityUniqueId=");
+        builder.append(toEntityUniqueId);
+        builder.append(", numFailures=");
+        builder.append(numFailures);
+        builder.append(", timeFirstFailure=");
+        builder.append(timeFirstFailure);
+        builder.append(", timeLastFailure=");
+        builder.append(timeLastFailure);
+        builder.append(", failure=");
+        builder.append(failure);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
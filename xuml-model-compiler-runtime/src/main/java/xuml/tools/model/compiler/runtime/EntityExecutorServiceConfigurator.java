@@ -1,30 +1,147 @@
 package xuml.tools.model.compiler.runtime;
 
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
 import com.typesafe.config.Config;
 
 import akka.dispatch.DispatcherPrerequisites;
 import akka.dispatch.ExecutorServiceConfigurator;
 import akka.dispatch.ExecutorServiceFactory;
 
+/**
+ * Creates the executor for the entity dispatcher from the
+ * <code>entity-executor</code> section of the dispatcher config (see
+ * xuml-akka.conf). The pool size bounds how many entity actors process signals
+ * at once so should not exceed the JDBC connection pool size.
+ */
 public class EntityExecutorServiceConfigurator extends ExecutorServiceConfigurator {
 
+    private static final Logger log = LoggerFactory
+            .getLogger(EntityExecutorServiceConfigurator.class);
+
+    private final EntityExecutorType type;
+    private final int poolSize;
+
     public EntityExecutorServiceConfigurator(Config config, DispatcherPrerequisites prerequisites) {
         super(config, prerequisites);
+        this.type = EntityExecutorType
+                .fromConfigValue(config.getString("entity-executor.type"));
+        this.poolSize = config.getInt("entity-executor.pool-size");
+        if (poolSize <= 0)
+            throw new IllegalArgumentException("entity-executor.pool-size must be > 0");
     }
 
     @Override
-    public ExecutorServiceFactory createExecutorServiceFactory(String id, ThreadFactory factory) {
+    public ExecutorServiceFactory createExecutorServiceFactory(String id,
+            final ThreadFactory factory) {
         return new ExecutorServiceFactory() {
 
             @Override
             public ExecutorService createExecutorService() {
-                return Executors.newFixedThreadPool(5);
+                log.info("creating {} entity executor with pool size {}", type, poolSize);
+                if (type == EntityExecutorType.FORK_JOIN)
+                    return new ForkJoinPool(poolSize);
+                else if (type == EntityExecutorType.VIRTUAL) {
+                    Optional<ExecutorService> virtual = VirtualThreads
+                            .newVirtualThreadPerTaskExecutor();
+                    if (virtual.isPresent())
+                        return new ConcurrencyLimitedExecutorService(virtual.get(), poolSize);
+                    log.warn("virtual threads not available in this JVM, using fixed thread pool");
+                }
+                return Executors.newFixedThreadPool(poolSize, factory);
             }
         };
     }
 
+    /**
+     * Runs at most {@code maxConcurrent} tasks at a time on the delegate,
+     * queueing the rest. Used with virtual threads which are otherwise
+     * unbounded and would all block waiting for a JDBC connection.
+     */
+    private static final class ConcurrencyLimitedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final int maxConcurrent;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger running = new AtomicInteger();
+
+        ConcurrencyLimitedExecutorService(ExecutorService delegate, int maxConcurrent) {
+            this.delegate = delegate;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            queue.offer(command);
+            drain();
+        }
+
+        private void drain() {
+            while (!queue.isEmpty()) {
+                int n = running.get();
+                if (n >= maxConcurrent)
+                    return;
+                if (!running.compareAndSet(n, n + 1))
+                    continue;
+                final Runnable task = queue.poll();
+                if (task == null) {
+                    running.decrementAndGet();
+                    // a task may have been queued between the check and the
+                    // decrement
+                    continue;
+                }
+                delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            running.decrementAndGet();
+                            drain();
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            queue.clear();
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
 }
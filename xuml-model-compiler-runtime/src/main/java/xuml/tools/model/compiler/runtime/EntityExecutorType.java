@@ -0,0 +1,48 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Kind of executor that runs entity actors. See
+ * {@link EntityExecutorServiceConfigurator}.
+ */
+public enum EntityExecutorType {
+
+    /**
+     * Fixed size thread pool.
+     */
+    FIXED("fixed"),
+
+    /**
+     * Work stealing {@link java.util.concurrent.ForkJoinPool} with parallelism
+     * equal to the pool size.
+     */
+    FORK_JOIN("fork-join"),
+
+    /**
+     * A new virtual thread per task with at most pool size tasks running at
+     * once. Requires Java 21 or later, otherwise {@link #FIXED} is used.
+     */
+    VIRTUAL("virtual");
+
+    private final String configValue;
+
+    private EntityExecutorType(String configValue) {
+        this.configValue = configValue;
+    }
+
+    /**
+     * Returns the value used for this type in xuml-akka.conf.
+     * 
+     * @return config value
+     */
+    public String configValue() {
+        return configValue;
+    }
+
+    public static EntityExecutorType fromConfigValue(String value) {
+        for (EntityExecutorType type : values())
+            if (type.configValue.equalsIgnoreCase(value))
+                return type;
+        throw new IllegalArgumentException("unknown entity executor type: " + value);
+    }
+
+}
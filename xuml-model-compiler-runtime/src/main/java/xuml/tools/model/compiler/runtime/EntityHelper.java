@@ -65,12 +65,26 @@ public class EntityHelper {
     }
 
     public void sendQueuedSignals() {
-        for (Signal signal : signalsToOther) {
-            // signal has already been persisted so can send it
-            signaller.signal(signal);
+        try {
+            for (Signal signal : signalsToOther) {
+                // signal has already been persisted so can send it
+                signaller.signal(signal);
+            }
+        } finally {
+            // signals that could not be sent are still queued in the database
+            // so must not be sent again with those of the next transaction
+            signalsToOther.clear();
         }
     }
 
+    /**
+     * Discards signals to other entities queued during a transaction that did
+     * not commit.
+     */
+    public void clearQueuedSignals() {
+        signalsToOther.clear();
+    }
+
     /**
      * Just after each Entity.performEvent is called we perform the events to
      * self that were called during that event.
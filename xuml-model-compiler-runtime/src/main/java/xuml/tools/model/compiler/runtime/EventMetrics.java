@@ -0,0 +1,161 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histograms and failure count for the signals of one event class.
+ * Queue latency is the time from when a signal was due to when processing
+ * started, processing is the time from the start of processing to after
+ * commit and commit is the time taken by the commit alone. All times are
+ * recorded in microseconds.
+ */
+public final class EventMetrics implements EventMetricsMXBean {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String entityClassName;
+    private final String eventClassName;
+    private final ConcurrentHistogram queueLatency = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final ConcurrentHistogram processing = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final ConcurrentHistogram commit = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final AtomicLong failures = new AtomicLong();
+
+    EventMetrics(String entityClassName, String eventClassName) {
+        this.entityClassName = entityClassName;
+        this.eventClassName = eventClassName;
+    }
+
+    void recordQueueLatencyMs(long ms) {
+        queueLatency.recordValue(TimeUnit.MILLISECONDS.toMicros(Math.max(0, ms)));
+    }
+
+    void recordProcessingNanos(long nanos) {
+        processing.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    void recordCommitNanos(long nanos) {
+        commit.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    @Override
+    public String getEntityClassName() {
+        return entityClassName;
+    }
+
+    @Override
+    public String getEventClassName() {
+        return eventClassName;
+    }
+
+    /**
+     * Returns a copy of the queue latency histogram.
+     * 
+     * @return queue latency in microseconds
+     */
+    public Histogram getQueueLatency() {
+        return queueLatency.copy();
+    }
+
+    /**
+     * Returns a copy of the processing time histogram.
+     * 
+     * @return processing time in microseconds
+     */
+    public Histogram getProcessing() {
+        return processing.copy();
+    }
+
+    /**
+     * Returns a copy of the commit time histogram.
+     * 
+     * @return commit time in microseconds
+     */
+    public Histogram getCommit() {
+        return commit.copy();
+    }
+
+    @Override
+    public long getCount() {
+        return processing.getTotalCount();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public double getQueueLatencyMeanMicros() {
+        return queueLatency.getMean();
+    }
+
+    @Override
+    public long getQueueLatency99Micros() {
+        return queueLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getQueueLatencyMaxMicros() {
+        return queueLatency.getMaxValue();
+    }
+
+    @Override
+    public double getProcessingMeanMicros() {
+        return processing.getMean();
+    }
+
+    @Override
+    public long getProcessing99Micros() {
+        return processing.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getProcessingMaxMicros() {
+        return processing.getMaxValue();
+    }
+
+    @Override
+    public double getCommitMeanMicros() {
+        return commit.getMean();
+    }
+
+    @Override
+    public long getCommit99Micros() {
+        return commit.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getCommitMaxMicros() {
+        return commit.getMaxValue();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("EventMetrics [entity=");
+        builder.append(entityClassName);
+        builder.append(", event=");
+        builder.append(eventClassName);
+        builder.append(", count=");
+        builder.append(getCount());
+        builder.append(", failures=");
+        builder.append(getFailures());
+        builder.append(", queueLatency99Micros=");
+        builder.append(getQueueLatency99Micros());
+        builder.append(", processing99Micros=");
+        builder.append(getProcessing99Micros());
+        builder.append(", commit99Micros=");
+        builder.append(getCommit99Micros());
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,35 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * JMX view of the {@link EventMetrics} of one event class. Times are in
+ * microseconds.
+ */
+public interface EventMetricsMXBean {
+
+    String getEntityClassName();
+
+    String getEventClassName();
+
+    long getCount();
+
+    long getFailures();
+
+    double getQueueLatencyMeanMicros();
+
+    long getQueueLatency99Micros();
+
+    long getQueueLatencyMaxMicros();
+
+    double getProcessingMeanMicros();
+
+    long getProcessing99Micros();
+
+    long getProcessingMaxMicros();
+
+    double getCommitMeanMicros();
+
+    long getCommit99Micros();
+
+    long getCommitMaxMicros();
+
+}
@@ -0,0 +1,191 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Collects items submitted by concurrent callers into a bounded staging buffer
+ * and hands them to a {@link Flusher} in batches from a single flusher thread.
+ * A batch is flushed as soon as it holds {@code maxBatchSize} items or
+ * {@code maxDelay} has elapsed since its first item was taken, whichever comes
+ * first. The future returned by {@link #submit(Object)} completes only after
+ * the batch containing the item has been flushed successfully.
+ *
+ * <p>
+ * If a batch fails its items are retried one by one so that a single bad item
+ * only fails its own future. If the flusher throws an {@link Error} every
+ * pending future is completed exceptionally with it and the committer stops
+ * accepting items.
+ *
+ * @param <T>
+ *            type of item being committed
+ */
+public final class GroupCommitter<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    /**
+     * Writes a batch of items, typically in one transaction. Should throw a
+     * {@link RuntimeException} if the batch was not committed.
+     */
+    public interface Flusher<T> {
+        void flush(List<T> items);
+    }
+
+    private final BlockingQueue<Pending<T>> buffer;
+    private final Flusher<T> flusher;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public GroupCommitter(String name, Flusher<T> flusher, int bufferSize, int maxBatchSize,
+            long maxDelay, TimeUnit unit) {
+        Preconditions.checkNotNull(flusher);
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be > 0");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0");
+        Preconditions.checkArgument(maxDelay >= 0, "maxDelay must be >= 0");
+        this.flusher = flusher;
+        this.buffer = new ArrayBlockingQueue<Pending<T>>(bufferSize);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Adds the item to the staging buffer, blocking while the buffer is full.
+     * The returned future completes with the item once it is durable or
+     * exceptionally if it could not be flushed.
+     *
+     * @param item
+     * @return future that completes when the item has been flushed
+     */
+    public CompletableFuture<T> submit(T item) {
+        Preconditions.checkState(running, "GroupCommitter has been closed");
+        Pending<T> pending = new Pending<T>(item);
+        try {
+            buffer.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+            return pending.future;
+        }
+        if (!running && buffer.remove(pending))
+            pending.future.completeExceptionally(
+                    new IllegalStateException("GroupCommitter has been closed"));
+        return pending.future;
+    }
+
+    /**
+     * Stops the flusher thread after flushing anything left in the buffer.
+     */
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending<T>> remaining = Lists.newArrayList();
+        buffer.drainTo(remaining);
+        if (!remaining.isEmpty())
+            flush(remaining);
+    }
+
+    private void flushLoop() {
+        List<Pending<T>> batch = Lists.newArrayListWithCapacity(maxBatchSize);
+        while (running) {
+            try {
+                Pending<T> first = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                buffer.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    Pending<T> next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                    buffer.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // flush what we have and let close() handle the rest
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    flush(batch);
+                } catch (Error e) {
+                    // the flusher thread is gone so fail whatever is still
+                    // buffered and reject further submits
+                    running = false;
+                    List<Pending<T>> remaining = Lists.newArrayList();
+                    buffer.drainTo(remaining);
+                    for (Pending<T> pending : remaining)
+                        pending.future.completeExceptionally(e);
+                    throw e;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending<T>> batch) {
+        List<T> items = Lists.newArrayListWithCapacity(batch.size());
+        for (Pending<T> pending : batch)
+            items.add(pending.item);
+        try {
+            flusher.flush(items);
+            for (Pending<T> pending : batch)
+                pending.future.complete(pending.item);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1)
+                batch.get(0).future.completeExceptionally(e);
+            else {
+                log.warn("flush of batch of {} failed, retrying individually: {}", batch.size(),
+                        e.getMessage());
+                for (Pending<T> pending : batch)
+                    flush(Collections.singletonList(pending));
+            }
+        } catch (Error e) {
+            // don't leave callers blocked on items that will never be flushed,
+            // futures already completed are left alone
+            for (Pending<T> pending : batch)
+                pending.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static final class Pending<T> {
+        final T item;
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        Pending(T item) {
+            this.item = item;
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Marks an event for which a pending signal to an entity identical to the one
+ * before it has no further effect and can be dropped. Generated for events
+ * named in an {@code xt:Coalesce} extension with mode {@code idempotent}.
+ * 
+ * @param <T>
+ *            entity type
+ */
+public interface IdempotentEvent<T> extends Event<T> {
+
+}
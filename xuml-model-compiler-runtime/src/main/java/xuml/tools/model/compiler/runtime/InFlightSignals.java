@@ -0,0 +1,116 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts signals that have been dispatched to an entity but not yet finished
+ * processing, and lets callers wait for the count to drop.
+ */
+public final class InFlightSignals {
+
+    private final AtomicLong count = new AtomicLong();
+    private final Object lock = new Object();
+    private volatile int waiters;
+    private final Queue<AsyncWaiter> asyncWaiters = new ConcurrentLinkedQueue<AsyncWaiter>();
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void decrement() {
+        decrement(1);
+    }
+
+    public void decrement(long n) {
+        count.addAndGet(-n);
+        if (waiters > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+        if (!asyncWaiters.isEmpty())
+            completeAsyncWaiters();
+    }
+
+    private void completeAsyncWaiters() {
+        long current = count.get();
+        Iterator<AsyncWaiter> it = asyncWaiters.iterator();
+        while (it.hasNext()) {
+            AsyncWaiter waiter = it.next();
+            if (current < waiter.limit) {
+                it.remove();
+                waiter.future.complete(null);
+            }
+        }
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    /**
+     * Blocks until fewer than {@code limit} signals are in flight or the
+     * timeout expires.
+     * 
+     * @param limit
+     * @param timeout
+     * @param unit
+     * @return true if the count dropped below the limit, false on timeout
+     * @throws InterruptedException
+     */
+    public boolean awaitBelow(long limit, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (count.get() < limit)
+            return true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            waiters++;
+            try {
+                while (count.get() >= limit) {
+                    long remainingMs = TimeUnit.NANOSECONDS
+                            .toMillis(deadline - System.nanoTime());
+                    if (remainingMs <= 0)
+                        return false;
+                    lock.wait(remainingMs);
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Returns a future that completes once fewer than {@code limit} signals
+     * are in flight. The future may be completed on the thread that finished
+     * processing a signal so dependent work should be run asynchronously.
+     * 
+     * @param limit
+     * @return future completed when the count is below the limit
+     */
+    public CompletableFuture<Void> whenBelow(long limit) {
+        if (count.get() < limit)
+            return CompletableFuture.completedFuture(null);
+        AsyncWaiter waiter = new AsyncWaiter(limit);
+        asyncWaiters.add(waiter);
+        // the count may have dropped before the waiter was added
+        if (count.get() < limit && asyncWaiters.remove(waiter))
+            waiter.future.complete(null);
+        return waiter.future;
+    }
+
+    private static final class AsyncWaiter {
+        final long limit;
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        AsyncWaiter(long limit) {
+            this.limit = limit;
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+/**
+ * Classes registered with Kryo by {@link Util} under stable ids so that
+ * nested values of those classes are written as a small integer rather than a
+ * class name. The generated Context registers the event and id classes of its
+ * domain. Registering a class only changes how it is written, values written
+ * before registration can still be read.
+ *
+ * <p>
+ * The same ids identify the event and id class of a {@link QueuedSignal} row
+ * in place of a class name. The JDK classes an entity id can be have fixed
+ * type ids below {@link #MIN_ID}. They are not registered with Kryo, which
+ * writes them with its own default ids.
+ *
+ * <p>
+ * Registrations are keyed by class name so that when an application is
+ * redeployed in a new class loader registering a class again replaces the
+ * class of the earlier deployment.
+ */
+public final class KryoRegistry {
+
+    /**
+     * Ids below this are left for the classes Kryo registers itself.
+     */
+    public static final int MIN_ID = 100;
+
+    // never change or reuse these, they are stored in queued signal rows
+    private static final ImmutableBiMap<Class<?>, Integer> BUILT_IN_TYPE_IDS = ImmutableBiMap
+            .<Class<?>, Integer> builder().put(String.class, 1).put(Integer.class, 2)
+            .put(Long.class, 3).put(Short.class, 4).put(Byte.class, 5).put(Character.class, 6)
+            .put(Boolean.class, 7).put(Float.class, 8).put(Double.class, 9)
+            .put(BigInteger.class, 10).put(BigDecimal.class, 11).put(Date.class, 12)
+            .put(UUID.class, 13).build();
+
+    private static final Map<String, Integer> BUILT_IN_TYPE_IDS_BY_NAME = builtInTypeIdsByName();
+
+    // replaced as a whole on every change so that lookups need no lock and a
+    // Kryo instance can tell by identity whether it is up to date
+    private static volatile Registrations registrations = new Registrations(
+            ImmutableList.<Entry> of());
+
+    private KryoRegistry() {
+        // prevent instantiation
+    }
+
+    private static Map<String, Integer> builtInTypeIdsByName() {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (Map.Entry<Class<?>, Integer> entry : BUILT_IN_TYPE_IDS.entrySet())
+            builder.put(entry.getKey().getName(), entry.getValue());
+        return builder.build();
+    }
+
+    /**
+     * Returns the id the model compiler assigns to a class, derived from its
+     * canonical name so that it does not change when other classes are added
+     * to or removed from the model.
+     *
+     * @param canonicalClassName
+     *            for example {@code abc.A.Events.Create}
+     * @return id
+     */
+    public static int idFor(String canonicalClassName) {
+        int hash = Hashing.murmur3_32().hashString(canonicalClassName, Charsets.UTF_8).asInt();
+        return MIN_ID + (hash & 0x3fffffff);
+    }
+
+    /**
+     * Registers {@code cls} under {@code id}. Registering the same class with
+     * the same id again has no effect. Registering a class of the same name
+     * from another class loader with the same id replaces the earlier one.
+     *
+     * @param cls
+     * @param id
+     * @throws IllegalStateException
+     *             if the class name or id is already registered differently
+     */
+    public static synchronized void register(Class<?> cls, int id) {
+        Preconditions.checkNotNull(cls);
+        Preconditions.checkArgument(id >= MIN_ID, "id must be >= " + MIN_ID);
+        String name = cls.getName();
+        Entry named = registrations.byName.get(name);
+        if (named != null && named.id != id)
+            throw new IllegalStateException(name + " already registered with id " + named.id);
+        Entry existing = registrations.byId.get(id);
+        if (existing != null && !existing.cls.getName().equals(name))
+            throw new IllegalStateException(
+                    "id " + id + " of " + name + " already used by " + existing.cls.getName());
+        if (existing != null && existing.cls == cls)
+            return;
+        Entry entry = new Entry(cls, id);
+        List<Entry> list = Lists.newArrayList(registrations.entries);
+        if (existing != null)
+            list.set(list.indexOf(existing), entry);
+        else
+            list.add(entry);
+        registrations = new Registrations(ImmutableList.copyOf(list));
+    }
+
+    /**
+     * Returns the id that identifies the class named {@code className} in a
+     * queued signal row, if it has one.
+     *
+     * @param className
+     *            as returned by {@link Class#getName()}
+     * @return type id
+     */
+    public static Optional<Integer> typeId(String className) {
+        Integer id = BUILT_IN_TYPE_IDS_BY_NAME.get(className);
+        if (id != null)
+            return Optional.of(id);
+        Entry entry = registrations.byName.get(className);
+        if (entry != null)
+            return Optional.of(entry.id);
+        else
+            return Optional.absent();
+    }
+
+    /**
+     * Returns the class identified by a type id returned by
+     * {@link #typeId(String)}.
+     *
+     * @param id
+     * @return class
+     * @throws IllegalStateException
+     *             if no class is registered with the id
+     */
+    public static Class<?> classForTypeId(int id) {
+        Class<?> cls = BUILT_IN_TYPE_IDS.inverse().get(id);
+        if (cls != null)
+            return cls;
+        Entry entry = registrations.byId.get(id);
+        if (entry == null)
+            throw new IllegalStateException("no class registered with id " + id);
+        return entry.cls;
+    }
+
+    /**
+     * Returns the registrations in the order they were first made. The list
+     * is immutable and replaced by a new one whenever a registration is added
+     * or replaced.
+     *
+     * @return registrations
+     */
+    static List<Entry> entries() {
+        return registrations.entries;
+    }
+
+    private static final class Registrations {
+        final List<Entry> entries;
+        final Map<String, Entry> byName;
+        final Map<Integer, Entry> byId;
+
+        Registrations(List<Entry> entries) {
+            this.entries = entries;
+            this.byName = Maps.newHashMap();
+            this.byId = Maps.newHashMap();
+            for (Entry entry : entries) {
+                byName.put(entry.cls.getName(), entry);
+                byId.put(entry.id, entry);
+            }
+        }
+    }
+
+    static final class Entry {
+        final Class<?> cls;
+        final int id;
+
+        Entry(Class<?> cls, int id) {
+            this.cls = cls;
+            this.id = id;
+        }
+    }
+
+}
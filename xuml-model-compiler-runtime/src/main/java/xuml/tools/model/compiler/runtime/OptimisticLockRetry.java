@@ -0,0 +1,93 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.persistence.OptimisticLockException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * Decides whether {@link SignalProcessor} performs a signal again after its
+ * transaction failed because the entity was updated concurrently, for
+ * example from a request thread using {@code Context.em()} while its entity
+ * actor was processing a signal. Entities only detect this if they have a
+ * version column (generated by the <code>xt:Versioned</code> class extension).
+ * Between attempts the thread sleeps a random time up to
+ * {@code maxJitterMs} times the number of the retry so that competing
+ * writers don't collide again.
+ */
+public final class OptimisticLockRetry {
+
+    private static final OptimisticLockRetry NONE = new OptimisticLockRetry(0, 0);
+
+    private final int maxRetries;
+    private final long maxJitterMs;
+
+    public OptimisticLockRetry(int maxRetries, long maxJitterMs) {
+        Preconditions.checkArgument(maxRetries >= 0, "maxRetries must be >= 0");
+        Preconditions.checkArgument(maxJitterMs >= 0, "maxJitterMs must be >= 0");
+        this.maxRetries = maxRetries;
+        this.maxJitterMs = maxJitterMs;
+    }
+
+    public static OptimisticLockRetry none() {
+        return NONE;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getMaxJitterMs() {
+        return maxJitterMs;
+    }
+
+    /**
+     * Returns true if the signal should be performed again after failing
+     * with {@code e}.
+     *
+     * @param e
+     *            cause of the failure
+     * @param retries
+     *            number of times the signal has already been retried
+     * @return true to retry
+     */
+    boolean shouldRetry(Throwable e, int retries) {
+        return retries < maxRetries && isOptimisticLockFailure(e);
+    }
+
+    /**
+     * Sleeps before the given retry. Returns early if interrupted, leaving
+     * the thread interrupted.
+     *
+     * @param retry
+     *            starting at 1
+     */
+    void pause(int retry) {
+        long bound = maxJitterMs * retry;
+        if (bound <= 0)
+            return;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if {@code e} or one of its causes is an
+     * {@link OptimisticLockException}, which the JPA provider throws on flush
+     * or wrapped in a {@link javax.persistence.RollbackException} on commit.
+     *
+     * @param e
+     * @return true if a concurrent update caused the failure
+     */
+    static boolean isOptimisticLockFailure(Throwable e) {
+        for (Throwable t : Throwables.getCausalChain(e))
+            if (t instanceof OptimisticLockException)
+                return true;
+        return false;
+    }
+
+}
@@ -0,0 +1,497 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.actor.EntityActor;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Competing consumers of the queued signal table. Each worker thread claims
+ * due signals by writing a claim token and the time into their rows,
+ * processes them with a {@link SignalProcessor} as an entity actor would and
+ * then releases the claims. Workers in any number of JVMs can share one
+ * database, and as signals are taken from the table rather than pushed into
+ * memory a worker only ever holds the batch it is processing.
+ *
+ * <p>
+ * A worker only claims the signals of an entity if it claims the earliest due
+ * signal of that entity, which stays claimed until the worker has processed
+ * them, so the signals to an entity are processed by one worker at a time in
+ * (time, id) order. A claim older than the claim timeout is considered
+ * abandoned and its signals claimed again, so the timeout must be longer than
+ * a batch takes to process. A signal that fails keeps its claim and is retried
+ * once that expires, holding back the later signals to its entity, unless
+ * retry is configured in which case its claim is released and it is retried
+ * when it falls due again.
+ *
+ * <p>
+ * {@link #dispatch(Signal)} only wakes idle workers, which otherwise poll the
+ * table at the poll interval.
+ */
+public final class PollingSignalDispatcher implements SignalDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(PollingSignalDispatcher.class);
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final EntityManagerFactory emf;
+    private final Function<QueuedSignal, Signal<?>> decoder;
+    private final SignalProcessorListenerFactory listenerFactory;
+    private final SignalListener signalListener;
+    private final SignalAcknowledger acknowledger;
+    private final SignalFailureHandler failureHandler;
+    private final OptimisticLockRetry optimisticLockRetry;
+    // failed signals have been moved to a later time by the failure handler
+    private final boolean retry;
+    private final InFlightSignals inFlight;
+    private final int maxBatchSize;
+    private final long maxBatchTimeMs;
+    private final int batchSize;
+    private final int pageSize;
+    private final long pollIntervalMs;
+    private final long claimTimeoutMs;
+    private final List<Worker> workers = Lists.newArrayList();
+    private final ExecutorService executor;
+    // incremented by every dispatch so workers know to poll again
+    private final AtomicLong generation = new AtomicLong();
+    private final Object lock = new Object();
+    private volatile int waiting;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean stopped;
+    private final AtomicInteger activeEntities = new AtomicInteger();
+    private final AtomicLong lastReleaseTime = new AtomicLong(System.currentTimeMillis());
+
+    public PollingSignalDispatcher(EntityManagerFactory emf,
+            Function<QueuedSignal, Signal<?>> decoder,
+            SignalProcessorListenerFactory listenerFactory, SignalListener signalListener,
+            SignalAcknowledger acknowledger, SignalFailureHandler failureHandler,
+            InFlightSignals inFlight, SignallerConfig config) {
+        this.emf = emf;
+        this.decoder = decoder;
+        this.listenerFactory = listenerFactory;
+        this.signalListener = signalListener;
+        this.acknowledger = acknowledger;
+        this.failureHandler = failureHandler;
+        this.optimisticLockRetry = config.getOptimisticLockRetry();
+        this.retry = config.isRetry();
+        this.inFlight = inFlight;
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.maxBatchTimeMs = config.getMaxBatchTimeMs();
+        this.batchSize = config.getPollingBatchSize();
+        this.pageSize = config.getRecoveryPageSize();
+        this.pollIntervalMs = config.getPollIntervalMs();
+        this.claimTimeoutMs = config.getClaimTimeoutMs();
+        this.executor = Executors.newFixedThreadPool(config.getPollingWorkers(),
+                new ThreadFactoryBuilder().setNameFormat("xuml-signal-worker-%d")
+                        .setDaemon(true).build());
+        String prefix = UUID.randomUUID().toString();
+        for (int i = 0; i < config.getPollingWorkers(); i++)
+            workers.add(new Worker(prefix + "-" + i, i));
+    }
+
+    /**
+     * Starts the workers if not already started. Called by the first
+     * dispatch so that signals left in the table by a previous run are not
+     * processed before the application is ready, unless it calls
+     * {@link Signaller#sendSignalsInQueue()}.
+     */
+    void start() {
+        if (started.compareAndSet(false, true))
+            for (Worker worker : workers)
+                executor.execute(worker);
+    }
+
+    @Override
+    public void dispatch(Signal<?> signal) {
+        start();
+        wakeUp();
+    }
+
+    /**
+     * Makes waiting workers poll now.
+     */
+    void wakeUp() {
+        generation.incrementAndGet();
+        if (waiting > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns true if every worker has polled since the last dispatch and
+     * found no due signal it could claim, or the workers have not started.
+     *
+     * @return true if idle
+     */
+    public boolean isIdle() {
+        if (!started.get())
+            return true;
+        long current = generation.get();
+        for (Worker worker : workers)
+            if (worker.idleGeneration != current)
+                return false;
+        return true;
+    }
+
+    @Override
+    public long activeEntities() {
+        return activeEntities.get();
+    }
+
+    @Override
+    public boolean stop() {
+        stopped = true;
+        wakeUp();
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                return true;
+            log.warn("signal workers did not finish within {}s", STOP_TIMEOUT_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private SignalProcessorListener createListener(String entityUniqueId) {
+        if (listenerFactory == null)
+            return SignalProcessorListenerDoesNothing.getInstance();
+        else
+            return listenerFactory.create(entityUniqueId);
+    }
+
+    private final class Worker implements Runnable {
+
+        private final String id;
+        private final int index;
+        private long claims;
+        // generation of the last poll that found nothing to claim, -1 while
+        // polling or processing
+        private volatile long idleGeneration = -1;
+
+        Worker(String id, int index) {
+            this.id = id;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long current = generation.get();
+                idleGeneration = -1;
+                String token = id + ":" + claims++;
+                List<QueuedSignal> claimed;
+                try {
+                    releaseExpiredClaims();
+                    claimed = claim(token);
+                } catch (RuntimeException e) {
+                    // typically contention with another worker
+                    log.warn("could not claim signals: " + e.getMessage(), e);
+                    await(current);
+                    continue;
+                }
+                if (claimed.isEmpty()) {
+                    idleGeneration = current;
+                    await(current);
+                } else
+                    process(token, claimed);
+            }
+        }
+
+        private void await(long current) {
+            synchronized (lock) {
+                waiting++;
+                try {
+                    if (!stopped && generation.get() == current)
+                        lock.wait(pollIntervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopped = true;
+                } finally {
+                    waiting--;
+                }
+            }
+        }
+
+        /**
+         * Claims the due signals of entities whose earliest due signal is not
+         * claimed by another worker, up to the batch size.
+         *
+         * @return claimed signals in (time, id) order
+         */
+        private List<QueuedSignal> claim(String token) {
+            long now = System.currentTimeMillis();
+            EntityManager em = emf.createEntityManager();
+            EntityTransaction tx = null;
+            try {
+                tx = em.getTransaction();
+                tx.begin();
+                List<QueuedSignal> due = em
+                        .createQuery("select s from " + QueuedSignal.class.getSimpleName()
+                                + " s where s.status=:queued and s.time<=:now"
+                                + " order by s.time, s.id", QueuedSignal.class)
+                        .setParameter("queued", QueuedSignal.Status.QUEUED)
+                        .setParameter("now", new Date(now)).setMaxResults(pageSize)
+                        .getResultList();
+                if (due.isEmpty()) {
+                    tx.commit();
+                    return Collections.emptyList();
+                }
+                Map<String, List<QueuedSignal>> byEntity = groupByEntity(due);
+                List<String> entities = Lists.newArrayList(byEntity.keySet());
+                // workers start at different entities to contend less
+                Collections.rotate(entities, -(index % entities.size()));
+                Date expired = new Date(now - claimTimeoutMs);
+                int count = 0;
+                for (String entity : entities) {
+                    if (count >= batchSize)
+                        break;
+                    List<QueuedSignal> rows = byEntity.get(entity);
+                    if (isClaimed(rows.get(0), expired))
+                        continue;
+                    List<Long> ids = Lists.newArrayList();
+                    for (QueuedSignal row : rows)
+                        ids.add(row.id);
+                    // the earliest signal first so only one worker wins the
+                    // entity
+                    if (claim(em, token, now, expired, ids.subList(0, 1)) == 0)
+                        continue;
+                    if (ids.size() > 1)
+                        claim(em, token, now, expired, ids.subList(1, ids.size()));
+                    count += ids.size();
+                }
+                em.clear();
+                List<QueuedSignal> claimed = em
+                        .createQuery("select s from " + QueuedSignal.class.getSimpleName()
+                                + " s where s.claimOwner=:token order by s.time, s.id",
+                                QueuedSignal.class)
+                        .setParameter("token", token).getResultList();
+                tx.commit();
+                return claimed;
+            } catch (RuntimeException e) {
+                if (tx != null && tx.isActive())
+                    tx.rollback();
+                throw e;
+            } finally {
+                em.close();
+            }
+        }
+
+        private int claim(EntityManager em, String token, long now, Date expired,
+                List<Long> ids) {
+            return em
+                    .createQuery("update " + QueuedSignal.class.getSimpleName()
+                            + " set claimOwner=:token, claimTime=:now"
+                            + " where id in :ids and status=:queued"
+                            + " and (claimOwner is null or claimTime<=:expired)")
+                    .setParameter("token", token).setParameter("now", new Date(now))
+                    .setParameter("ids", ids).setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("expired", expired).executeUpdate();
+        }
+
+        private void process(String token, List<QueuedSignal> claimed) {
+            Set<Long> failed = Sets.newHashSet();
+            for (Map.Entry<String, List<QueuedSignal>> entry : groupByEntity(claimed)
+                    .entrySet()) {
+                activeEntities.incrementAndGet();
+                try {
+                    failed.addAll(processEntity(entry.getKey(), entry.getValue()));
+                } finally {
+                    activeEntities.decrementAndGet();
+                }
+            }
+            try {
+                release(token, failed);
+            } catch (RuntimeException e) {
+                // the claims expire
+                log.warn("could not release claimed signals: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Processes the claimed signals of one entity in order. Without retry
+         * the signals after one that fails are not processed. Their claims
+         * are released but the entity is not claimed again until the claim
+         * of the failed signal expires.
+         *
+         * @return ids of signals that failed and so stay claimed
+         */
+        private Set<Long> processEntity(String entityUniqueId, List<QueuedSignal> rows) {
+            Set<Long> failed = Sets.newHashSet();
+            List<Signal<?>> signals = Lists.newArrayList();
+            for (QueuedSignal row : rows) {
+                try {
+                    signals.add(decoder.apply(row));
+                } catch (RuntimeException e) {
+                    log.error("could not decode queued signal: " + e.getMessage(), e);
+                    failed.add(row.id);
+                }
+            }
+            FailureRecorder listener = new FailureRecorder(createListener(entityUniqueId));
+            SignalProcessor processor = new SignalProcessor(emf, listener, signalListener,
+                    acknowledger, failureHandler, optimisticLockRetry, false,
+                    Optional.<ResidentActorMetrics> absent(), inFlight, null);
+            List<Merged> coalesced = SignalCoalescer.coalesce(signals);
+            for (int i = 0; i < signals.size(); i++)
+                inFlight.increment();
+            try {
+                // without retry a failed signal is tried again when its claim
+                // expires so the signals after it must wait for it
+                processor.process(coalesced, maxBatchSize, maxBatchTimeMs, !retry);
+            } catch (RuntimeException e) {
+                // the listener rethrew, retry the signals once their claims
+                // expire
+                log.error(e.getMessage(), e);
+                listener.failed.addAll(ids(coalesced));
+            } finally {
+                processor.close();
+            }
+            for (Merged merged : coalesced)
+                if (listener.failed.contains(merged.getSignal().getId())) {
+                    if (!retry)
+                        failed.add(merged.getSignal().getId());
+                    // still queued behind the signal that replaced them
+                    for (Signal<?> replaced : merged.getReplaced())
+                        failed.add(replaced.getId());
+                }
+            return failed;
+        }
+
+        private void release(String token, Set<Long> failed) {
+            EntityManager em = emf.createEntityManager();
+            EntityTransaction tx = null;
+            try {
+                tx = em.getTransaction();
+                tx.begin();
+                String jpql = "update " + QueuedSignal.class.getSimpleName()
+                        + " set claimOwner=null, claimTime=null where claimOwner=:token";
+                if (!failed.isEmpty())
+                    jpql += " and id not in :failed";
+                Query query = em.createQuery(jpql).setParameter("token", token);
+                if (!failed.isEmpty())
+                    query.setParameter("failed", failed);
+                query.executeUpdate();
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx != null && tx.isActive())
+                    tx.rollback();
+                throw e;
+            } finally {
+                em.close();
+            }
+        }
+    }
+
+    private static List<Long> ids(List<Merged> coalesced) {
+        List<Long> ids = Lists.newArrayList();
+        for (Merged merged : coalesced)
+            ids.add(merged.getSignal().getId());
+        return ids;
+    }
+
+    private static boolean isClaimed(QueuedSignal row, Date expired) {
+        return row.claimOwner != null && row.claimTime.after(expired);
+    }
+
+    private static Map<String, List<QueuedSignal>> groupByEntity(List<QueuedSignal> rows) {
+        Map<String, List<QueuedSignal>> map = Maps.newLinkedHashMap();
+        for (QueuedSignal row : rows) {
+            List<QueuedSignal> list = map.get(row.toEntityUniqueId);
+            if (list == null) {
+                list = Lists.newArrayList();
+                map.put(row.toEntityUniqueId, list);
+            }
+            list.add(row);
+        }
+        return map;
+    }
+
+    /**
+     * Clears claims that have expired, at most once per claim timeout between
+     * all the workers, so abandoned and failed signals are claimed again.
+     */
+    private void releaseExpiredClaims() {
+        long now = System.currentTimeMillis();
+        long last = lastReleaseTime.get();
+        if (now - last < claimTimeoutMs || !lastReleaseTime.compareAndSet(last, now))
+            return;
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            int count = em
+                    .createQuery("update " + QueuedSignal.class.getSimpleName()
+                            + " set claimOwner=null, claimTime=null where claimTime<=:expired")
+                    .setParameter("expired", new Date(now - claimTimeoutMs)).executeUpdate();
+            tx.commit();
+            if (count > 0)
+                log.info("released {} expired signal claims", count);
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Records the signals whose processing failed.
+     */
+    private static final class FailureRecorder implements SignalProcessorListener {
+
+        private final SignalProcessorListener listener;
+        final Set<Long> failed = Sets.newHashSet();
+
+        FailureRecorder(SignalProcessorListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void beforeProcessing(Signal<?> signal, EntityActor actor) {
+            listener.beforeProcessing(signal, actor);
+        }
+
+        @Override
+        public void afterProcessing(Signal<?> signal, EntityActor actor) {
+            listener.afterProcessing(signal, actor);
+        }
+
+        @Override
+        public void failure(Signal<?> signal, Exception e, EntityActor actor) {
+            failed.add(signal.getId());
+            listener.failure(signal, e, actor);
+        }
+    }
+
+}
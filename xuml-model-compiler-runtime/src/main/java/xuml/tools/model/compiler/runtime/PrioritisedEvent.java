@@ -0,0 +1,22 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * An event whose signals have a priority other than 0. Generated for events
+ * named in an {@code xt:Priority} extension. With priority lanes enabled (see
+ * {@link SignallerConfig.Builder#priorityLanes(int)}) entities with pending
+ * signals of a higher priority are served before those with signals of a
+ * lower one. Signals to one entity keep the order they were sent in.
+ *
+ * @param <T>
+ *            entity type
+ */
+public interface PrioritisedEvent<T> extends Event<T> {
+
+    /**
+     * Returns the priority of signals of this event, higher first.
+     *
+     * @return priority
+     */
+    int priority();
+
+}
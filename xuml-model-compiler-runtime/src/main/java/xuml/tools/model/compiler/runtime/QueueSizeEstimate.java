@@ -0,0 +1,34 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate number of queued signals, adjusted as signals are persisted and
+ * acknowledged and periodically reset from an exact count. Adjustments are
+ * made when the change is issued rather than on commit, so the estimate can
+ * drift if transactions roll back until the next reset.
+ */
+final class QueueSizeEstimate {
+
+    private final AtomicLong size = new AtomicLong();
+    // never reset
+    private volatile long resetTime = 0;
+
+    void add(long n) {
+        size.addAndGet(n);
+    }
+
+    long get() {
+        return Math.max(0, size.get());
+    }
+
+    void reset(long exact, long time) {
+        size.set(exact);
+        resetTime = time;
+    }
+
+    long getResetTime() {
+        return resetTime;
+    }
+
+}
@@ -5,7 +5,10 @@ import java.util.Date;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
@@ -15,9 +18,21 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
 @Entity
-@Table(name = "xuml_queued_signal")
+@Table(name = "xuml_queued_signal", indexes = {
+        // delayed signals due and recovery in time order
+        @Index(name = "xuml_queued_signal_time", columnList = "time"),
+        // signals superseded or cancelled for an entity
+        @Index(name = "xuml_queued_signal_to_time", columnList = "to_entity_unique_id,time"),
+        // queued signals, and processed ones awaiting compaction
+        @Index(name = "xuml_queued_signal_status_time", columnList = "status,time"),
+        // signals handed to the node owning their partition when clustered
+        @Index(name = "xuml_queued_signal_status_partition", columnList = "status,partition_no,time"),
+        // recovery a priority lane at a time
+        @Index(name = "xuml_queued_signal_status_priority", columnList = "status,priority,time") })
 public class QueuedSignal {
 
+    private static final SignalIdGenerator RANDOM_IDS = new SignalIdGeneratorRandom();
+
     public QueuedSignal() {
         // no-arg constructor required by JPA
     }
@@ -25,35 +40,80 @@ public class QueuedSignal {
     public QueuedSignal(String idClassName, byte[] idContent, String entityClassName,
             String eventClassName, byte[] eventContent, long time, Optional<Long> repeatIntervalMs,
             String fromEntityUniqueId, String toEntityUniqueId) {
+        this(idClassName, idContent, entityClassName, eventClassName, null, eventContent, time,
+                repeatIntervalMs, fromEntityUniqueId, toEntityUniqueId);
+    }
+
+    public QueuedSignal(String idClassName, byte[] idContent, String entityClassName,
+            String eventClassName, String eventSignatureKey, byte[] eventContent, long time,
+            Optional<Long> repeatIntervalMs, String fromEntityUniqueId, String toEntityUniqueId) {
+        this(RANDOM_IDS.next(), idClassName, idContent, entityClassName, eventClassName,
+                eventSignatureKey, eventContent, time, repeatIntervalMs, fromEntityUniqueId,
+                toEntityUniqueId);
+    }
+
+    public QueuedSignal(long id, String idClassName, byte[] idContent, String entityClassName,
+            String eventClassName, String eventSignatureKey, byte[] eventContent, long time,
+            Optional<Long> repeatIntervalMs, String fromEntityUniqueId, String toEntityUniqueId) {
         this.toEntityUniqueId = toEntityUniqueId;
         Preconditions.checkNotNull(repeatIntervalMs);
         this.idContent = idContent;
-        this.idClassName = idClassName;
+        // a class with a type id is stored as that rather than its name
+        this.idTypeId = typeId(idClassName);
+        this.idClassName = idTypeId == null ? idClassName : null;
         this.entityClassName = entityClassName;
-        this.eventClassName = eventClassName;
+        this.eventTypeId = typeId(eventClassName);
+        this.eventClassName = eventTypeId == null ? eventClassName : null;
+        this.eventSignatureKey = eventSignatureKey;
         this.eventContent = eventContent;
         this.fromEntityUniqueId = fromEntityUniqueId;
         this.time = new Date(time);
         this.repeatIntervalMs = repeatIntervalMs.orNull();
-        this.id = ArbitraryId.next();
+        this.id = id;
+        this.status = Status.QUEUED;
     }
 
-    // TODO add new fields, numFailures, timeFirstFailure, timeLastFailure
+    /**
+     * Processing status of a queued signal. Signals are only left in the table
+     * as {@link #PROCESSED} if the {@link SignalAcknowledger} in use marks them
+     * rather than deleting them. {@link #DEFERRED} signals were not dispatched
+     * because the signaller was overloaded and become {@link #QUEUED} when
+     * they are. {@link #REMOTE} signals are to entities in a partition owned
+     * by another node of a cluster and become {@link #QUEUED} when that node
+     * takes them.
+     */
+    public static enum Status {
+        QUEUED, PROCESSED, DEFERRED, REMOTE;
+    }
 
+    // see SignalIdGenerator
     @Id
-    // @GeneratedValue(strategy = GenerationType.AUTO)
     @Column(name = "signal_id")
-    public String id;
+    public long id;
 
     @Column(name = "entity_class_name", nullable = false)
     public String entityClassName;
 
-    @Column(name = "event_class_name", nullable = false)
+    // null if eventTypeId is set
+    @Column(name = "event_class_name", nullable = true)
     public String eventClassName;
 
-    @Column(name = "id_class_name", nullable = false)
+    // see KryoRegistry.typeId
+    @Column(name = "event_type_id", nullable = true)
+    public Integer eventTypeId;
+
+    // identifies a delayed signal that a later one of the same signature
+    // replaces, see Signaller.cancelSignal
+    @Column(name = "event_signature_key", nullable = true)
+    public String eventSignatureKey;
+
+    // null if idTypeId is set
+    @Column(name = "id_class_name", nullable = true)
     public String idClassName;
 
+    @Column(name = "id_type_id", nullable = true)
+    public Integer idTypeId;
+
     @Column(name = "id_content", nullable = false)
     public byte[] idContent;
 
@@ -74,6 +134,39 @@ public class QueuedSignal {
     @Column(name = "to_entity_unique_id", nullable = false)
     public String toEntityUniqueId;
 
+    @Column(name = "status", nullable = false, length = 16)
+    @Enumerated(EnumType.STRING)
+    public Status status;
+
+    // priority of the event, see PrioritisedEvent
+    @Column(name = "priority", nullable = false)
+    public int priority;
+
+    // hash partition of toEntityUniqueId, see SignallerConfig.Builder.cluster
+    @Column(name = "partition_no", nullable = false)
+    public int partition;
+
+    // claim token of the polling worker processing the signal, see
+    // PollingSignalDispatcher
+    @Column(name = "claim_owner", nullable = true, length = 64)
+    public String claimOwner;
+
+    @Column(name = "claim_time", nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date claimTime;
+
+    // times processing has failed, see SignallerConfig.Builder.retry
+    @Column(name = "num_failures", nullable = false)
+    public int numFailures;
+
+    @Column(name = "time_first_failure", nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date timeFirstFailure;
+
+    @Column(name = "time_last_failure", nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    public Date timeLastFailure;
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -83,8 +176,14 @@ public class QueuedSignal {
         builder.append(entityClassName);
         builder.append(", eventClassName=");
         builder.append(eventClassName);
+        builder.append(", eventTypeId=");
+        builder.append(eventTypeId);
+        builder.append(", eventSignatureKey=");
+        builder.append(eventSignatureKey);
         builder.append(", idClassName=");
         builder.append(idClassName);
+        builder.append(", idTypeId=");
+        builder.append(idTypeId);
         builder.append(", idContentSize=");
         builder.append(idContent.length);
         builder.append(", eventContentSize=");
@@ -95,26 +194,42 @@ public class QueuedSignal {
         builder.append(repeatIntervalMs);
         builder.append(", fromEntityUniqueId=");
         builder.append(fromEntityUniqueId);
+        builder.append(", status=");
+        builder.append(status);
+        builder.append(", priority=");
+        builder.append(priority);
+        builder.append(", partition=");
+        builder.append(partition);
+        builder.append(", claimOwner=");
+        builder.append(claimOwner);
+        builder.append(", numFailures=");
+        builder.append(numFailures);
         builder.append("]");
         return builder.toString();
     }
 
     @SuppressWarnings("unchecked")
     public Class<Event<?>> eventClass() {
-        try {
-            return (Class<Event<?>>) Class.forName(eventClassName);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+        return (Class<Event<?>>) classFor(eventTypeId, eventClassName);
     }
 
     @SuppressWarnings("unchecked")
     public Class<? extends Serializable> idClass() {
-        try {
-            return (Class<? extends Serializable>) Class.forName(idClassName);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+        return (Class<? extends Serializable>) classFor(idTypeId, idClassName);
+    }
+
+    private static Integer typeId(String className) {
+        if (className == null)
+            return null;
+        else
+            return KryoRegistry.typeId(className).orNull();
+    }
+
+    private static Class<?> classFor(Integer typeId, String className) {
+        if (typeId != null)
+            return KryoRegistry.classForTypeId(typeId);
+        else
+            return TypeRegistry.classForName(className);
     }
 
 }
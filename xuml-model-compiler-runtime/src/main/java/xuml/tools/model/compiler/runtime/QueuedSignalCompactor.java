@@ -0,0 +1,76 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Deletes signals marked {@link QueuedSignal.Status#PROCESSED} in batches, one
+ * transaction per batch, until none are left.
+ */
+public class QueuedSignalCompactor implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(QueuedSignalCompactor.class);
+
+    private final EntityManagerFactory emf;
+    private final int batchSize;
+
+    public QueuedSignalCompactor(EntityManagerFactory emf, int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+        this.emf = emf;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long total = 0;
+            int count;
+            do {
+                count = deleteBatch();
+                total += count;
+            } while (count == batchSize);
+            if (total > 0)
+                log.debug("deleted {} processed signals", total);
+        } catch (RuntimeException e) {
+            // keep the schedule alive, will try again next time
+            log.warn("compaction of processed signals failed: " + e.getMessage(), e);
+        }
+    }
+
+    private int deleteBatch() {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            List<Long> ids = em
+                    .createQuery("select s.id from " + QueuedSignal.class.getSimpleName()
+                            + " s where s.status=:processed", Long.class)
+                    .setParameter("processed", QueuedSignal.Status.PROCESSED)
+                    .setMaxResults(batchSize).getResultList();
+            int count = 0;
+            if (!ids.isEmpty())
+                count = em
+                        .createQuery("delete from " + QueuedSignal.class.getSimpleName()
+                                + " where id in :ids")
+                        .setParameter("ids", ids).executeUpdate();
+            tx.commit();
+            return count;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of {@link Signaller#sendSignalsInQueue()}. Counters are updated as
+ * recovery runs so can be polled from another thread.
+ */
+public final class RecoveryProgress {
+
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long startTime;
+    private volatile long finishTime;
+
+    void started() {
+        startTime = System.currentTimeMillis();
+    }
+
+    void finished() {
+        finishTime = System.currentTimeMillis();
+    }
+
+    void page(int size) {
+        pages.incrementAndGet();
+        read.addAndGet(size);
+    }
+
+    void dispatched() {
+        dispatched.incrementAndGet();
+    }
+
+    void scheduled() {
+        scheduled.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    /**
+     * Returns the number of queued signal rows read so far.
+     */
+    public long getRead() {
+        return read.get();
+    }
+
+    /**
+     * Returns the number of overdue signals sent to their entities.
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Returns the number of signals handed to the scheduler because they are
+     * not yet due.
+     */
+    public long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * Returns the number of rows that could not be decoded and were skipped.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public boolean isFinished() {
+        return finishTime != 0;
+    }
+
+    /**
+     * Returns the elapsed time of the recovery so far or in total if finished.
+     */
+    public long getElapsedMs() {
+        if (startTime == 0)
+            return 0;
+        else if (finishTime == 0)
+            return System.currentTimeMillis() - startTime;
+        else
+            return finishTime - startTime;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("RecoveryProgress [pages=");
+        builder.append(pages);
+        builder.append(", read=");
+        builder.append(read);
+        builder.append(", dispatched=");
+        builder.append(dispatched);
+        builder.append(", scheduled=");
+        builder.append(scheduled);
+        builder.append(", failed=");
+        builder.append(failed);
+        builder.append(", elapsedMs=");
+        builder.append(getElapsedMs());
+        builder.append(", finished=");
+        builder.append(isFinished());
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,54 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for resident entity actors. A hit is a signal processed with the
+ * EntityManager retained from a previous signal, a miss is a signal that had
+ * to create a new EntityManager and an eviction is a resident actor stopped
+ * because it was idle too long or was least recently used.
+ */
+public final class ResidentActorMetrics {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    public void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ResidentActorMetrics [hits=");
+        builder.append(hits);
+        builder.append(", misses=");
+        builder.append(misses);
+        builder.append(", evictions=");
+        builder.append(evictions);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
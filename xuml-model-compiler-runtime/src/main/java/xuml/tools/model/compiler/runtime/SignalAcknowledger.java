@@ -0,0 +1,46 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Strategy for recording that a {@link QueuedSignal} has been processed so
+ * that it is not replayed by {@link Signaller#sendSignalsInQueue()}.
+ */
+public interface SignalAcknowledger {
+
+    /**
+     * Called in the transaction that processed the signal just before it is
+     * committed. Returns false if acknowledgement is deferred, in which case
+     * the signal id will be passed to
+     * {@link #acknowledge(EntityManagerFactory, List)} after commit.
+     * 
+     * @param em
+     *            entity manager of the processing transaction
+     * @param signalId
+     *            id of the processed signal
+     * @return true if the signal has been acknowledged
+     */
+    boolean acknowledge(EntityManager em, long signalId);
+
+    /**
+     * Acknowledges signals whose acknowledgement was deferred. Called outside
+     * of the processing transactions.
+     * 
+     * @param emf
+     * @param signalIds
+     */
+    void acknowledge(EntityManagerFactory emf, List<Long> signalIds);
+
+    /**
+     * Returns true if acknowledged signals are left in the table with status
+     * {@link QueuedSignal.Status#PROCESSED} and need to be removed by a
+     * {@link QueuedSignalCompactor}.
+     * 
+     * @return true if compaction is required
+     */
+    boolean requiresCompaction();
+
+}
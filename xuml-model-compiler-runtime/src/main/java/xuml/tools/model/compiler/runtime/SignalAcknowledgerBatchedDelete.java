@@ -0,0 +1,54 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Defers deletion of processed signals until after commit so that the signals
+ * processed by one entity actor in a dispatcher slice are deleted with a single
+ * statement. A crash between the processing commit and the deletion means
+ * those signals are replayed on restart, so on-entry procedures should
+ * tolerate redelivery when this strategy is used.
+ */
+public class SignalAcknowledgerBatchedDelete implements SignalAcknowledger {
+
+    private static final int MAX_IDS_PER_STATEMENT = 500;
+
+    @Override
+    public boolean acknowledge(EntityManager em, long signalId) {
+        return false;
+    }
+
+    @Override
+    public void acknowledge(EntityManagerFactory emf, List<Long> signalIds) {
+        if (signalIds.isEmpty())
+            return;
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            for (List<Long> ids : Lists.partition(signalIds, MAX_IDS_PER_STATEMENT))
+                em.createQuery("delete from " + QueuedSignal.class.getSimpleName()
+                        + " where id in :ids").setParameter("ids", ids).executeUpdate();
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public boolean requiresCompaction() {
+        return false;
+    }
+
+}
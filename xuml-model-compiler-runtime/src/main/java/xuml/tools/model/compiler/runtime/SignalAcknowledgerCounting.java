@@ -0,0 +1,40 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Decrements the {@link QueueSizeEstimate} as signals are acknowledged by the
+ * wrapped acknowledger.
+ */
+final class SignalAcknowledgerCounting implements SignalAcknowledger {
+
+    private final SignalAcknowledger acknowledger;
+    private final QueueSizeEstimate estimate;
+
+    SignalAcknowledgerCounting(SignalAcknowledger acknowledger, QueueSizeEstimate estimate) {
+        this.acknowledger = acknowledger;
+        this.estimate = estimate;
+    }
+
+    @Override
+    public boolean acknowledge(EntityManager em, long signalId) {
+        boolean acknowledged = acknowledger.acknowledge(em, signalId);
+        // a deferred acknowledgement is no longer queued either
+        estimate.add(-1);
+        return acknowledged;
+    }
+
+    @Override
+    public void acknowledge(EntityManagerFactory emf, List<Long> signalIds) {
+        acknowledger.acknowledge(emf, signalIds);
+    }
+
+    @Override
+    public boolean requiresCompaction() {
+        return acknowledger.requiresCompaction();
+    }
+
+}
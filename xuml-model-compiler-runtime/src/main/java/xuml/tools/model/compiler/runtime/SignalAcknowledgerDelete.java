@@ -0,0 +1,35 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Deletes each signal in the transaction that processed it. This is the
+ * default strategy and guarantees a signal is never processed twice.
+ */
+public class SignalAcknowledgerDelete implements SignalAcknowledger {
+
+    @Override
+    public boolean acknowledge(EntityManager em, long signalId) {
+        int countDeleted = em
+                .createQuery("delete from " + QueuedSignal.class.getSimpleName() + " where id=:id")
+                .setParameter("id", signalId).executeUpdate();
+        if (countDeleted == 0) {
+            throw new RuntimeException("queued signal not deleted: " + signalId);
+        }
+        return true;
+    }
+
+    @Override
+    public void acknowledge(EntityManagerFactory emf, List<Long> signalIds) {
+        // never deferred
+    }
+
+    @Override
+    public boolean requiresCompaction() {
+        return false;
+    }
+
+}
@@ -0,0 +1,40 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Marks each signal as {@link QueuedSignal.Status#PROCESSED} in the
+ * transaction that processed it. The update touches no indexed key so is
+ * cheaper than a delete, and the processed rows are deleted in batches later
+ * by a {@link QueuedSignalCompactor}.
+ */
+public class SignalAcknowledgerMarkProcessed implements SignalAcknowledger {
+
+    @Override
+    public boolean acknowledge(EntityManager em, long signalId) {
+        int countUpdated = em
+                .createQuery("update " + QueuedSignal.class.getSimpleName()
+                        + " set status=:processed where id=:id and status=:queued")
+                .setParameter("processed", QueuedSignal.Status.PROCESSED)
+                .setParameter("queued", QueuedSignal.Status.QUEUED).setParameter("id", signalId)
+                .executeUpdate();
+        if (countUpdated == 0) {
+            throw new RuntimeException("queued signal not marked processed: " + signalId);
+        }
+        return true;
+    }
+
+    @Override
+    public void acknowledge(EntityManagerFactory emf, List<Long> signalIds) {
+        // never deferred
+    }
+
+    @Override
+    public boolean requiresCompaction() {
+        return true;
+    }
+
+}
@@ -0,0 +1,216 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Holds signals back in the database while the signaller is overloaded. Once
+ * a signal has been deferred every following signal is deferred too, so
+ * signals are not overtaken, until a background task has dispatched all the
+ * deferred signals in (time, id) order while fewer than the maximum are in
+ * flight.
+ *
+ * <p>
+ * Deferred rows have status {@link QueuedSignal.Status#DEFERRED} and are
+ * switched to {@link QueuedSignal.Status#QUEUED} in the transaction that takes
+ * them for dispatch, so no signal is dispatched twice.
+ */
+final class SignalBacklog {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalBacklog.class);
+
+    private final EntityManagerFactory emf;
+    private final Function<QueuedSignal, Signal<?>> decoder;
+    private final Consumer<Signal<?>> sender;
+    private final InFlightSignals inFlight;
+    private final long maxInFlight;
+    private final int pageSize;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("xuml-signal-backlog").setDaemon(true)
+                    .build());
+
+    // guarded by this
+    private boolean active;
+    // signals deferred but not yet taken for dispatch, guarded by this
+    private long pending;
+
+    SignalBacklog(EntityManagerFactory emf, Function<QueuedSignal, Signal<?>> decoder,
+            Consumer<Signal<?>> sender, InFlightSignals inFlight, long maxInFlight,
+            int pageSize) {
+        this.emf = emf;
+        this.decoder = decoder;
+        this.sender = sender;
+        this.inFlight = inFlight;
+        this.maxInFlight = maxInFlight;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns true if the signal about to be persisted must be deferred
+     * because there is a backlog or too many signals are in flight. The
+     * caller must then persist it as {@link QueuedSignal.Status#DEFERRED} or
+     * call {@link #deferFailed()}.
+     *
+     * @return true if the signal should be deferred
+     */
+    synchronized boolean defer() {
+        if (!active && inFlight.get() < maxInFlight)
+            return false;
+        pending++;
+        if (!active) {
+            active = true;
+            log.warn("{} signals in flight, deferring new signals", inFlight.get());
+            executor.execute(() -> drain());
+        }
+        return true;
+    }
+
+    /**
+     * Called if a signal that {@link #defer()} deferred could not be persisted.
+     */
+    synchronized void deferFailed() {
+        pending--;
+    }
+
+    /**
+     * Returns true if there are no deferred signals waiting to be dispatched.
+     * The backlog stays active until it has dispatched its last signal.
+     */
+    synchronized boolean isIdle() {
+        return !active;
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                awaitCapacity();
+                List<QueuedSignal> page;
+                try {
+                    page = take();
+                } catch (RuntimeException e) {
+                    log.error("could not read deferred signals, retrying", e);
+                    Thread.sleep(1000);
+                    continue;
+                }
+                if (page.isEmpty()) {
+                    synchronized (this) {
+                        // below zero if rows left deferred by a previous run
+                        // were taken
+                        if (pending <= 0) {
+                            pending = 0;
+                            active = false;
+                            log.info("deferred signals dispatched");
+                            return;
+                        }
+                    }
+                    // rows deferred but not committed yet
+                    Thread.sleep(10);
+                } else
+                    for (QueuedSignal sig : page)
+                        send(sig);
+            }
+        } catch (InterruptedException e) {
+            // stopping, the rows left deferred are requeued by the next
+            // recovery
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(QueuedSignal sig) {
+        Signal<?> signal;
+        try {
+            signal = decoder.apply(sig);
+        } catch (RuntimeException e) {
+            // now queued so will be tried again by the next recovery
+            log.error("could not decode queued signal: " + e.getMessage(), e);
+            return;
+        }
+        sender.accept(signal);
+    }
+
+    private void awaitCapacity() throws InterruptedException {
+        while (!inFlight.awaitBelow(maxInFlight, 10, TimeUnit.SECONDS))
+            log.info("backlog waiting for {} in flight signals to drop below {}",
+                    inFlight.get(), maxInFlight);
+    }
+
+    /**
+     * Returns the earliest deferred signals after switching them to queued.
+     */
+    private List<QueuedSignal> take() {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            List<QueuedSignal> page = em
+                    .createQuery("select s from " + QueuedSignal.class.getSimpleName()
+                            + " s where s.status=:deferred order by s.time, s.id",
+                            QueuedSignal.class)
+                    .setParameter("deferred", QueuedSignal.Status.DEFERRED)
+                    .setMaxResults(pageSize).getResultList();
+            for (QueuedSignal sig : page)
+                sig.status = QueuedSignal.Status.QUEUED;
+            tx.commit();
+            synchronized (this) {
+                pending -= page.size();
+            }
+            return page;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Makes signals left deferred by a previous run ordinary queued signals so
+     * that recovery sends them.
+     *
+     * @param emf
+     * @return number of signals requeued
+     */
+    static int requeueDeferred(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            int count = em
+                    .createQuery("update " + QueuedSignal.class.getSimpleName()
+                            + " set status=:queued where status=:deferred")
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("deferred", QueuedSignal.Status.DEFERRED).executeUpdate();
+            tx.commit();
+            return count;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+}
@@ -0,0 +1,514 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Shares the processing of queued signals between the nodes of a cluster (see
+ * {@link SignallerConfig.Builder#cluster}). Entities are assigned to
+ * partitions by the hash of their unique id and each node leases a fair share
+ * of the partitions using {@link ClusterLease} rows, renewing its leases a
+ * few times per lease duration. A node only dispatches signals to entities in
+ * partitions it holds a lease on; others are marked
+ * {@link QueuedSignal.Status#REMOTE} and taken by the owning node when it
+ * polls. When a node acquires a partition it recovers the queued signals of
+ * that partition, so the partitions of a node that dies are taken over once
+ * its leases expire.
+ *
+ * <p>
+ * A node treats a lease as valid for only half its duration after renewing it
+ * so that it stops dispatching well before another node can take the
+ * partition over. For the same reason a node giving up a partition to make
+ * room for another node does not free the lease but stops dispatching to it
+ * and leaves the lease to expire, giving the signals already dispatched time
+ * to be processed before the partition is recovered elsewhere.
+ */
+final class SignalCluster {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalCluster.class);
+
+    // node rows expired for this many lease durations are deleted
+    private static final int NODE_ROW_RETENTION_LEASES = 10;
+
+    private final EntityManagerFactory emf;
+    private final String nodeId;
+    private final int partitions;
+    private final long leaseMs;
+    private final long pollIntervalMs;
+    private final int pageSize;
+    private final Function<QueuedSignal, Signal<?>> decoder;
+    private final Consumer<Signal<?>> sender;
+    private final Consumer<Set<Integer>> recoverer;
+    private final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("xuml-cluster").setDaemon(true).build());
+    private final ExecutorService recoveryExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("xuml-cluster-recovery").setDaemon(true)
+                    .build());
+
+    private volatile Set<Integer> owned = Collections.emptySet();
+    // owned is only valid before this time, epoch ms
+    private volatile long validUntil;
+    // no other node can have taken a partition in owned before this time,
+    // epoch ms, guarded by this
+    private long leaseExpiry;
+    // expiry of the leases given up but not freed by partition, epoch ms,
+    // only used by the renewing thread
+    private final Map<Integer, Long> released = Maps.newHashMap();
+    // set once the application has asked for queued signals to be sent,
+    // guarded by this
+    private boolean recovering;
+    private boolean partitionsCreated;
+
+    SignalCluster(EntityManagerFactory emf, SignallerConfig config,
+            Function<QueuedSignal, Signal<?>> decoder, Consumer<Signal<?>> sender,
+            Consumer<Set<Integer>> recoverer) {
+        this.emf = emf;
+        this.nodeId = config.getNodeId().get();
+        this.partitions = config.getPartitions();
+        this.leaseMs = config.getLeaseDurationMs();
+        this.pollIntervalMs = config.getClusterPollIntervalMs();
+        this.pageSize = config.getRecoveryPageSize();
+        this.decoder = decoder;
+        this.sender = sender;
+        this.recoverer = recoverer;
+    }
+
+    /**
+     * Acquires the first leases, so that signals dispatched as soon as this
+     * returns are not all handed over, then renews and polls in the
+     * background.
+     */
+    void start() {
+        renew();
+        long renewIntervalMs = Math.max(1, leaseMs / 3);
+        executor.scheduleWithFixedDelay(() -> renew(), renewIntervalMs, renewIntervalMs,
+                TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> pollRemote(), pollIntervalMs, pollIntervalMs,
+                TimeUnit.MILLISECONDS);
+        log.info("cluster node {} started owning {} of {} partitions", nodeId, owned().size(),
+                partitions);
+    }
+
+    static int partition(String entityUniqueId, int partitions) {
+        return Math.floorMod(entityUniqueId.hashCode(), partitions);
+    }
+
+    /**
+     * Returns true if this node may dispatch signals to entities in the given
+     * partition.
+     *
+     * @param partition
+     * @return true if owned
+     */
+    boolean owns(int partition) {
+        return System.currentTimeMillis() < validUntil && owned.contains(partition);
+    }
+
+    /**
+     * Returns the partitions this node may dispatch signals to.
+     *
+     * @return owned partitions
+     */
+    Set<Integer> owned() {
+        if (System.currentTimeMillis() < validUntil)
+            return owned;
+        else
+            return Collections.emptySet();
+    }
+
+    /**
+     * Returns the partitions whose queued signals the caller must now recover.
+     * Partitions acquired later are recovered by this node automatically.
+     *
+     * @return owned partitions
+     */
+    synchronized Set<Integer> startRecovery() {
+        recovering = true;
+        return owned();
+    }
+
+    /**
+     * Hands a signal over to the node owning its partition.
+     *
+     * @param signal
+     */
+    void forward(Signal<?> signal) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            int count = em
+                    .createQuery("update " + QueuedSignal.class.getSimpleName()
+                            + " set status=:remote where id=:id and status=:queued")
+                    .setParameter("remote", QueuedSignal.Status.REMOTE)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("id", signal.getId()).executeUpdate();
+            tx.commit();
+            if (count == 0)
+                log.debug("signal not queued so not forwarded {}", signal.getId());
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private void renew() {
+        renew(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    void renew(long now) {
+        try {
+            if (!partitionsCreated) {
+                createPartitions();
+                partitionsCreated = true;
+            }
+            Set<Integer> acquired = acquire(now);
+            synchronized (this) {
+                // partitions held throughout were recovered when acquired,
+                // even if validUntil passed because a renewal was late
+                Set<Integer> previous = now < leaseExpiry ? owned
+                        : Collections.<Integer> emptySet();
+                owned = acquired;
+                validUntil = now + leaseMs / 2;
+                leaseExpiry = now + leaseMs;
+                Set<Integer> added = ImmutableSet.copyOf(Sets.difference(acquired, previous));
+                if (!acquired.equals(previous))
+                    log.info("cluster node {} owns {} partitions, acquired {}", nodeId,
+                            acquired.size(), added);
+                if (recovering && !added.isEmpty())
+                    recoveryExecutor.execute(() -> recover(added));
+            }
+        } catch (RuntimeException e) {
+            // keeps dispatching until validUntil then hands everything over
+            log.warn("could not renew cluster leases: " + e.getMessage(), e);
+        }
+    }
+
+    private void recover(Set<Integer> added) {
+        try {
+            recoverer.accept(added);
+        } catch (RuntimeException e) {
+            log.error("could not recover signals of partitions " + added, e);
+        }
+    }
+
+    /**
+     * Inserts a row for every partition that does not have one. Nodes starting
+     * together may race to do this, the loser retries on its next round.
+     */
+    private void createPartitions() {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            Set<String> existing = Sets.newHashSet(em
+                    .createQuery("select l.id from " + ClusterLease.class.getSimpleName() + " l",
+                            String.class)
+                    .getResultList());
+            Date expired = new Date(0);
+            for (int p = 0; p < partitions; p++) {
+                String id = ClusterLease.partitionLeaseId(p);
+                if (!existing.contains(id))
+                    em.persist(new ClusterLease(id, null, expired));
+            }
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Renews the heartbeat of this node and its share of the partition leases
+     * in one transaction.
+     *
+     * @return partitions now owned
+     */
+    private Set<Integer> acquire(long now) {
+        Date expiry = new Date(now + leaseMs);
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            ClusterLease node = em.find(ClusterLease.class, ClusterLease.nodeLeaseId(nodeId));
+            if (node == null)
+                em.persist(new ClusterLease(ClusterLease.nodeLeaseId(nodeId), nodeId, expiry));
+            else {
+                node.owner = nodeId;
+                node.expiry = expiry;
+            }
+            List<ClusterLease> leases = em
+                    .createQuery("select l from " + ClusterLease.class.getSimpleName() + " l",
+                            ClusterLease.class)
+                    .getResultList();
+            int liveNodes = 1;
+            Map<Integer, ClusterLease> partitionLeases = Maps.newHashMap();
+            for (ClusterLease lease : leases) {
+                if (lease.isNode() && !nodeId.equals(lease.owner) && lease.expiry.getTime() > now)
+                    liveNodes++;
+                else if (lease.isPartition())
+                    partitionLeases.put(lease.partition(), lease);
+            }
+            // a released partition is neither kept nor claimed again until
+            // its lease has expired
+            for (Map.Entry<Integer, Long> entry : Lists.newArrayList(released.entrySet())) {
+                if (entry.getValue() <= now)
+                    released.remove(entry.getKey());
+                else
+                    partitionLeases.remove(entry.getKey());
+            }
+            Plan plan = plan(nodeId, partitions, liveNodes, partitionLeases, now);
+            for (int p : plan.release)
+                released.put(p, partitionLeases.get(p).expiry.getTime());
+            Set<Integer> acquired = new TreeSet<Integer>();
+            for (int p : plan.claim) {
+                // only succeeds if the lease is still ours or free when the
+                // row is locked
+                int count = em
+                        .createQuery("update " + ClusterLease.class.getSimpleName()
+                                + " set owner=:me, expiry=:expiry where id=:id"
+                                + " and (owner=:me or owner is null or expiry<=:now)")
+                        .setParameter("me", nodeId).setParameter("expiry", expiry)
+                        .setParameter("id", ClusterLease.partitionLeaseId(p))
+                        .setParameter("now", new Date(now)).executeUpdate();
+                if (count == 1)
+                    acquired.add(p);
+            }
+            em.createQuery("delete from " + ClusterLease.class.getSimpleName()
+                    + " where id like :nodes and expiry<:old")
+                    .setParameter("nodes", ClusterLease.nodeLeaseIdPattern())
+                    .setParameter("old", new Date(now - NODE_ROW_RETENTION_LEASES * leaseMs))
+                    .executeUpdate();
+            tx.commit();
+            return Collections.unmodifiableSet(acquired);
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Leases to release and to claim in a round.
+     */
+    static final class Plan {
+        final List<Integer> release;
+        // partitions to keep come first
+        final List<Integer> claim;
+
+        Plan(List<Integer> release, List<Integer> claim) {
+            this.release = release;
+            this.claim = claim;
+        }
+    }
+
+    /**
+     * Works out which partitions a node should hold: an equal share of them
+     * between the live nodes, rounded up. The node keeps as many of its own
+     * partitions as that allows and tops up from free or expired partitions,
+     * looking from a position derived from its id so that nodes starting
+     * together try different partitions first.
+     *
+     * @param nodeId
+     * @param partitions
+     * @param liveNodes
+     *            including this node
+     * @param leases
+     *            partition leases by partition
+     * @param now
+     *            epoch ms
+     * @return plan
+     */
+    static Plan plan(String nodeId, int partitions, int liveNodes,
+            Map<Integer, ClusterLease> leases, long now) {
+        int target = (partitions + liveNodes - 1) / liveNodes;
+        List<Integer> mine = Lists.newArrayList();
+        List<Integer> free = Lists.newArrayList();
+        int start = Math.floorMod(nodeId.hashCode(), partitions);
+        for (int i = 0; i < partitions; i++) {
+            int p = (start + i) % partitions;
+            ClusterLease lease = leases.get(p);
+            if (lease == null)
+                continue;
+            if (nodeId.equals(lease.owner))
+                mine.add(p);
+            else if (lease.owner == null || lease.expiry.getTime() <= now)
+                free.add(p);
+        }
+        int keep = Math.min(target, mine.size());
+        List<Integer> claim = Lists.newArrayList(mine.subList(0, keep));
+        claim.addAll(free.subList(0, Math.min(free.size(), target - keep)));
+        return new Plan(Lists.newArrayList(mine.subList(keep, mine.size())), claim);
+    }
+
+    /**
+     * Takes signals handed over by other nodes to partitions this node owns
+     * and sends them.
+     */
+    private void pollRemote() {
+        try {
+            List<QueuedSignal> page;
+            do {
+                Set<Integer> mine = owned();
+                if (mine.isEmpty())
+                    return;
+                page = takeRemote(mine);
+                for (QueuedSignal sig : page)
+                    send(sig);
+            } while (page.size() == pageSize);
+        } catch (RuntimeException e) {
+            log.warn("could not take forwarded signals: " + e.getMessage(), e);
+        }
+    }
+
+    private void send(QueuedSignal sig) {
+        Signal<?> signal;
+        try {
+            signal = decoder.apply(sig);
+        } catch (RuntimeException e) {
+            // now queued so will be tried again by the next recovery
+            log.error("could not decode queued signal: " + e.getMessage(), e);
+            return;
+        }
+        sender.accept(signal);
+    }
+
+    /**
+     * Returns the earliest forwarded signals in the given partitions after
+     * switching them to queued.
+     */
+    private List<QueuedSignal> takeRemote(Set<Integer> mine) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            List<QueuedSignal> page = em
+                    .createQuery("select s from " + QueuedSignal.class.getSimpleName()
+                            + " s where s.status=:remote and s.partition in :partitions"
+                            + " order by s.time, s.id", QueuedSignal.class)
+                    .setParameter("remote", QueuedSignal.Status.REMOTE)
+                    .setParameter("partitions", mine).setMaxResults(pageSize)
+                    .getResultList();
+            for (QueuedSignal sig : page)
+                sig.status = QueuedSignal.Status.QUEUED;
+            tx.commit();
+            return page;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Stops renewing and removes this node's lease. If
+     * {@code releasePartitions} the partition leases are released so the
+     * other nodes can take them over without waiting for them to expire,
+     * otherwise they are left to expire because signals to their entities
+     * may still be being processed.
+     * 
+     * @param releasePartitions
+     */
+    void stop(boolean releasePartitions) {
+        executor.shutdownNow();
+        recoveryExecutor.shutdownNow();
+        owned = Collections.emptySet();
+        validUntil = 0;
+        if (!releasePartitions)
+            log.warn("leaving the partition leases of node {} to expire", nodeId);
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            if (releasePartitions)
+                em.createQuery("update " + ClusterLease.class.getSimpleName()
+                        + " set owner=null where owner=:me and id<>:node")
+                        .setParameter("me", nodeId)
+                        .setParameter("node", ClusterLease.nodeLeaseId(nodeId))
+                        .executeUpdate();
+            em.createQuery("delete from " + ClusterLease.class.getSimpleName() + " where id=:id")
+                    .setParameter("id", ClusterLease.nodeLeaseId(nodeId)).executeUpdate();
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            // the leases expire anyway
+            log.warn("could not release cluster leases: " + e.getMessage(), e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Makes signals left forwarded by a clustered run ordinary queued signals
+     * so that a signaller that is not clustered recovers them.
+     *
+     * @param emf
+     * @return number of signals requeued
+     */
+    static int requeueRemote(EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            int count = em
+                    .createQuery("update " + QueuedSignal.class.getSimpleName()
+                            + " set status=:queued where status=:remote")
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("remote", QueuedSignal.Status.REMOTE).executeUpdate();
+            tx.commit();
+            return count;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+}
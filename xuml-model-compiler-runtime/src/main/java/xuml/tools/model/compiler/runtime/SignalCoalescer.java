@@ -0,0 +1,111 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Merges pending signals to one entity before they are processed. Only
+ * consecutive signals of the same event class are merged so the order in
+ * which different events are performed is unchanged:
+ * <ul>
+ * <li>of a run of {@link CoalescibleEvent} signals only the last is
+ * processed</li>
+ * <li>an {@link IdempotentEvent} signal with the same content as the signal
+ * before it is dropped</li>
+ * </ul>
+ * Repeating signals are never merged. The signals dropped are returned with
+ * the signal that replaces them so they can be acknowledged in its
+ * transaction.
+ */
+public final class SignalCoalescer {
+
+    private SignalCoalescer() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns true if the signal may be merged with others, in which case it
+     * is worth holding it until the signals behind it have arrived.
+     * 
+     * @param signal
+     * @return true if coalescible or idempotent
+     */
+    public static boolean isMergeable(Signal<?> signal) {
+        Event<?> event = signal.getEvent();
+        return (event instanceof CoalescibleEvent || event instanceof IdempotentEvent)
+                && !signal.getRepeatInterval().isPresent();
+    }
+
+    /**
+     * Returns the signals to process, in order, each with the signals it
+     * replaces.
+     * 
+     * @param signals
+     *            pending signals to one entity in arrival order
+     * @return merged signals
+     */
+    public static List<Merged> coalesce(List<Signal<?>> signals) {
+        List<Merged> list = Lists.newArrayListWithCapacity(signals.size());
+        Merged last = null;
+        byte[] lastContent = null;
+        for (Signal<?> signal : signals) {
+            if (last != null && isMergeable(signal) && isMergeable(last.signal)
+                    && signal.getEvent().getClass() == last.signal.getEvent().getClass()) {
+                if (signal.getEvent() instanceof CoalescibleEvent) {
+                    // the later signal replaces the earlier
+                    last.replaced.add(last.signal);
+                    last = new Merged(signal, last.replaced);
+                    list.set(list.size() - 1, last);
+                    continue;
+                } else {
+                    if (lastContent == null)
+                        lastContent = Util.toBytes(last.signal.getEvent());
+                    byte[] content = Util.toBytes(signal.getEvent());
+                    if (Arrays.equals(content, lastContent)) {
+                        last.replaced.add(signal);
+                        continue;
+                    }
+                    last = new Merged(signal, Lists.<Signal<?>> newArrayList());
+                    lastContent = content;
+                    list.add(last);
+                    continue;
+                }
+            }
+            last = new Merged(signal, Lists.<Signal<?>> newArrayList());
+            lastContent = null;
+            list.add(last);
+        }
+        return list;
+    }
+
+    public static final class Merged {
+
+        private final Signal<?> signal;
+        private final List<Signal<?>> replaced;
+
+        public Merged(Signal<?> signal, List<Signal<?>> replaced) {
+            this.signal = signal;
+            this.replaced = replaced;
+        }
+
+        public Signal<?> getSignal() {
+            return signal;
+        }
+
+        /**
+         * Returns the signals dropped in favour of {@link #getSignal()}.
+         * 
+         * @return replaced signals
+         */
+        public List<Signal<?>> getReplaced() {
+            return Collections.unmodifiableList(replaced);
+        }
+
+    }
+
+}
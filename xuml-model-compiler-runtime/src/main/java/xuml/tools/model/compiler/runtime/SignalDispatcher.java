@@ -0,0 +1,39 @@
+package xuml.tools.model.compiler.runtime;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Delivers persisted signals that are due to their entities. Implementations
+ * must process signals to the same entity one at a time in the order they
+ * were dispatched, each using a {@link SignalProcessor}.
+ */
+public interface SignalDispatcher {
+
+    /**
+     * Queues the signal for processing by its entity. Must not block on
+     * processing. Implementations increment the {@link InFlightSignals} they
+     * were created with, the {@link SignalProcessor} decrements it.
+     * 
+     * @param signal
+     */
+    void dispatch(Signal<?> signal);
+
+    /**
+     * Returns the number of entities that have signals queued or being
+     * processed, or that are held resident.
+     * 
+     * @return active entity count
+     */
+    long activeEntities();
+
+    /**
+     * Stops processing and waits a bounded time for signals being processed
+     * to finish. Signals not yet processed remain in the queued signal table
+     * and are replayed by {@link Signaller#sendSignalsInQueue()}.
+     * 
+     * @return true if no signal is being processed any more, false if the
+     *         wait timed out
+     */
+    boolean stop();
+
+}
@@ -0,0 +1,27 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * The {@link SignalDispatcher} implementations a {@link Signaller} can use.
+ */
+public enum SignalDispatcherType {
+
+    /**
+     * Akka actors, one per entity with signals outstanding, running on the
+     * entity dispatcher configured in xuml-akka.conf.
+     */
+    AKKA,
+
+    /**
+     * A serial mailbox per entity drained by its own virtual thread (a cached
+     * thread pool before Java 21).
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * Worker threads that claim due signals from the queued signal table,
+     * see {@link PollingSignalDispatcher} and
+     * {@link SignallerConfig.Builder#polling}.
+     */
+    POLLING;
+
+}
@@ -0,0 +1,22 @@
+package xuml.tools.model.compiler.runtime;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Decides what happens to the queued signal of a signal whose processing
+ * failed, after its transaction has been rolled back. Called by
+ * {@link SignalProcessor} before the listeners are told of the failure.
+ */
+public interface SignalFailureHandler {
+
+    /**
+     * Called from the thread that processed the signal. If it throws the
+     * exception is logged and the signal stays queued.
+     * 
+     * @param signal
+     * @param e
+     *            cause of the failure
+     */
+    void failed(Signal<?> signal, Exception e);
+
+}
@@ -0,0 +1,22 @@
+package xuml.tools.model.compiler.runtime;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public final class SignalFailureHandlerDoesNothing implements SignalFailureHandler {
+
+    private static final SignalFailureHandlerDoesNothing instance = new SignalFailureHandlerDoesNothing();
+
+    public static SignalFailureHandlerDoesNothing getInstance() {
+        return instance;
+    }
+
+    private SignalFailureHandlerDoesNothing() {
+        // use getInstance
+    }
+
+    @Override
+    public void failed(Signal<?> signal, Exception e) {
+        // leave the signal queued
+    }
+
+}
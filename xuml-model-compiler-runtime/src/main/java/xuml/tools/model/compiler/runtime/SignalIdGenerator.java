@@ -0,0 +1,12 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Generates the BIGINT primary key of each {@link QueuedSignal}.
+ * Implementations must be thread safe and must not return the same id twice,
+ * including across the processes sharing the queued signal table.
+ */
+public interface SignalIdGenerator {
+
+    long next();
+
+}
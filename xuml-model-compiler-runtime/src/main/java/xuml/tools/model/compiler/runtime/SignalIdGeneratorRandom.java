@@ -0,0 +1,17 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random positive 63 bit ids. This is the default as it needs no node id to
+ * be configured, but inserts land at random points in the primary key index
+ * and two ids collide with a probability of about 1 in 10^7 per million rows.
+ */
+public class SignalIdGeneratorRandom implements SignalIdGenerator {
+
+    @Override
+    public long next() {
+        return ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+    }
+
+}
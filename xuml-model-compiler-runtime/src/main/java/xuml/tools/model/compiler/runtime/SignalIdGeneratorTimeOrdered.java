@@ -0,0 +1,54 @@
+package xuml.tools.model.compiler.runtime;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Time ordered 64 bit ids made of 41 bits of milliseconds since 2015-01-01,
+ * a 10 bit node id and a 12 bit sequence. New rows are appended to the end of
+ * the primary key index instead of splitting pages at random.
+ * 
+ * <p>
+ * Each process sharing the queued signal table must use a different node id.
+ * If the clock goes backwards ids continue from the last timestamp used.
+ */
+public class SignalIdGeneratorTimeOrdered implements SignalIdGenerator {
+
+    public static final int MAX_NODE_ID = 1023;
+
+    // 2015-01-01T00:00:00Z
+    private static final long EPOCH_MS = 1420070400000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private long lastMs = -1;
+    private long sequence;
+
+    public SignalIdGeneratorTimeOrdered(int nodeId) {
+        Preconditions.checkArgument(nodeId >= 0 && nodeId <= MAX_NODE_ID,
+                "nodeId must be between 0 and " + MAX_NODE_ID);
+        this.node = nodeId;
+    }
+
+    @Override
+    public long next() {
+        return nextLong(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long nextLong(long nowMs) {
+        long ms = Math.max(nowMs - EPOCH_MS, lastMs);
+        if (ms == lastMs) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0)
+                // sequence exhausted, borrow the next millisecond
+                ms = lastMs + 1;
+        } else
+            sequence = 0;
+        lastMs = ms;
+        return (ms << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+    }
+
+}
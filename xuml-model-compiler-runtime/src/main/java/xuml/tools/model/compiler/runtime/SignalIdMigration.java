@@ -0,0 +1,185 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Migrates the <code>signal_id</code> column of the queued and dead letter
+ * signal tables from the VARCHAR ids written by earlier versions to BIGINT.
+ * Run it once, with no signaller using the tables, against an
+ * EntityManagerFactory that does not create or update the schema itself.
+ *
+ * <p>
+ * The rows are converted first, a page per transaction, so that every id is
+ * a decimal string the database can cast: a 16 character time-ordered id
+ * keeps its value and a 32 character random UUID id becomes its low 63 bits,
+ * random like the ids {@link SignalIdGeneratorRandom} generates now. Converted
+ * ids are zero-padded to {@value #CONVERTED_LENGTH} characters, so a run that
+ * was interrupted can be repeated. The column type is then changed with the
+ * statement for the database. For a database not listed in {@link Database}
+ * call {@link #convertIds(EntityManagerFactory)} and change the column type to
+ * BIGINT by hand.
+ */
+public final class SignalIdMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalIdMigration.class);
+
+    private static final List<String> TABLES = ImmutableList.of("xuml_queued_signal",
+            "xuml_dead_letter_signal");
+
+    static final int CONVERTED_LENGTH = 20;
+
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Databases whose statement to change the column type is known.
+     */
+    public enum Database {
+
+        H2("alter table %s alter column signal_id bigint"),
+
+        POSTGRESQL("alter table %s alter column signal_id type bigint using signal_id::bigint"),
+
+        MYSQL("alter table %s modify signal_id bigint not null");
+
+        private final String alterColumn;
+
+        private Database(String alterColumn) {
+            this.alterColumn = alterColumn;
+        }
+    }
+
+    private SignalIdMigration() {
+        // prevent instantiation
+    }
+
+    /**
+     * Converts the ids and changes the column type to BIGINT in both tables.
+     * A table whose column is already numeric is left alone.
+     *
+     * @param emf
+     * @param database
+     * @return number of rows converted
+     */
+    public static int migrate(EntityManagerFactory emf, Database database) {
+        int count = 0;
+        for (String table : TABLES) {
+            if (isNumeric(emf, table)) {
+                log.info("{}.signal_id is already numeric", table);
+                continue;
+            }
+            count += convertIds(emf, table);
+            executeUpdate(emf, String.format(database.alterColumn, table));
+            log.info("changed {}.signal_id to bigint", table);
+        }
+        return count;
+    }
+
+    /**
+     * Rewrites the VARCHAR ids of both tables as the decimal string of their
+     * long value without changing the column type.
+     *
+     * @param emf
+     * @return number of rows converted
+     */
+    public static int convertIds(EntityManagerFactory emf) {
+        int count = 0;
+        for (String table : TABLES)
+            count += convertIds(emf, table);
+        return count;
+    }
+
+    /**
+     * Returns the long value of an id written by an earlier version.
+     *
+     * @param id
+     * @return id as a long
+     */
+    static long toLong(String id) {
+        if (id.length() == CONVERTED_LENGTH)
+            return Long.parseLong(id);
+        else if (id.length() == 16)
+            // time-ordered
+            return Long.parseUnsignedLong(id, 16);
+        else if (id.length() == 32)
+            // random UUID
+            return Long.parseUnsignedLong(id.substring(16), 16) & Long.MAX_VALUE;
+        else
+            throw new IllegalArgumentException("unexpected signal id: " + id);
+    }
+
+    private static int convertIds(EntityManagerFactory emf, String table) {
+        int count = 0;
+        while (true) {
+            int converted = convertPage(emf, table);
+            if (converted == 0)
+                break;
+            count += converted;
+        }
+        log.info("converted {} ids in {}", count, table);
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int convertPage(EntityManagerFactory emf, String table) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            List<String> ids = em
+                    .createNativeQuery("select signal_id from " + table
+                            + " where length(signal_id)<>" + CONVERTED_LENGTH)
+                    .setMaxResults(PAGE_SIZE).getResultList();
+            for (String id : ids)
+                em.createNativeQuery("update " + table + " set signal_id=? where signal_id=?")
+                        .setParameter(1, String.format("%0" + CONVERTED_LENGTH + "d", toLong(id)))
+                        .setParameter(2, id).executeUpdate();
+            tx.commit();
+            return ids.size();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static boolean isNumeric(EntityManagerFactory emf, String table) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<?> ids = em.createNativeQuery("select signal_id from " + table)
+                    .setMaxResults(1).getResultList();
+            return !ids.isEmpty() && ids.get(0) instanceof Number;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static void executeUpdate(EntityManagerFactory emf, String sql) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            em.createNativeQuery(sql).executeUpdate();
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+}
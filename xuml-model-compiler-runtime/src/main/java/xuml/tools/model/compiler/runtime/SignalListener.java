@@ -0,0 +1,86 @@
+package xuml.tools.model.compiler.runtime;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Notified of entity creation, signal processing and signal dispatch. Unlike
+ * {@link SignalProcessorListener} one instance is shared by every entity so
+ * implementations must be thread safe. Times are {@link System#nanoTime()}
+ * values taken by the caller so that a notification allocates nothing and
+ * needs no state kept between calls. Every method does nothing by default.
+ * 
+ * <p>
+ * Set with {@link SignallerConfig.Builder#listener(SignalListener)}.
+ */
+public interface SignalListener {
+
+    /**
+     * Called after the transaction creating the entity has committed.
+     * 
+     * @param entity
+     * @param event
+     * @param startNanos
+     *            when creation started
+     * @param commitStartNanos
+     *            when the commit started
+     * @param endNanos
+     *            when the commit finished
+     */
+    default void created(Entity<?> entity, CreationEvent<?> event, long startNanos,
+            long commitStartNanos, long endNanos) {
+    }
+
+    /**
+     * Called when creation fails and has been rolled back.
+     * 
+     * @param entityClass
+     * @param event
+     * @param e
+     * @param startNanos
+     * @param endNanos
+     */
+    default void creationFailed(Class<?> entityClass, CreationEvent<?> event, Exception e,
+            long startNanos, long endNanos) {
+    }
+
+    /**
+     * Called after the transaction that processed the signal has committed.
+     * Signals processed in one batch share the same times.
+     * 
+     * @param signal
+     * @param startNanos
+     *            when processing started
+     * @param commitStartNanos
+     *            when the commit started
+     * @param endNanos
+     *            when the commit finished
+     */
+    default void processed(Signal<?> signal, long startNanos, long commitStartNanos,
+            long endNanos) {
+    }
+
+    /**
+     * Called when processing a signal fails and has been rolled back.
+     * 
+     * @param signal
+     * @param e
+     * @param startNanos
+     * @param endNanos
+     */
+    default void processingFailed(Signal<?> signal, Exception e, long startNanos,
+            long endNanos) {
+    }
+
+    /**
+     * Called when a due signal is handed to the dispatcher, whether sent from
+     * outside an entity, sent by an entity after its transaction committed,
+     * fired by the scheduler or recovered.
+     * 
+     * @param signal
+     * @param nanos
+     *            when the signal was dispatched
+     */
+    default void dispatched(Signal<?> signal, long nanos) {
+    }
+
+}
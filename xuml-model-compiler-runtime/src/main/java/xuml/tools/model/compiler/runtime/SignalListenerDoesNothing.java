@@ -0,0 +1,15 @@
+package xuml.tools.model.compiler.runtime;
+
+public final class SignalListenerDoesNothing implements SignalListener {
+
+    private static final SignalListenerDoesNothing instance = new SignalListenerDoesNothing();
+
+    public static SignalListenerDoesNothing getInstance() {
+        return instance;
+    }
+
+    private SignalListenerDoesNothing() {
+        // use getInstance
+    }
+
+}
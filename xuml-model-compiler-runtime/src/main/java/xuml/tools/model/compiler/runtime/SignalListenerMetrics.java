@@ -0,0 +1,70 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.TimeUnit;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Records the latencies of each signal and creation into
+ * {@link SignalMetrics} and then calls another listener. Thread safe and
+ * allocates nothing once the metrics of an event class exist.
+ */
+public final class SignalListenerMetrics implements SignalListener {
+
+    private final SignalMetrics metrics;
+    private final SignalListener delegate;
+
+    public SignalListenerMetrics(SignalMetrics metrics, SignalListener delegate) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+    }
+
+    public SignalListenerMetrics(SignalMetrics metrics) {
+        this(metrics, SignalListenerDoesNothing.getInstance());
+    }
+
+    @Override
+    public void created(Entity<?> entity, CreationEvent<?> event, long startNanos,
+            long commitStartNanos, long endNanos) {
+        EventMetrics m = metrics.eventMetrics(entity.getClass(), event.getClass());
+        m.recordProcessingNanos(endNanos - startNanos);
+        m.recordCommitNanos(endNanos - commitStartNanos);
+        delegate.created(entity, event, startNanos, commitStartNanos, endNanos);
+    }
+
+    @Override
+    public void creationFailed(Class<?> entityClass, CreationEvent<?> event, Exception e,
+            long startNanos, long endNanos) {
+        metrics.eventMetrics(entityClass, event.getClass()).failed();
+        delegate.creationFailed(entityClass, event, e, startNanos, endNanos);
+    }
+
+    @Override
+    public void processed(Signal<?> signal, long startNanos, long commitStartNanos,
+            long endNanos) {
+        EventMetrics m = metrics.eventMetrics(signal.getEntityClass(),
+                signal.getEvent().getClass());
+        if (signal.getTime() != null) {
+            // wall clock time processing started
+            long startMs = System.currentTimeMillis()
+                    - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            m.recordQueueLatencyMs(startMs - signal.getTime());
+        }
+        m.recordProcessingNanos(endNanos - startNanos);
+        m.recordCommitNanos(endNanos - commitStartNanos);
+        delegate.processed(signal, startNanos, commitStartNanos, endNanos);
+    }
+
+    @Override
+    public void processingFailed(Signal<?> signal, Exception e, long startNanos,
+            long endNanos) {
+        metrics.eventMetrics(signal.getEntityClass(), signal.getEvent().getClass()).failed();
+        delegate.processingFailed(signal, e, startNanos, endNanos);
+    }
+
+    @Override
+    public void dispatched(Signal<?> signal, long nanos) {
+        delegate.dispatched(signal, nanos);
+    }
+
+}
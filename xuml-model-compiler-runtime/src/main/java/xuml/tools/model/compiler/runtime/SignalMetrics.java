@@ -0,0 +1,165 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Signal processing metrics: an {@link EventMetrics} per event class and
+ * gauges for the depth of the queued signal table, the number of signals in
+ * flight and the number of active entities. Set with
+ * {@link SignallerConfig.Builder#metrics(SignalMetrics)} so that the
+ * {@link Signaller} records into it with a {@link SignalListenerMetrics},
+ * then read it directly, over JMX after
+ * {@link #registerMBeans(String)} or with a {@link SignalMetricsExporter}.
+ */
+public final class SignalMetrics implements SignalMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalMetrics.class);
+
+    private static final Supplier<Long> ZERO = Suppliers.ofInstance(0L);
+
+    private final ConcurrentHashMap<Class<?>, EventMetrics> events = new ConcurrentHashMap<Class<?>, EventMetrics>();
+    private volatile Supplier<Long> queueDepth = ZERO;
+    private volatile Supplier<Long> inFlightSignals = ZERO;
+    private volatile Supplier<Long> activeEntities = ZERO;
+    private volatile Optional<String> jmxDomain = Optional.absent();
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+    private final List<ScheduledExecutorService> exporters = new CopyOnWriteArrayList<ScheduledExecutorService>();
+
+    /**
+     * Registers this and, as they are created, the metrics of each event
+     * class with the platform MBean server under the given domain.
+     * 
+     * @param domain
+     *            JMX domain, for example the name of the application
+     */
+    public synchronized void registerMBeans(String domain) {
+        Preconditions.checkState(!jmxDomain.isPresent(), "already registered");
+        jmxDomain = Optional.of(domain);
+        register(domain + ":type=SignalMetrics", this);
+        for (EventMetrics m : events.values())
+            register(m);
+    }
+
+    /**
+     * Calls the exporter every {@code interval} on a daemon thread until
+     * {@link #close()}.
+     * 
+     * @param exporter
+     * @param interval
+     * @param unit
+     */
+    public void export(final SignalMetricsExporter exporter, long interval, TimeUnit unit) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("xuml-metrics-export").setDaemon(true)
+                        .build());
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(SignalMetrics.this);
+            } catch (RuntimeException e) {
+                log.error("metrics export failed", e);
+            }
+        }, interval, interval, unit);
+        exporters.add(executor);
+    }
+
+    /**
+     * Stops exporting and unregisters the MBeans.
+     */
+    public void close() {
+        for (ScheduledExecutorService executor : exporters)
+            executor.shutdownNow();
+        exporters.clear();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered)
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("could not unregister " + name, e);
+            }
+        registered.clear();
+    }
+
+    /**
+     * Returns the metrics of each event class seen so far.
+     * 
+     * @return event metrics
+     */
+    public Collection<EventMetrics> getEventMetrics() {
+        return Collections.unmodifiableCollection(events.values());
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public long getInFlightSignals() {
+        return inFlightSignals.get();
+    }
+
+    @Override
+    public long getActiveEntities() {
+        return activeEntities.get();
+    }
+
+    void gauges(Supplier<Long> queueDepth, Supplier<Long> inFlightSignals,
+            Supplier<Long> activeEntities) {
+        this.queueDepth = queueDepth;
+        this.inFlightSignals = inFlightSignals;
+        this.activeEntities = activeEntities;
+    }
+
+    EventMetrics eventMetrics(Class<?> entityClass, Class<?> eventClass) {
+        EventMetrics m = events.get(eventClass);
+        if (m != null)
+            return m;
+        synchronized (this) {
+            m = events.get(eventClass);
+            if (m == null) {
+                m = new EventMetrics(entityClass.getName(), eventClass.getSimpleName());
+                events.put(eventClass, m);
+                if (jmxDomain.isPresent())
+                    register(m);
+            }
+            return m;
+        }
+    }
+
+    private void register(EventMetrics m) {
+        register(jmxDomain.get() + ":type=EventMetrics,entity=" + m.getEntityClassName()
+                + ",event=" + m.getEventClassName(), m);
+    }
+
+    private void register(String name, Object mbean) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            log.warn("could not register " + name, e);
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Publishes {@link SignalMetrics} somewhere, for example to a logging or
+ * monitoring system. Called periodically, see
+ * {@link SignalMetrics#export(SignalMetricsExporter, long, java.util.concurrent.TimeUnit)}.
+ */
+public interface SignalMetricsExporter {
+
+    void export(SignalMetrics metrics);
+
+}
@@ -0,0 +1,18 @@
+package xuml.tools.model.compiler.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SignalMetricsExporterSlf4j implements SignalMetricsExporter {
+
+    private static Logger log = LoggerFactory.getLogger(SignalMetricsExporterSlf4j.class);
+
+    @Override
+    public void export(SignalMetrics metrics) {
+        log.info("queueDepth={}, inFlightSignals={}, activeEntities={}", metrics.getQueueDepth(),
+                metrics.getInFlightSignals(), metrics.getActiveEntities());
+        for (EventMetrics m : metrics.getEventMetrics())
+            log.info(m.toString());
+    }
+
+}
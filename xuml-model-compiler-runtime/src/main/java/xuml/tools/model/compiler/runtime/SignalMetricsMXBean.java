@@ -0,0 +1,14 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * JMX view of the gauges of {@link SignalMetrics}.
+ */
+public interface SignalMetricsMXBean {
+
+    long getQueueDepth();
+
+    long getInFlightSignals();
+
+    long getActiveEntities();
+
+}
@@ -0,0 +1,16 @@
+package xuml.tools.model.compiler.runtime;
+
+/**
+ * Thrown when a signal is not accepted because too many signals are in flight
+ * and capacity did not become available within the backpressure timeout. The
+ * signal has not been persisted.
+ */
+public class SignalOverloadException extends RuntimeException {
+
+    private static final long serialVersionUID = -2318712940712630127L;
+
+    public SignalOverloadException(String message) {
+        super(message);
+    }
+
+}
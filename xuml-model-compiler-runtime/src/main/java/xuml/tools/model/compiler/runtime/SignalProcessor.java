@@ -0,0 +1,448 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.actor.EntityActor;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Performs signals on one entity, each in its own transaction or in batches
+ * sharing one transaction. Used by every {@link SignalDispatcher} so that
+ * processing semantics do not depend on how signals are dispatched. Not
+ * thread safe, a dispatcher must call it from at most one thread at a time.
+ */
+public final class SignalProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalProcessor.class);
+
+    private final EntityManagerFactory emf;
+    private final SignalProcessorListener listener;
+    private final SignalListener signalListener;
+    private final SignalAcknowledger acknowledger;
+    private final SignalFailureHandler failureHandler;
+    private final OptimisticLockRetry optimisticLockRetry;
+    private final boolean resident;
+    private final Optional<ResidentActorMetrics> metrics;
+    private final InFlightSignals inFlight;
+    // passed to the listener, null if not dispatched by Akka
+    private final EntityActor actor;
+    // ids of committed signals whose acknowledgement has been deferred
+    private final List<Long> pendingAcknowledgements = Lists.newArrayList();
+    // retained between signals when resident, cleared after each transaction
+    private EntityManager residentEm;
+    // state of the last transaction, read when it throws
+    private int attempted;
+    private boolean committed;
+
+    public SignalProcessor(EntityManagerFactory emf, SignalProcessorListener listener,
+            SignalListener signalListener, SignalAcknowledger acknowledger,
+            SignalFailureHandler failureHandler, OptimisticLockRetry optimisticLockRetry,
+            boolean resident,
+            Optional<ResidentActorMetrics> metrics, InFlightSignals inFlight, EntityActor actor) {
+        Preconditions.checkNotNull(emf);
+        Preconditions.checkNotNull(listener);
+        Preconditions.checkNotNull(signalListener);
+        Preconditions.checkNotNull(acknowledger);
+        Preconditions.checkNotNull(failureHandler);
+        Preconditions.checkNotNull(optimisticLockRetry);
+        Preconditions.checkNotNull(metrics);
+        Preconditions.checkNotNull(inFlight);
+        this.emf = emf;
+        this.listener = listener;
+        this.signalListener = signalListener;
+        this.acknowledger = acknowledger;
+        this.failureHandler = failureHandler;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.resident = resident;
+        this.metrics = metrics;
+        this.inFlight = inFlight;
+        this.actor = actor;
+    }
+
+    /**
+     * Performs the event of the signal on its entity and acknowledges the
+     * signal in the same transaction. Signals to other entities raised by the
+     * event are sent only after commit. If the transaction fails because the
+     * entity was updated concurrently it is performed again as allowed by the
+     * {@link OptimisticLockRetry}, calling
+     * {@link SignalProcessorListener#beforeProcessing} again. If processing
+     * fails otherwise the transaction is rolled back, the
+     * {@link SignalFailureHandler} called and the listener notified. If the
+     * transaction commits but the listener or sending the signals raised by
+     * the event fails afterwards the failure is logged and the listener
+     * notified, the signal has taken effect so is not failed. Throws only if
+     * the listener failure callback throws.
+     * 
+     * @param signal
+     */
+    public void process(Signal<?> signal) {
+        process(signal, Collections.<Signal<?>> emptyList());
+    }
+
+    /**
+     * As {@link #process(Signal)} but also acknowledges, in the same
+     * transaction, signals that {@link SignalCoalescer} dropped in favour of
+     * this one. If processing fails the replaced signals stay queued.
+     * 
+     * @param signal
+     * @param replaced
+     */
+    public void process(Signal<?> signal, List<Signal<?>> replaced) {
+        try {
+            processOne(new Merged(signal, replaced));
+        } finally {
+            inFlight.decrement(1 + replaced.size());
+        }
+    }
+
+    /**
+     * Performs the signals in order, committing up to {@code maxBatchSize} of
+     * them in each transaction. A transaction takes no more signals once it
+     * has been open for {@code maxBatchTimeMs}. If a batch fails it is rolled
+     * back and its signals performed again one per transaction so that a
+     * single failing signal does not hold back the others and only it is
+     * reported to the listener. {@link SignalProcessorListener#beforeProcessing}
+     * is then called a second time for the signals of the failed batch.
+     * 
+     * @param signals
+     *            coalesced signals to the entity of this processor
+     * @param maxBatchSize
+     *            maximum number of signals per transaction
+     * @param maxBatchTimeMs
+     *            time after which a transaction takes no more signals
+     */
+    public void process(List<Merged> signals, int maxBatchSize, long maxBatchTimeMs) {
+        process(signals, maxBatchSize, maxBatchTimeMs, false);
+    }
+
+    /**
+     * As {@link #process(List, int, long)} but if {@code stopOnFailure} the
+     * signals after one that fails are not performed, so that they are not
+     * performed ahead of it when it is tried again.
+     * 
+     * @param signals
+     *            coalesced signals to the entity of this processor
+     * @param maxBatchSize
+     *            maximum number of signals per transaction
+     * @param maxBatchTimeMs
+     *            time after which a transaction takes no more signals
+     * @param stopOnFailure
+     *            true to stop at the first signal that fails
+     */
+    public void process(List<Merged> signals, int maxBatchSize, long maxBatchTimeMs,
+            boolean stopOnFailure) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        int i = 0;
+        try {
+            while (i < signals.size()) {
+                List<Merged> batch = signals.subList(i,
+                        Math.min(signals.size(), i + maxBatchSize));
+                if (batch.size() == 1) {
+                    boolean performed = processOne(batch.get(0));
+                    i = markDone(signals, i, 1);
+                    if (!performed && stopOnFailure)
+                        return;
+                } else {
+                    try {
+                        i = markDone(signals, i, performInTransaction(batch, maxBatchTimeMs));
+                    } catch (RuntimeException e) {
+                        if (committed) {
+                            // the batch took effect, don't perform it again
+                            log.error(e.getMessage(), e);
+                            i = markDone(signals, i, attempted);
+                        } else {
+                            log.warn("batch failed after " + attempted + " of " + batch.size()
+                                    + " signals, retrying one at a time", e);
+                            for (Merged merged : batch.subList(0, attempted)) {
+                                boolean performed = processOne(merged);
+                                i = markDone(signals, i, 1);
+                                if (!performed && stopOnFailure)
+                                    return;
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            // signals not yet done, because a listener failure callback
+            // threw or a signal failed, are no longer in flight either
+            markDone(signals, i, signals.size() - i);
+        }
+    }
+
+    private int markDone(List<Merged> signals, int from, int count) {
+        long n = 0;
+        for (Merged merged : signals.subList(from, from + count))
+            n += 1 + merged.getReplaced().size();
+        inFlight.decrement(n);
+        return from + count;
+    }
+
+    /**
+     * Returns false if the signal failed.
+     */
+    private boolean processOne(Merged merged) {
+        long startNanos = System.nanoTime();
+        int retries = 0;
+        while (true) {
+            try {
+                performInTransaction(Collections.singletonList(merged), Long.MAX_VALUE);
+                return true;
+            } catch (RuntimeException e) {
+                if (committed) {
+                    failedAfterCommit(merged.getSignal(), e);
+                    return true;
+                }
+                if (!optimisticLockRetry.shouldRetry(e, retries)) {
+                    failed(merged, e, startNanos);
+                    return false;
+                }
+                retries++;
+                log.debug("signal {} conflicted with a concurrent update of entity {}, retry {}",
+                        merged.getSignal().getId(), merged.getSignal().getEntityUniqueId(),
+                        retries);
+                optimisticLockRetry.pause(retries);
+            }
+        }
+    }
+
+    private void failed(Merged merged, RuntimeException e, long startNanos) {
+        try {
+            failureHandler.failed(merged.getSignal(), e);
+        } catch (RuntimeException e2) {
+            // the signal stays queued as if there were no handler
+            log.error("failure handler failed for signal " + merged.getSignal().getId(), e2);
+        }
+        try {
+            signalListener.processingFailed(merged.getSignal(), e, startNanos, System.nanoTime());
+            listener.failure(merged.getSignal(), e, actor);
+        } catch (RuntimeException e2) {
+            log.error(e2.getMessage(), e2);
+            throw e;
+        }
+    }
+
+    /**
+     * Reports a failure after the signal committed, which must not be retried
+     * or dead lettered as that would perform the signal again.
+     */
+    private void failedAfterCommit(Signal<?> signal, RuntimeException e) {
+        log.error("signal " + signal.getId() + " committed but failed afterwards", e);
+        try {
+            listener.failure(signal, e, actor);
+        } catch (RuntimeException e2) {
+            log.error(e2.getMessage(), e2);
+            throw e;
+        }
+    }
+
+    /**
+     * Performs signals from the start of the batch on the entity in one
+     * transaction and returns how many were committed. If it throws the
+     * transaction has been rolled back unless {@link #committed} is set and
+     * {@link #attempted} holds the number of signals started.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private int performInTransaction(List<Merged> batch, long maxTimeMs) {
+        // perform the events on the entity after it has been loaded by a new
+        // EntityManager or, if resident, by the EntityManager retained from
+        // the last signal
+        EntityManager em = null;
+        EntityTransaction tx = null;
+        Entity<?> entity = null;
+        attempted = 0;
+        committed = false;
+        try {
+            long startNanos = System.nanoTime();
+            long start = System.currentTimeMillis();
+            Signal first = batch.get(0).getSignal();
+            listener.beforeProcessing(first, actor);
+            attempted = 1;
+            boolean reuse = residentEm != null && residentEm.isOpen();
+            if (reuse) {
+                em = residentEm;
+                recordHit();
+            } else {
+                discardResidentEntity();
+                em = emf.createEntityManager();
+                recordMiss();
+            }
+            tx = em.getTransaction();
+            tx.begin();
+            log.debug("started transaction");
+            // always loaded in the transaction so that changes committed
+            // elsewhere are seen and, for a versioned entity, a concurrent
+            // change fails the commit rather than being overwritten
+            entity = (Entity<?>) em.find(first.getEntityClass(), first.getEntityId());
+            entity.helper().setEntityManager(em);
+            List<Long> notAcknowledged = Lists.newArrayList();
+            for (int i = 0; i < attempted; i++) {
+                Merged merged = batch.get(i);
+                Signal signal = merged.getSignal();
+                log.debug("calling event {} on entity id = {}",
+                        signal.getEvent().getClass().getSimpleName(), signal.getEntityId());
+                entity.event(signal.getEvent());
+                log.debug("acknowledging signal signalId={}, entityId={}", signal.getId(),
+                        signal.getEntityId());
+                boolean acknowledged;
+                if (signal.getRepeatInterval().isPresent())
+                    // the row stays queued for the next occurrence
+                    acknowledged = reschedule(em, entity, signal);
+                else
+                    acknowledged = acknowledger.acknowledge(em, signal.getId());
+                if (!acknowledged)
+                    notAcknowledged.add(signal.getId());
+                for (Signal<?> r : merged.getReplaced())
+                    if (!acknowledger.acknowledge(em, r.getId()))
+                        notAcknowledged.add(r.getId());
+                if (attempted < batch.size()
+                        && System.currentTimeMillis() - start < maxTimeMs) {
+                    listener.beforeProcessing(batch.get(attempted).getSignal(), actor);
+                    attempted++;
+                }
+            }
+            long commitStartNanos = System.nanoTime();
+            tx.commit();
+            long endNanos = System.nanoTime();
+            committed = true;
+            log.debug("committed {} signals", attempted);
+            pendingAcknowledgements.addAll(notAcknowledged);
+            try {
+                for (Merged merged : batch.subList(0, attempted)) {
+                    signalListener.processed(merged.getSignal(), startNanos, commitStartNanos,
+                            endNanos);
+                    listener.afterProcessing(merged.getSignal(), actor);
+                }
+            } finally {
+                if (resident) {
+                    // nothing is kept managed between transactions so the
+                    // persistence context does not grow or go stale
+                    em.clear();
+                    residentEm = em;
+                } else
+                    em.close();
+                entity.helper().setEntityManager(null);
+                // only after successful commit do we send the signals to other
+                // entities made during onEntry procedure, even if the
+                // listener threw.
+                entity.helper().sendQueuedSignals();
+            }
+            return attempted;
+        } catch (RuntimeException e) {
+            // signals raised in a transaction that did not commit must not
+            // be sent
+            if (entity != null && !committed)
+                entity.helper().clearQueuedSignals();
+            // the retained entity manager may hold state that was rolled back
+            residentEm = null;
+            rollback(em, tx);
+            throw e;
+        } finally {
+            // in case this entity is reused make sure its entity manager is
+            // cleared
+            if (entity != null) {
+                entity.helper().setEntityManager(null);
+            }
+        }
+    }
+
+    /**
+     * Moves a repeating signal to its next occurrence in the processing
+     * transaction and queues that occurrence to be scheduled after commit.
+     */
+    private static boolean reschedule(EntityManager em, Entity<?> entity, Signal<?> signal) {
+        long interval = signal.getRepeatInterval().get().toMillis();
+        long now = System.currentTimeMillis();
+        long time = signal.getTime() == null ? now : signal.getTime();
+        // don't try to catch up occurrences missed while not running
+        long next = Math.max(time + interval, now);
+        int countUpdated = em
+                .createQuery("update " + QueuedSignal.class.getSimpleName()
+                        + " set time=:time where id=:id and status=:queued")
+                .setParameter("time", new Date(next)).setParameter("id", signal.getId())
+                .setParameter("queued", QueuedSignal.Status.QUEUED).executeUpdate();
+        if (countUpdated == 0)
+            throw new RuntimeException("repeating signal no longer queued: " + signal.getId());
+        entity.helper().queueSignal(signal.atTime(next));
+        return true;
+    }
+
+    private static void rollback(EntityManager em, EntityTransaction tx) {
+        try {
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+            if (em != null && em.isOpen()) {
+                em.close();
+            }
+        } catch (RuntimeException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns true if there are committed signals whose acknowledgement has
+     * been deferred (see {@link SignalAcknowledger}).
+     * 
+     * @return true if there are pending acknowledgements
+     */
+    public boolean hasPendingAcknowledgements() {
+        return !pendingAcknowledgements.isEmpty();
+    }
+
+    /**
+     * Acknowledges signals whose acknowledgement was deferred.
+     */
+    public void flushAcknowledgements() {
+        if (pendingAcknowledgements.isEmpty())
+            return;
+        try {
+            acknowledger.acknowledge(emf, pendingAcknowledgements);
+            log.debug("acknowledged {} signals", pendingAcknowledgements.size());
+        } catch (RuntimeException e) {
+            // the signals will be replayed by the next sendSignalsInQueue
+            log.error("could not acknowledge " + pendingAcknowledgements.size() + " signals", e);
+        } finally {
+            pendingAcknowledgements.clear();
+        }
+    }
+
+    /**
+     * Flushes pending acknowledgements and releases any retained entity.
+     */
+    public void close() {
+        flushAcknowledgements();
+        discardResidentEntity();
+    }
+
+    private void recordHit() {
+        if (metrics.isPresent())
+            metrics.get().hit();
+    }
+
+    private void recordMiss() {
+        if (metrics.isPresent())
+            metrics.get().miss();
+    }
+
+    private void discardResidentEntity() {
+        if (residentEm != null && residentEm.isOpen())
+            residentEm.close();
+        residentEm = null;
+    }
+
+}
@@ -3,6 +3,17 @@ package xuml.tools.model.compiler.runtime;
 import xuml.tools.model.compiler.runtime.actor.EntityActor;
 import xuml.tools.model.compiler.runtime.message.Signal;
 
+/**
+ * Notified of the signals processed by one entity. A listener is created for
+ * each entity by a {@link SignalProcessorListenerFactory}. For
+ * instrumentation that should stay on in production prefer the shared,
+ * allocation free {@link SignalListener}.
+ * 
+ * <p>
+ * The {@code actor} passed to each method is the {@link EntityActor}
+ * processing the signal when the Akka dispatcher is used. The virtual thread
+ * and polling dispatchers have no actor and pass null.
+ */
 public interface SignalProcessorListener {
 
     void beforeProcessing(Signal<?> signal, EntityActor actor);
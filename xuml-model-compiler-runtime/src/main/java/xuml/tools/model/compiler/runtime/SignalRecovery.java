@@ -0,0 +1,311 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Streams queued signals back to their entities after a restart. Rows are read
+ * a page at a time using keyset pagination so memory use is bounded by the page
+ * size, each page is decoded in parallel and overdue signals are only sent
+ * while fewer than the configured maximum are in flight. Signals due beyond
+ * the scheduler horizon are left for the {@link SignalScheduler} to page in.
+ *
+ * <p>
+ * If the queued signals have more than one priority (see
+ * {@link PrioritisedEvent}) each priority is a lane read with its own cursor.
+ * Lanes are read in turn, highest priority first, and each lane's page is
+ * twice the size of the page of the lane below it, so higher priorities are
+ * sent sooner without lower ones waiting for them all.
+ */
+final class SignalRecovery {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalRecovery.class);
+
+    // smallest page read from a low priority lane, so that many distinct
+    // priorities do not mean a query per signal
+    static final int MIN_LANE_PAGE_SIZE = 50;
+
+    private final EntityManagerFactory emf;
+    private final Function<QueuedSignal, Signal<?>> decoder;
+    private final Consumer<Signal<?>> sender;
+    private final InFlightSignals inFlight;
+    private final SignallerConfig config;
+
+    SignalRecovery(EntityManagerFactory emf, Function<QueuedSignal, Signal<?>> decoder,
+            Consumer<Signal<?>> sender, InFlightSignals inFlight, SignallerConfig config) {
+        this.emf = emf;
+        this.decoder = decoder;
+        this.sender = sender;
+        this.inFlight = inFlight;
+        this.config = config;
+    }
+
+    /**
+     * Sends every queued signal due before {@code horizonEnd}.
+     * 
+     * @param horizonEnd
+     *            epoch ms
+     * @param progress
+     *            updated as recovery proceeds
+     * @return number of signals sent or scheduled
+     */
+    int run(long horizonEnd, RecoveryProgress progress) {
+        return run(horizonEnd, Optional.<Set<Integer>> absent(), progress);
+    }
+
+    /**
+     * Sends every queued signal in the given partitions due before
+     * {@code horizonEnd}.
+     * 
+     * @param horizonEnd
+     *            epoch ms
+     * @param partitions
+     *            if present only signals in these partitions are sent
+     * @param progress
+     *            updated as recovery proceeds
+     * @return number of signals sent or scheduled
+     */
+    int run(long horizonEnd, Optional<Set<Integer>> partitions, RecoveryProgress progress) {
+        progress.started();
+        ExecutorService decoders = Executors.newFixedThreadPool(config.getRecoveryDecodeThreads(),
+                new ThreadFactoryBuilder().setNameFormat("xuml-recovery-decode-%d")
+                        .setDaemon(true).build());
+        try {
+            int count = 0;
+            List<Lane> lanes = lanes(horizonEnd, partitions);
+            boolean more;
+            do {
+                more = false;
+                for (Lane lane : lanes) {
+                    if (lane.done)
+                        continue;
+                    List<QueuedSignal> page = page(horizonEnd, partitions, lane);
+                    progress.page(page.size());
+                    count += send(decode(page, decoders), progress);
+                    if (!page.isEmpty())
+                        lane.last = Optional.of(page.get(page.size() - 1));
+                    lane.done = page.size() < lane.pageSize;
+                    more |= !lane.done;
+                }
+            } while (more);
+            log.info("recovery finished {}", progress);
+            return count;
+        } finally {
+            decoders.shutdownNow();
+            progress.finished();
+        }
+    }
+
+    /**
+     * Returns one lane per priority of the signals to recover, highest
+     * first, or a single lane for all signals if they share one priority.
+     */
+    private List<Lane> lanes(long horizonEnd, Optional<Set<Integer>> partitions) {
+        List<Integer> priorities = priorities(horizonEnd, partitions);
+        if (priorities.size() <= 1)
+            return Collections.singletonList(
+                    new Lane(Optional.<Integer> absent(), config.getRecoveryPageSize()));
+        int[] pageSizes = lanePageSizes(priorities.size(), config.getRecoveryPageSize());
+        List<Lane> lanes = Lists.newArrayList();
+        for (int i = 0; i < priorities.size(); i++)
+            lanes.add(new Lane(Optional.of(priorities.get(i)), pageSizes[i]));
+        log.info("recovering signals in priority lanes {} with page sizes {}", priorities,
+                Arrays.toString(pageSizes));
+        return lanes;
+    }
+
+    /**
+     * Returns the page size of each of {@code lanes} lanes, highest priority
+     * first, sharing {@code pageSize} so that each lane's page is twice the
+     * size of the next. No page is smaller than {@link #MIN_LANE_PAGE_SIZE}
+     * or {@code pageSize} if that is less, so with many lanes the pages add
+     * up to more than {@code pageSize}.
+     * 
+     * @param lanes
+     * @param pageSize
+     * @return page sizes
+     */
+    static int[] lanePageSizes(int lanes, int pageSize) {
+        double[] weights = new double[lanes];
+        double total = 0;
+        for (int i = 0; i < lanes; i++) {
+            weights[i] = Math.pow(2, lanes - 1 - i);
+            total += weights[i];
+        }
+        int min = Math.min(MIN_LANE_PAGE_SIZE, pageSize);
+        int[] sizes = new int[lanes];
+        for (int i = 0; i < lanes; i++)
+            sizes[i] = Math.max(min, (int) (pageSize * weights[i] / total));
+        return sizes;
+    }
+
+    private List<Integer> priorities(long horizonEnd, Optional<Set<Integer>> partitions) {
+        if (partitions.isPresent() && partitions.get().isEmpty())
+            return Collections.emptyList();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            String jpql = "select distinct s.priority from " + QueuedSignal.class.getSimpleName()
+                    + " s where s.status=:queued and s.time<=:horizonEnd";
+            if (partitions.isPresent())
+                jpql += " and s.partition in :partitions";
+            jpql += " order by s.priority desc";
+            TypedQuery<Integer> query = em.createQuery(jpql, Integer.class)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("horizonEnd", new Date(horizonEnd));
+            if (partitions.isPresent())
+                query.setParameter("partitions", partitions.get());
+            List<Integer> list = query.getResultList();
+            tx.commit();
+            return list;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private List<QueuedSignal> page(long horizonEnd, Optional<Set<Integer>> partitions,
+            Lane lane) {
+        if (partitions.isPresent() && partitions.get().isEmpty())
+            return Collections.emptyList();
+        Optional<QueuedSignal> last = lane.last;
+        boolean overdueFirst = config.isRecoveryOverdueFirst();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            String jpql = "select s from " + QueuedSignal.class.getSimpleName()
+                    + " s where s.status=:queued and s.time<=:horizonEnd";
+            if (partitions.isPresent())
+                jpql += " and s.partition in :partitions";
+            if (lane.priority.isPresent())
+                jpql += " and s.priority=:priority";
+            if (last.isPresent()) {
+                if (overdueFirst)
+                    jpql += " and (s.time>:lastTime or (s.time=:lastTime and s.id>:lastId))";
+                else
+                    jpql += " and s.id>:lastId";
+            }
+            if (overdueFirst)
+                jpql += " order by s.time, s.id";
+            else
+                jpql += " order by s.id";
+            TypedQuery<QueuedSignal> query = em.createQuery(jpql, QueuedSignal.class)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("horizonEnd", new Date(horizonEnd));
+            if (partitions.isPresent())
+                query.setParameter("partitions", partitions.get());
+            if (lane.priority.isPresent())
+                query.setParameter("priority", lane.priority.get());
+            if (last.isPresent()) {
+                query.setParameter("lastId", last.get().id);
+                if (overdueFirst)
+                    query.setParameter("lastTime", last.get().time);
+            }
+            List<QueuedSignal> list = query.setMaxResults(lane.pageSize).getResultList();
+            tx.commit();
+            return list;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private List<Future<Signal<?>>> decode(List<QueuedSignal> page, ExecutorService decoders) {
+        List<Future<Signal<?>>> futures = Lists.newArrayListWithCapacity(page.size());
+        for (final QueuedSignal sig : page)
+            futures.add(decoders.submit(() -> decoder.apply(sig)));
+        return futures;
+    }
+
+    private int send(List<Future<Signal<?>>> decoded, RecoveryProgress progress) {
+        int count = 0;
+        for (Future<Signal<?>> future : decoded) {
+            Signal<?> signal;
+            try {
+                signal = future.get();
+            } catch (ExecutionException e) {
+                // leave the row in place, it will be tried again next recovery
+                log.error("could not decode queued signal: " + e.getCause().getMessage(),
+                        e.getCause());
+                progress.failed();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            boolean due = signal.getTime() == null
+                    || signal.getTime() <= System.currentTimeMillis();
+            if (due) {
+                awaitCapacity();
+                progress.dispatched();
+            } else
+                progress.scheduled();
+            sender.accept(signal);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Signals of one priority, or of all priorities, read a page at a time.
+     */
+    private static final class Lane {
+
+        // absent for all priorities
+        final Optional<Integer> priority;
+        final int pageSize;
+        Optional<QueuedSignal> last = Optional.absent();
+        boolean done;
+
+        Lane(Optional<Integer> priority, int pageSize) {
+            this.priority = priority;
+            this.pageSize = pageSize;
+        }
+    }
+
+    private void awaitCapacity() {
+        try {
+            while (!inFlight.awaitBelow(config.getRecoveryMaxInFlight(), 10, TimeUnit.SECONDS))
+                log.info("recovery waiting for {} in flight signals to drop below {}",
+                        inFlight.get(), config.getRecoveryMaxInFlight());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+}
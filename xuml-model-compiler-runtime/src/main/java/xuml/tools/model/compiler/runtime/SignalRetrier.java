@@ -0,0 +1,110 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Date;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Records each failure of a signal on its queued signal and, if retry is
+ * configured (see {@link SignallerConfig.Builder#retry}), moves the signal to
+ * a later time with exponential backoff and schedules it again, or moves it
+ * to the dead letter table once it has failed the maximum number of times.
+ * Without retry a failed signal stays queued as before until the next
+ * {@link Signaller#sendSignalsInQueue()}.
+ */
+final class SignalRetrier implements SignalFailureHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalRetrier.class);
+
+    private final EntityManagerFactory emf;
+    private final SignallerConfig config;
+    private final Consumer<Signal<?>> scheduler;
+    private final QueueSizeEstimate queueSizeEstimate;
+
+    SignalRetrier(EntityManagerFactory emf, SignallerConfig config,
+            Consumer<Signal<?>> scheduler, QueueSizeEstimate queueSizeEstimate) {
+        this.emf = emf;
+        this.config = config;
+        this.scheduler = scheduler;
+        this.queueSizeEstimate = queueSizeEstimate;
+    }
+
+    @Override
+    public void failed(Signal<?> signal, Exception e) {
+        long now = System.currentTimeMillis();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        QueuedSignal row;
+        boolean dead = false;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            row = em.find(QueuedSignal.class, signal.getId());
+            if (row == null || row.status != QueuedSignal.Status.QUEUED) {
+                // acknowledged before the failure or already taken elsewhere
+                tx.commit();
+                return;
+            }
+            row.numFailures++;
+            if (row.timeFirstFailure == null)
+                row.timeFirstFailure = new Date(now);
+            row.timeLastFailure = new Date(now);
+            if (config.isRetry()) {
+                if (row.numFailures >= config.getMaxAttempts()) {
+                    em.persist(new DeadLetterSignal(row, Throwables.getStackTraceAsString(e)));
+                    em.remove(row);
+                    dead = true;
+                } else
+                    row.time = new Date(now + backoffMs(row.numFailures,
+                            config.getInitialBackoffMs(), config.getMaxBackoffMs()));
+            }
+            tx.commit();
+        } catch (RuntimeException e2) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e2;
+        } finally {
+            em.close();
+        }
+        if (dead) {
+            queueSizeEstimate.add(-1);
+            log.warn("dead lettered signal {} to {} after {} failures", signal.getId(),
+                    signal.getEntityUniqueId(), row.numFailures);
+        } else if (config.isRetry()) {
+            log.info("retrying signal {} to {} at {} after {} failures", signal.getId(),
+                    signal.getEntityUniqueId(), row.time, row.numFailures);
+            scheduler.accept(signal.atTime(row.time.getTime()));
+        }
+    }
+
+    /**
+     * Returns the delay before the next attempt, which doubles with each
+     * failure from {@code initialMs} up to {@code maxMs}.
+     *
+     * @param failures
+     *            at least 1
+     * @param initialMs
+     * @param maxMs
+     * @return delay in ms
+     */
+    static long backoffMs(int failures, long initialMs, long maxMs) {
+        long backoff = Math.min(initialMs, maxMs);
+        for (int i = 1; i < failures; i++) {
+            if (backoff > maxMs / 2)
+                return maxMs;
+            backoff *= 2;
+        }
+        return backoff;
+    }
+
+}
@@ -0,0 +1,379 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Schedules persisted signals that are not yet due. Only signals due before
+ * the end of a horizon window are held in memory; the window is advanced
+ * periodically and the signals that fall into the new part of it are paged in
+ * from the queued signal table ordered by time. Signals due later than the
+ * horizon live only in the database, so millions of future dated signals do
+ * not occupy the heap.
+ * 
+ * <p>
+ * The caller must only schedule a signal once it is durable. The horizon is
+ * advanced before the table is read so a signal committed concurrently with a
+ * poll is either seen by the poll or scheduled in memory by the caller (and
+ * de-duplicated by id if both happen).
+ */
+public final class SignalScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(SignalScheduler.class);
+
+    private final EntityManagerFactory emf;
+    private final SignalDispatcher dispatcher;
+    private final Function<QueuedSignal, Signal<?>> decoder;
+    private final long horizonMs;
+    private final int pageSize;
+    // when clustered only signals in these partitions are paged in
+    private final Optional<Supplier<Set<Integer>>> partitions;
+    private final ScheduledExecutorService timer;
+    // signals held in memory keyed by signal id, removed when they fire
+    private final ConcurrentHashMap<Long, Scheduled> scheduled = new ConcurrentHashMap<Long, Scheduled>();
+    // id of the in-memory signal for each sender, receiver and event signature
+    private final ConcurrentHashMap<EntityEvent, Long> latest = new ConcurrentHashMap<EntityEvent, Long>();
+    // signals held in memory plus those firing but not yet dispatched
+    private final AtomicInteger pending = new AtomicInteger();
+    // signals due at or before this time are held in memory
+    private volatile long horizonEnd;
+
+    public SignalScheduler(EntityManagerFactory emf, SignalDispatcher dispatcher,
+            Function<QueuedSignal, Signal<?>> decoder, long horizon, TimeUnit unit,
+            int pageSize) {
+        this(emf, dispatcher, decoder, horizon, unit, pageSize,
+                Optional.<Supplier<Set<Integer>>> absent());
+    }
+
+    SignalScheduler(EntityManagerFactory emf, SignalDispatcher dispatcher,
+            Function<QueuedSignal, Signal<?>> decoder, long horizon, TimeUnit unit,
+            int pageSize, Optional<Supplier<Set<Integer>>> partitions) {
+        Preconditions.checkArgument(horizon > 0, "horizon must be > 0");
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be > 0");
+        this.emf = emf;
+        this.dispatcher = dispatcher;
+        this.decoder = decoder;
+        this.horizonMs = unit.toMillis(horizon);
+        this.pageSize = pageSize;
+        this.partitions = partitions;
+        this.horizonEnd = System.currentTimeMillis() + horizonMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("xuml-signal-scheduler").setDaemon(true).build());
+        long pollIntervalMs = Math.max(1, horizonMs / 2);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the time up to which signals are held in memory.
+     * 
+     * @return epoch ms
+     */
+    public long getHorizonEnd() {
+        return horizonEnd;
+    }
+
+    /**
+     * Returns the number of signals held in memory.
+     * 
+     * @return scheduled count
+     */
+    public int scheduledCount() {
+        return scheduled.size();
+    }
+
+    /**
+     * Returns true if no signal is held in memory or being dispatched. A
+     * signal that fires is counted by the dispatcher before it stops being
+     * counted here, so checking this before the dispatcher does not miss it.
+     * 
+     * @return true if nothing is scheduled in memory
+     */
+    public boolean isIdle() {
+        return pending.get() == 0;
+    }
+
+    /**
+     * Schedules a durable signal that is not yet due. There can be at most one
+     * delayed signal of a given event signature outstanding for each
+     * sender-receiver instance pair at any one time (Mellor &amp; Balcer p194)
+     * so any other signal held in memory for the same pair and signature is
+     * cancelled.
+     * 
+     * @param signal
+     */
+    public void schedule(Signal<?> signal) {
+        EntityEvent key = EntityEvent.of(signal);
+        boolean inWindow = signal.getTime() <= horizonEnd;
+        Long previous;
+        if (inWindow)
+            previous = latest.put(key, signal.getId());
+        else
+            previous = latest.remove(key);
+        if (previous != null && !previous.equals(signal.getId()))
+            cancel(previous);
+        if (inWindow)
+            scheduleInMemory(signal, key);
+    }
+
+    private void scheduleInMemory(final Signal<?> signal, final EntityEvent key) {
+        final Scheduled entry = new Scheduled();
+        pending.incrementAndGet();
+        if (scheduled.putIfAbsent(signal.getId(), entry) != null) {
+            // already paged in
+            pending.decrementAndGet();
+            return;
+        }
+        long delayMs = Math.max(0, signal.getTime() - System.currentTimeMillis());
+        entry.future = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (scheduled.remove(signal.getId(), entry)) {
+                    try {
+                        // not the latest any more if superseded or cancelled
+                        // before it was held in memory
+                        if (latest.remove(key, signal.getId()))
+                            dispatcher.dispatch(signal);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the in-memory signal for the given sender, receiver and event
+     * signature. Does not touch the database, see
+     * {@link #deleteDelayed(EntityManager, String, String, String, Optional)}.
+     * 
+     * @param fromEntityUniqueId
+     * @param toEntityUniqueId
+     * @param eventSignatureKey
+     */
+    public void cancel(String fromEntityUniqueId, String toEntityUniqueId,
+            String eventSignatureKey) {
+        Long id = latest
+                .remove(new EntityEvent(fromEntityUniqueId, toEntityUniqueId, eventSignatureKey));
+        if (id != null)
+            cancel(id);
+    }
+
+    private void cancel(long signalId) {
+        Scheduled entry = scheduled.remove(signalId);
+        if (entry != null)
+            pending.decrementAndGet();
+        // if the future is not set yet the timer task will find the entry
+        // gone and not dispatch
+        if (entry != null && entry.future != null)
+            entry.future.cancel(false);
+    }
+
+    /**
+     * Deletes queued signals not yet due for the given sender, receiver and
+     * event signature using the given entity manager and its active
+     * transaction.
+     * 
+     * @param em
+     * @param fromEntityUniqueId
+     * @param toEntityUniqueId
+     * @param eventSignatureKey
+     * @param exceptSignalId
+     *            signal to leave in place
+     * @return number of signals deleted
+     */
+    public static int deleteDelayed(EntityManager em, String fromEntityUniqueId,
+            String toEntityUniqueId, String eventSignatureKey, Optional<Long> exceptSignalId) {
+        String jpql = "delete from " + QueuedSignal.class.getSimpleName()
+                + " where fromEntityUniqueId=:from and toEntityUniqueId=:to"
+                + " and eventSignatureKey=:key and status=:queued and time>:now";
+        if (exceptSignalId.isPresent())
+            jpql += " and id<>:id";
+        Query query = em.createQuery(jpql)
+                .setParameter("from", fromEntityUniqueId).setParameter("to", toEntityUniqueId)
+                .setParameter("key", eventSignatureKey)
+                .setParameter("queued", QueuedSignal.Status.QUEUED)
+                .setParameter("now", new Date());
+        if (exceptSignalId.isPresent())
+            query.setParameter("id", exceptSignalId.get());
+        return query.executeUpdate();
+    }
+
+    /**
+     * Advances the horizon and pages in the signals that are due in the newly
+     * covered part of the window.
+     */
+    void poll() {
+        long from = horizonEnd;
+        long to = System.currentTimeMillis() + horizonMs;
+        if (to <= from)
+            return;
+        horizonEnd = to;
+        try {
+            int count = 0;
+            Optional<QueuedSignal> last = Optional.absent();
+            List<QueuedSignal> page;
+            do {
+                page = page(from, to, last);
+                for (QueuedSignal sig : page)
+                    scheduleFromDatabase(decoder.apply(sig));
+                count += page.size();
+                if (!page.isEmpty())
+                    last = Optional.of(page.get(page.size() - 1));
+            } while (page.size() == pageSize);
+            if (count > 0)
+                log.debug("paged in {} signals due before {}", count, new Date(to));
+        } catch (RuntimeException e) {
+            // retry the same part of the window next time
+            horizonEnd = from;
+            log.warn("could not page in delayed signals: " + e.getMessage(), e);
+        }
+    }
+
+    private void scheduleFromDatabase(Signal<?> signal) {
+        EntityEvent key = EntityEvent.of(signal);
+        Long previous = latest.putIfAbsent(key, signal.getId());
+        if (previous == null || previous.equals(signal.getId()))
+            scheduleInMemory(signal, key);
+        // else a signal sent after this page was read has replaced it and
+        // deleted its row
+    }
+
+    private List<QueuedSignal> page(long from, long to, Optional<QueuedSignal> last) {
+        Set<Integer> owned = partitions.isPresent() ? partitions.get().get() : null;
+        if (owned != null && owned.isEmpty())
+            // the signals are paged in by whichever node owns them
+            return Collections.emptyList();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            String jpql = "select s from " + QueuedSignal.class.getSimpleName()
+                    + " s where s.status=:queued and s.time<=:to";
+            if (last.isPresent())
+                jpql += " and (s.time>:lastTime or (s.time=:lastTime and s.id>:lastId))";
+            else
+                jpql += " and s.time>:from";
+            if (owned != null)
+                jpql += " and s.partition in :partitions";
+            jpql += " order by s.time, s.id";
+            TypedQuery<QueuedSignal> query = em.createQuery(jpql, QueuedSignal.class)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("to", new Date(to));
+            if (last.isPresent())
+                query.setParameter("lastTime", last.get().time).setParameter("lastId",
+                        last.get().id);
+            else
+                query.setParameter("from", new Date(from));
+            if (owned != null)
+                query.setParameter("partitions", owned);
+            List<QueuedSignal> list = query.setMaxResults(pageSize).getResultList();
+            tx.commit();
+            return list;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        scheduled.clear();
+        latest.clear();
+        pending.set(0);
+    }
+
+    private static final class Scheduled {
+        volatile ScheduledFuture<?> future;
+    }
+
+    private static final class EntityEvent {
+        final String fromEntityUniqueId;
+        final String entityUniqueId;
+        final String eventSignature;
+
+        EntityEvent(String fromEntityUniqueId, String entityUniqueId, String eventSignature) {
+            this.fromEntityUniqueId = fromEntityUniqueId;
+            this.entityUniqueId = entityUniqueId;
+            this.eventSignature = eventSignature;
+        }
+
+        static EntityEvent of(Signal<?> signal) {
+            return new EntityEvent(signal.getFromEntityUniqueId(), signal.getEntityUniqueId(),
+                    signal.getEvent().signatureKey());
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((entityUniqueId == null) ? 0 : entityUniqueId.hashCode());
+            result = prime * result + ((eventSignature == null) ? 0 : eventSignature.hashCode());
+            result = prime * result
+                    + ((fromEntityUniqueId == null) ? 0 : fromEntityUniqueId.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            EntityEvent other = (EntityEvent) obj;
+            if (entityUniqueId == null) {
+                if (other.entityUniqueId != null)
+                    return false;
+            } else if (!entityUniqueId.equals(other.entityUniqueId))
+                return false;
+            if (eventSignature == null) {
+                if (other.eventSignature != null)
+                    return false;
+            } else if (!eventSignature.equals(other.eventSignature))
+                return false;
+            if (fromEntityUniqueId == null) {
+                if (other.fromEntityUniqueId != null)
+                    return false;
+            } else if (!fromEntityUniqueId.equals(other.fromEntityUniqueId))
+                return false;
+            return true;
+        }
+
+    }
+
+}
@@ -1,9 +1,16 @@
 package xuml.tools.model.compiler.runtime;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -14,49 +21,305 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
-import com.typesafe.config.ConfigFactory;
-
-import akka.actor.ActorRef;
-import akka.actor.ActorSystem;
-import akka.actor.Cancellable;
-import akka.actor.Props;
-import scala.concurrent.ExecutionContext;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
-import xuml.tools.model.compiler.runtime.actor.RootActor;
-import xuml.tools.model.compiler.runtime.message.ActorConfig;
+import xuml.tools.model.compiler.runtime.actor.AkkaSignalDispatcher;
 import xuml.tools.model.compiler.runtime.message.Signal;
 
 public class Signaller {
 
     private static final Logger log = LoggerFactory.getLogger(Signaller.class);
 
+    private static final long IDLE_POLL_INTERVAL_MS = 1;
+
     private final ThreadLocal<Info> info = new ThreadLocal<Info>() {
         @Override
         protected Info initialValue() {
             return new Info();
         }
     };
-    private final ActorSystem actorSystem = ActorSystem.create("xuml-tools",
-            ConfigFactory.load("xuml-akka").withFallback(ConfigFactory.load()));
-    private final ActorRef root = actorSystem.actorOf(Props.create(RootActor.class), "root");
+    private final SignalDispatcher dispatcher;
+    private final SignalScheduler scheduler;
     private final EntityManagerFactory emf;
+    private final Optional<GroupCommitter<QueuedSignal>> groupCommitter;
+    private final boolean transactionalOutbox;
+    private final Optional<ScheduledExecutorService> compactor;
+    private final Optional<ResidentActorMetrics> residentActorMetrics;
+    private final InFlightSignals inFlight = new InFlightSignals();
+    private final SignallerConfig config;
+    private final SignalIdGenerator idGenerator;
+    private final QueueSizeEstimate queueSizeEstimate = new QueueSizeEstimate();
+    private final Optional<SignalBacklog> backlog;
+    private final Optional<SignalCluster> cluster;
+    private final Optional<PollingSignalDispatcher> polling;
+    private final SignalFailureHandler failureHandler;
+    private final SignalListener listener;
+    private volatile RecoveryProgress recoveryProgress = new RecoveryProgress();
 
     public Signaller(EntityManagerFactory emf, int entityActorPoolSize,
             SignalProcessorListenerFactory listenerFactory) {
+        this(emf, SignallerConfig.builder().entityActorPoolSize(entityActorPoolSize).build(),
+                listenerFactory);
+    }
+
+    public Signaller(EntityManagerFactory emf, SignallerConfig config,
+            SignalProcessorListenerFactory listenerFactory) {
         this.emf = emf;
-        log.debug("Akka system settings:\n{}", actorSystem.settings());
-        root.tell(new ActorConfig(entityActorPoolSize), root);
-        root.tell(emf, root);
-        if (listenerFactory != null)
-            root.tell(listenerFactory, root);
+        this.config = config;
+        this.idGenerator = config.getSignalIdGenerator();
+        this.groupCommitter = createGroupCommitter(config);
+        this.transactionalOutbox = config.isTransactionalOutbox();
+        this.compactor = createCompactor(config);
+        this.residentActorMetrics = config.isResidentActors()
+                ? Optional.of(new ResidentActorMetrics()) : Optional.<ResidentActorMetrics> absent();
+        this.listener = config.getMetrics().isPresent()
+                ? new SignalListenerMetrics(config.getMetrics().get(), config.getListener())
+                : config.getListener();
+        this.cluster = config.isClustered()
+                ? Optional.of(new SignalCluster(emf, config, sig -> toSignal(sig),
+                        signal -> signal(signal), partitions -> recover(partitions)))
+                : Optional.<SignalCluster> absent();
+        SignalAcknowledger acknowledger = new SignalAcknowledgerCounting(
+                config.getSignalAcknowledger(), queueSizeEstimate);
+        this.failureHandler = new SignalRetrier(emf, config, signal -> schedule(signal),
+                queueSizeEstimate);
+        this.polling = config.getSignalDispatcherType() == SignalDispatcherType.POLLING
+                ? Optional.of(new PollingSignalDispatcher(emf, sig -> toSignal(sig),
+                        listenerFactory, listener, acknowledger, failureHandler, inFlight,
+                        config))
+                : Optional.<PollingSignalDispatcher> absent();
+        this.dispatcher = createDispatcher(config, listenerFactory, acknowledger);
+        this.scheduler = new SignalScheduler(emf, dispatcher, sig -> toSignal(sig),
+                config.getSchedulerHorizonMs(), TimeUnit.MILLISECONDS,
+                config.getSchedulerPageSize(),
+                cluster.isPresent() ? Optional.<Supplier<Set<Integer>>> of(cluster.get()::owned)
+                        : Optional.<Supplier<Set<Integer>>> absent());
+        this.backlog = config.isOverloadShedding()
+                ? Optional.of(new SignalBacklog(emf, sig -> toSignal(sig), signal -> signal(signal),
+                        inFlight, config.getMaxInFlightSignals(),
+                        config.getRecoveryPageSize()))
+                : Optional.<SignalBacklog> absent();
+        if (config.getMetrics().isPresent())
+            config.getMetrics().get().gauges(() -> approximateQueueSize(), () -> inFlight.get(),
+                    () -> dispatcher.activeEntities());
+        if (cluster.isPresent())
+            cluster.get().start();
+    }
+
+    private SignalDispatcher createDispatcher(SignallerConfig config,
+            SignalProcessorListenerFactory listenerFactory, SignalAcknowledger acknowledger) {
+        SignalDispatcher dispatcher;
+        if (polling.isPresent())
+            dispatcher = polling.get();
+        else if (config.getSignalDispatcherType() == SignalDispatcherType.VIRTUAL_THREADS)
+            dispatcher = new VirtualThreadSignalDispatcher(emf, listenerFactory, listener,
+                    acknowledger, failureHandler, config.getOptimisticLockRetry(), inFlight,
+                    config.getMaxBatchSize(), config.getMaxBatchTimeMs());
+        else
+            dispatcher = new AkkaSignalDispatcher(emf, config, listenerFactory, listener,
+                    acknowledger, failureHandler, residentActorMetrics, inFlight);
+        if (listener != SignalListenerDoesNothing.getInstance())
+            dispatcher = new NotifyingDispatcher(dispatcher, listener);
+        if (cluster.isPresent())
+            dispatcher = new ClusterDispatcher(dispatcher, cluster.get(), config.getPartitions());
+        return dispatcher;
+    }
+
+    /**
+     * Tells the listener about each signal before dispatching it.
+     */
+    private static final class NotifyingDispatcher implements SignalDispatcher {
+
+        private final SignalDispatcher dispatcher;
+        private final SignalListener listener;
+
+        NotifyingDispatcher(SignalDispatcher dispatcher, SignalListener listener) {
+            this.dispatcher = dispatcher;
+            this.listener = listener;
+        }
+
+        @Override
+        public void dispatch(Signal<?> signal) {
+            listener.dispatched(signal, System.nanoTime());
+            dispatcher.dispatch(signal);
+        }
+
+        @Override
+        public long activeEntities() {
+            return dispatcher.activeEntities();
+        }
+
+        @Override
+        public boolean stop() {
+            return dispatcher.stop();
+        }
+    }
+
+    /**
+     * Dispatches signals to entities in partitions owned by this node and
+     * hands the others over to their owner.
+     */
+    private static final class ClusterDispatcher implements SignalDispatcher {
+
+        private final SignalDispatcher dispatcher;
+        private final SignalCluster cluster;
+        private final int partitions;
+
+        ClusterDispatcher(SignalDispatcher dispatcher, SignalCluster cluster, int partitions) {
+            this.dispatcher = dispatcher;
+            this.cluster = cluster;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public void dispatch(Signal<?> signal) {
+            if (cluster.owns(SignalCluster.partition(signal.getEntityUniqueId(), partitions)))
+                dispatcher.dispatch(signal);
+            else {
+                try {
+                    cluster.forward(signal);
+                } catch (RuntimeException e) {
+                    log.error("could not forward signal " + signal.getId()
+                            + ", it is sent when its partition is next recovered", e);
+                }
+            }
+        }
+
+        @Override
+        public long activeEntities() {
+            return dispatcher.activeEntities();
+        }
+
+        @Override
+        public boolean stop() {
+            return dispatcher.stop();
+        }
+    }
+
+    private Optional<ScheduledExecutorService> createCompactor(SignallerConfig config) {
+        if (!config.getSignalAcknowledger().requiresCompaction())
+            return Optional.absent();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("xuml-signal-compactor").setDaemon(true)
+                        .build());
+        executor.scheduleWithFixedDelay(
+                new QueuedSignalCompactor(emf, config.getCompactionBatchSize()),
+                config.getCompactionIntervalMs(), config.getCompactionIntervalMs(),
+                TimeUnit.MILLISECONDS);
+        return Optional.of(executor);
+    }
+
+    private Optional<GroupCommitter<QueuedSignal>> createGroupCommitter(SignallerConfig config) {
+        if (!config.isGroupCommit())
+            return Optional.absent();
+        GroupCommitter.Flusher<QueuedSignal> flusher = new GroupCommitter.Flusher<QueuedSignal>() {
+            @Override
+            public void flush(List<QueuedSignal> signals) {
+                persist(signals);
+            }
+        };
+        return Optional.of(new GroupCommitter<QueuedSignal>("xuml-signal-group-commit", flusher,
+                config.getGroupCommitBufferSize(), config.getGroupCommitMaxBatchSize(),
+                config.getGroupCommitMaxDelayMs(), TimeUnit.MILLISECONDS));
     }
 
     public EntityManagerFactory getEntityManagerFactory() {
         return emf;
     }
 
+    /**
+     * Returns the resident actor counters if resident actors are enabled.
+     * 
+     * @return resident actor metrics
+     */
+    public Optional<ResidentActorMetrics> getResidentActorMetrics() {
+        return residentActorMetrics;
+    }
+
+    /**
+     * Returns the number of signals dispatched to entities and not yet
+     * processed.
+     * 
+     * @return in flight signal count
+     */
+    public long inFlightSignals() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns true if no signal is being processed or waiting to be
+     * dispatched, counting delayed signals held in memory by the scheduler
+     * (those due within {@link SignallerConfig#getSchedulerHorizonMs()}) and
+     * signals deferred by overload shedding. Signals left in the queue by a
+     * previous run are not counted until {@link #sendSignalsInQueue()} is
+     * called, nor are signals handed over to another node of a cluster. With
+     * polling workers signals are counted from when they are due until a
+     * worker has processed them or they have failed.
+     * 
+     * @return true if idle
+     */
+    public boolean isIdle() {
+        // checked in the order a signal moves through them so one moving on
+        // concurrently is seen in the next
+        return (!backlog.isPresent() || backlog.get().isIdle()) && scheduler.isIdle()
+                && (!polling.isPresent() || polling.get().isIdle()) && inFlight.get() == 0;
+    }
+
+    /**
+     * Blocks until {@link #isIdle()}, that is until every signal sent so far
+     * and every signal those signals caused has been processed. A repeating
+     * signal keeps the signaller busy from the time it is scheduled, so this
+     * times out while one is due within the scheduler horizon.
+     * 
+     * @param timeout
+     * @param unit
+     * @return true if idle, false if the timeout expired first
+     * @throws InterruptedException
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isIdle()) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0)
+                return false;
+            if (inFlight.get() > 0)
+                inFlight.awaitBelow(1, remainingMs, TimeUnit.MILLISECONDS);
+            else
+                // waiting for delayed or deferred signals to be dispatched
+                Thread.sleep(Math.min(remainingMs, IDLE_POLL_INTERVAL_MS));
+        }
+        return true;
+    }
+
+    /**
+     * Returns a stage that completes when a signal sent from outside an
+     * entity would be accepted without waiting (see
+     * {@link SignallerConfig.Builder#backpressure}). The stage may complete on
+     * a signal processing thread so use the async methods to chain work that
+     * sends signals.
+     * 
+     * @return stage completed when there is capacity for a signal
+     */
+    public CompletionStage<Void> whenAcceptingSignals() {
+        if (!config.isBackpressure() || config.isOverloadShedding())
+            return CompletableFuture.completedFuture(null);
+        else
+            return inFlight.whenBelow(config.getMaxInFlightSignals());
+    }
+
+    /**
+     * Returns the progress of the current or last run of
+     * {@link #sendSignalsInQueue()}.
+     * 
+     * @return recovery progress
+     */
+    public RecoveryProgress getRecoveryProgress() {
+        return recoveryProgress;
+    }
+
     /**
      * Returns a new instance of type T using the given {@link CreationEvent}.
      * This is a synchronous creation using a newly created then closed
@@ -71,16 +334,9 @@ public class Signaller {
     public <T extends Entity<T>> T create(Class<T> cls, CreationEvent<T> event) {
         EntityManager em = null;
         EntityTransaction tx = null;
-        T t;
-        try {
-            // TODO add before and after listener notifications for create event
-            // (see EntityActor for listener example for non-creation events
-            t = cls.newInstance();
-        } catch (InstantiationException e) {
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
+        long startNanos = System.nanoTime();
+        boolean committed = false;
+        T t = TypeRegistry.newInstance(cls);
         try {
             em = emf.createEntityManager();
             t.helper().setEntityManager(em);
@@ -88,13 +344,19 @@ public class Signaller {
             tx.begin();
             t.event(event);
             em.persist(t);
+            long commitStartNanos = System.nanoTime();
             tx.commit();
+            committed = true;
+            listener.created(t, event, startNanos, commitStartNanos, System.nanoTime());
             // only after successful commit do we send the signals to other
             // entities made during onEntry procedure.
             t.helper().sendQueuedSignals();
         } catch (RuntimeException e) {
             if (tx != null && tx.isActive())
                 tx.rollback();
+            t.helper().clearQueuedSignals();
+            if (!committed)
+                listener.creationFailed(cls, event, e, startNanos, System.nanoTime());
             throw e;
         } finally {
             t.helper().setEntityManager(null);
@@ -140,70 +402,95 @@ public class Signaller {
             repeatIntervalMs = Optional.absent();
 
         @SuppressWarnings("unchecked")
-        String id = persistSignal(fromEntityUniqueId, entity.getId(), (Class<T>) entity.getClass(),
-                event, time, repeatIntervalMs, entity.uniqueId());
+        Class<T> cls = (Class<T>) entity.getClass();
+        if (config.isBackpressure() && time <= now && !signalInitiatedFromEvent()) {
+            if (backlog.isPresent()) {
+                if (backlog.get().defer()) {
+                    persistDeferred(fromEntityUniqueId, entity, cls, event, time,
+                            repeatIntervalMs);
+                    return;
+                }
+            } else
+                awaitCapacity();
+        }
+        Optional<EntityManager> entityTransaction = entityTransaction();
+        Optional<EntityManager> outbox = outboxEntityManager();
+        boolean delayed = time > now;
+        long id;
+        if (outbox.isPresent()) {
+            QueuedSignal queuedSignal = createQueuedSignal(fromEntityUniqueId, entity.getId(), cls,
+                    event, time, repeatIntervalMs, entity.uniqueId());
+            // written in the transaction of the entity raising the signal so
+            // is only durable if that transaction commits
+            outbox.get().persist(queuedSignal);
+            queueSizeEstimate.add(1);
+            log.trace("persisted in entity transaction {}", queuedSignal);
+            id = queuedSignal.id;
+        } else if (delayed && !entityTransaction.isPresent()) {
+            QueuedSignal queuedSignal = createQueuedSignal(fromEntityUniqueId, entity.getId(), cls,
+                    event, time, repeatIntervalMs, entity.uniqueId());
+            persistReplacingDelayed(queuedSignal);
+            id = queuedSignal.id;
+        } else
+            id = persistSignal(fromEntityUniqueId, entity.getId(), cls, event, time,
+                    repeatIntervalMs, entity.uniqueId());
+        if (delayed && entityTransaction.isPresent())
+            // this signal replaces any delayed signal of the same signature
+            // from the sender to the entity not yet held in memory, deleted
+            // in the entity transaction so that a rollback keeps it
+            deleteDelayed(entityTransaction, fromEntityUniqueId, entity.uniqueId(),
+                    event.signatureKey(), Optional.of(id));
         @SuppressWarnings("unchecked")
         Signal<T> signal = new Signal<T>(fromEntityUniqueId, (Class<Entity<T>>) entity.getClass(),
                 event, id, time, repeatInterval, entity.getId(), entity.uniqueId());
         signal(signal);
     }
 
-    private static class EntityEvent {
-        String fromEntityUniqueId;
-        String entityUniqueId;
-        String eventSignature;
-
-        EntityEvent(String fromEntityUniqueId, String entityUniqueId, String eventSignature) {
-            this.fromEntityUniqueId = fromEntityUniqueId;
-            this.entityUniqueId = entityUniqueId;
-            this.eventSignature = eventSignature;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((entityUniqueId == null) ? 0 : entityUniqueId.hashCode());
-            result = prime * result + ((eventSignature == null) ? 0 : eventSignature.hashCode());
-            result = prime * result
-                    + ((fromEntityUniqueId == null) ? 0 : fromEntityUniqueId.hashCode());
-            return result;
+    private void awaitCapacity() {
+        long max = config.getMaxInFlightSignals();
+        try {
+            if (!inFlight.awaitBelow(max, config.getBackpressureTimeoutMs(),
+                    TimeUnit.MILLISECONDS))
+                throw new SignalOverloadException(
+                        inFlight.get() + " signals in flight, the limit is " + max);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignalOverloadException("interrupted waiting for signal capacity");
         }
+    }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            EntityEvent other = (EntityEvent) obj;
-            if (entityUniqueId == null) {
-                if (other.entityUniqueId != null)
-                    return false;
-            } else if (!entityUniqueId.equals(other.entityUniqueId))
-                return false;
-            if (eventSignature == null) {
-                if (other.eventSignature != null)
-                    return false;
-            } else if (!eventSignature.equals(other.eventSignature))
-                return false;
-            if (fromEntityUniqueId == null) {
-                if (other.fromEntityUniqueId != null)
-                    return false;
-            } else if (!fromEntityUniqueId.equals(other.fromEntityUniqueId))
-                return false;
-            return true;
+    /**
+     * Persists the signal for {@link SignalBacklog} to dispatch later.
+     */
+    private <T extends Entity<T>> void persistDeferred(String fromEntityUniqueId,
+            Entity<T> entity, Class<T> cls, Event<T> event, long time,
+            Optional<Long> repeatIntervalMs) {
+        QueuedSignal signal = createQueuedSignal(fromEntityUniqueId, entity.getId(), cls, event,
+                time, repeatIntervalMs, entity.uniqueId());
+        signal.status = QueuedSignal.Status.DEFERRED;
+        try {
+            persist(signal);
+        } catch (RuntimeException e) {
+            backlog.get().deferFailed();
+            throw e;
         }
-
+        log.trace("deferred {}", signal);
     }
 
-    private final Map<EntityEvent, Cancellable> scheduleCancellers = Maps.newHashMap();
-
+    /**
+     * Cancels the outstanding delayed signal of the given event signature
+     * from the sender to the entity, whether it is held in memory or only in
+     * the database.
+     * 
+     * @param fromEntityUniqueId
+     * @param entity
+     * @param eventSignatureKey
+     */
     public <T> void cancelSignal(String fromEntityUniqueId, Entity<T> entity,
             String eventSignatureKey) {
-        cancelSignal(fromEntityUniqueId, entity.uniqueId(), eventSignatureKey);
+        scheduler.cancel(fromEntityUniqueId, entity.uniqueId(), eventSignatureKey);
+        deleteDelayed(entityTransaction(), fromEntityUniqueId, entity.uniqueId(),
+                eventSignatureKey, Optional.<Long> absent());
     }
 
     <T> void signal(Signal<T> signal) {
@@ -213,39 +500,44 @@ public class Signaller {
             long now = System.currentTimeMillis();
             long delayMs = (signal.getTime() == null ? now : signal.getTime()) - now;
             if (delayMs <= 0)
-                root.tell(signal, root);
-            else {
-                // There can be at most one delayed signal of a given event
-                // signature outstanding for each sender-receiver instance pair
-                // at any one time. Mellor & Balcer p194.
-                synchronized (this) {
-                    EntityEvent key = cancelSignal(signal.getFromEntityUniqueId(),
-                            signal.getEntityUniqueId(), signal.getEvent().signatureKey());
-
-                    Cancellable cancellable;
-                    ExecutionContext executionContext = actorSystem.dispatcher();
-                    if (!signal.getRepeatInterval().isPresent())
-                        cancellable = actorSystem.scheduler().scheduleOnce(
-                                Duration.create(delayMs, TimeUnit.MILLISECONDS), root, signal,
-                                executionContext, root);
-                    else
-                        cancellable = actorSystem.scheduler().schedule(
-                                Duration.create(delayMs, TimeUnit.MILLISECONDS),
-                                signal.getRepeatInterval().get(), root, signal, executionContext,
-                                root);
-                    scheduleCancellers.put(key, cancellable);
-                }
-            }
+                dispatcher.dispatch(signal);
+            else
+                scheduler.schedule(signal);
         }
     }
 
-    private <T> EntityEvent cancelSignal(String fromEntityUniqueid, String toEntityUniqueId,
-            String eventSignatureKey) {
-        EntityEvent key = new EntityEvent(fromEntityUniqueid, toEntityUniqueId, eventSignatureKey);
-        Cancellable current = scheduleCancellers.get(key);
-        if (current != null)
-            current.cancel();
-        return key;
+    private void schedule(Signal<?> signal) {
+        scheduler.schedule(signal);
+    }
+
+    /**
+     * Deletes delayed signals in the entity transaction if there is one, else
+     * in a transaction of its own.
+     */
+    private void deleteDelayed(Optional<EntityManager> entityTransaction,
+            String fromEntityUniqueId, String toEntityUniqueId, String eventSignatureKey,
+            Optional<Long> exceptSignalId) {
+        if (entityTransaction.isPresent()) {
+            queueSizeEstimate.add(-SignalScheduler.deleteDelayed(entityTransaction.get(),
+                    fromEntityUniqueId, toEntityUniqueId, eventSignatureKey, exceptSignalId));
+            return;
+        }
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            int count = SignalScheduler.deleteDelayed(em, fromEntityUniqueId, toEntityUniqueId,
+                    eventSignatureKey, exceptSignalId);
+            tx.commit();
+            queueSizeEstimate.add(-count);
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
     }
 
     public List<QueuedSignal> queuedSignals() {
@@ -254,9 +546,13 @@ public class Signaller {
         try {
             tx = em.getTransaction();
             tx.begin();
-            List<QueuedSignal> signals = em.createQuery(
-                    "select s from " + QueuedSignal.class.getSimpleName() + " s order by id",
-                    QueuedSignal.class).getResultList();
+            List<QueuedSignal> signals = em
+                    .createQuery("select s from " + QueuedSignal.class.getSimpleName()
+                            + " s where s.status in (:queued, :deferred, :remote) order by id",
+                            QueuedSignal.class)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("deferred", QueuedSignal.Status.DEFERRED)
+                    .setParameter("remote", QueuedSignal.Status.REMOTE).getResultList();
             tx.commit();
             return signals;
         } catch (RuntimeException e) {
@@ -268,12 +564,179 @@ public class Signaller {
         }
     }
 
+    /**
+     * Sends the queued signals due within the scheduler horizon to their
+     * entities, typically after a restart. Signals are read a page at a time
+     * (see {@link SignallerConfig.Builder#recovery}) so memory use does not
+     * grow with the size of the queue. Signals due later are paged in by the
+     * scheduler. Signals left deferred by an overloaded previous run are
+     * requeued first. When clustered only the signals in partitions owned by
+     * this node are sent and from then on the signals of each partition it
+     * acquires are sent as it acquires it. Otherwise signals handed over
+     * between nodes by a clustered run are requeued too. If the signals have
+     * different priorities higher ones are read sooner. Polling workers take
+     * queued signals from the table themselves so are just started and 0
+     * returned.
+     * 
+     * @return number of signals sent or scheduled
+     */
     public int sendSignalsInQueue() {
-        List<QueuedSignal> signals = queuedSignals();
-        for (QueuedSignal sig : signals) {
-            signal(sig);
+        int requeued = SignalBacklog.requeueDeferred(emf);
+        if (requeued > 0)
+            log.info("requeued {} signals deferred by a previous run", requeued);
+        Optional<Set<Integer>> partitions;
+        if (cluster.isPresent())
+            partitions = Optional.of(cluster.get().startRecovery());
+        else {
+            partitions = Optional.absent();
+            int remote = SignalCluster.requeueRemote(emf);
+            if (remote > 0)
+                log.info("requeued {} signals forwarded by a clustered run", remote);
         }
-        return signals.size();
+        if (polling.isPresent()) {
+            polling.get().start();
+            return 0;
+        }
+        return recover(partitions);
+    }
+
+    private int recover(Set<Integer> partitions) {
+        return recover(Optional.of(partitions));
+    }
+
+    private int recover(Optional<Set<Integer>> partitions) {
+        RecoveryProgress progress = new RecoveryProgress();
+        recoveryProgress = progress;
+        return new SignalRecovery(emf, sig -> toSignal(sig), signal -> signal(signal), inFlight,
+                config).run(scheduler.getHorizonEnd(), partitions, progress);
+    }
+
+    public long deadLetterCount() {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            long count = em.createQuery(
+                    "select count(d) from " + DeadLetterSignal.class.getSimpleName() + " d",
+                    Long.class).getSingleResult();
+            tx.commit();
+            return count;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Returns up to {@code maxResults} signals that were moved to the dead
+     * letter table by {@link SignallerConfig.Builder#retry}, those that failed
+     * first coming first.
+     * 
+     * @param maxResults
+     * @return dead letters
+     */
+    public List<DeadLetterSignal> deadLetters(int maxResults) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            List<DeadLetterSignal> signals = em
+                    .createQuery("select d from " + DeadLetterSignal.class.getSimpleName()
+                            + " d order by d.timeLastFailure, d.id", DeadLetterSignal.class)
+                    .setMaxResults(maxResults).getResultList();
+            tx.commit();
+            return signals;
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Moves the dead letter back to the queue, due now and with its failures
+     * forgotten, and sends it to its entity. Typically called once the cause
+     * of its failures has been fixed.
+     * 
+     * @param signalId
+     * @return false if there is no dead letter with that id
+     */
+    public boolean replayDeadLetter(long signalId) {
+        QueuedSignal queued;
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            DeadLetterSignal dead = em.find(DeadLetterSignal.class, signalId);
+            if (dead == null) {
+                tx.commit();
+                return false;
+            }
+            queued = dead.toQueuedSignal(System.currentTimeMillis());
+            queued.partition = SignalCluster.partition(queued.toEntityUniqueId,
+                    config.getPartitions());
+            em.persist(queued);
+            em.remove(dead);
+            tx.commit();
+            queueSizeEstimate.add(1);
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+        log.info("replaying dead letter {}", queued);
+        signal(toSignal(queued));
+        return true;
+    }
+
+    /**
+     * Replays the dead letters present when called (see
+     * {@link #replayDeadLetter(long)}), a page at a time. Signals that fail
+     * again and return to the dead letter table meanwhile are not replayed a
+     * second time.
+     * 
+     * @return number of signals replayed
+     */
+    public int replayDeadLetters() {
+        int count = 0;
+        long remaining = deadLetterCount();
+        while (remaining > 0) {
+            List<DeadLetterSignal> page = deadLetters(
+                    (int) Math.min(remaining, config.getRecoveryPageSize()));
+            if (page.isEmpty())
+                break;
+            for (DeadLetterSignal dead : page) {
+                if (replayDeadLetter(dead.id))
+                    count++;
+                remaining--;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an estimate of {@link #queueSize()} that is maintained as
+     * signals are persisted and acknowledged, so is cheap enough to poll. The
+     * estimate is reset from an exact count when it is older than
+     * {@link SignallerConfig#getQueueSizeResetIntervalMs()}.
+     * 
+     * @return approximate number of queued signals
+     */
+    public long approximateQueueSize() {
+        long now = System.currentTimeMillis();
+        if (now - queueSizeEstimate.getResetTime() >= config.getQueueSizeResetIntervalMs())
+            queueSizeEstimate.reset(queueSize(), now);
+        return queueSizeEstimate.get();
     }
 
     public long queueSize() {
@@ -283,9 +746,12 @@ public class Signaller {
         try {
             tx = em.getTransaction();
             tx.begin();
-            count = em.createQuery(
-                    "select count(s) from " + QueuedSignal.class.getSimpleName() + " s", Long.class)
-                    .getSingleResult();
+            count = em
+                    .createQuery("select count(s) from " + QueuedSignal.class.getSimpleName()
+                            + " s where s.status in (:queued, :deferred, :remote)", Long.class)
+                    .setParameter("queued", QueuedSignal.Status.QUEUED)
+                    .setParameter("deferred", QueuedSignal.Status.DEFERRED)
+                    .setParameter("remote", QueuedSignal.Status.REMOTE).getSingleResult();
             tx.commit();
             return count;
         } catch (RuntimeException e) {
@@ -298,38 +764,148 @@ public class Signaller {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private void signal(QueuedSignal sig) {
-        log.debug("sending {}", sig);
+    private Signal<?> toSignal(QueuedSignal sig) {
         Event<?> event = Util.toObject(sig.eventContent, sig.eventClass());
         Serializable id = Util.toObject(sig.idContent, sig.idClass());
-        Class<?> entityClass = getClassForName(sig.entityClassName);
-        signal(new Signal(sig.fromEntityUniqueId, entityClass, event, sig.id, id,
-                sig.toEntityUniqueId));
+        Class<?> entityClass = TypeRegistry.classForName(sig.entityClassName);
+        Optional<FiniteDuration> repeatInterval;
+        if (sig.repeatIntervalMs == null)
+            repeatInterval = Optional.absent();
+        else
+            repeatInterval = Optional.of(Duration.create(sig.repeatIntervalMs,
+                    TimeUnit.MILLISECONDS));
+        return new Signal(sig.fromEntityUniqueId, entityClass, event, sig.id,
+                sig.time.getTime(), repeatInterval, id, sig.toEntityUniqueId);
     }
 
-    private Class<?> getClassForName(String className) {
-        try {
-            return Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+    public <T extends Entity<T>> long persistSignal(String fromEntityUniqueId, Object id,
+            Class<T> cls, Event<T> event, long time, Optional<Long> repeatIntervalMs,
+            String entityUniqueId) {
+        QueuedSignal signal = createQueuedSignal(fromEntityUniqueId, id, cls, event, time,
+                repeatIntervalMs, entityUniqueId);
+        persist(signal);
+        log.trace("persisted {}", signal);
+        return signal.id;
     }
 
-    public <T extends Entity<T>> String persistSignal(String fromEntityUniqueId, Object id,
-            Class<T> cls, Event<T> event, long time, Optional<Long> repeatIntervalMs,
+    private void persist(QueuedSignal signal) {
+        if (groupCommitter.isPresent())
+            join(groupCommitter.get().submit(signal));
+        else
+            persist(Collections.singletonList(signal));
+    }
+
+    /**
+     * Persists the signal and returns a future that completes with the signal
+     * id once the signal is durable. If group commit is not enabled the signal
+     * is persisted synchronously and the returned future is already complete.
+     * 
+     * @return future of the signal id
+     */
+    public <T extends Entity<T>> CompletableFuture<Long> persistSignalAsync(
+            String fromEntityUniqueId, Object id, Class<T> cls, Event<T> event, long time,
+            Optional<Long> repeatIntervalMs, String entityUniqueId) {
+        if (!groupCommitter.isPresent())
+            return CompletableFuture.completedFuture(persistSignal(fromEntityUniqueId, id, cls,
+                    event, time, repeatIntervalMs, entityUniqueId));
+        QueuedSignal signal = createQueuedSignal(fromEntityUniqueId, id, cls, event, time,
+                repeatIntervalMs, entityUniqueId);
+        return groupCommitter.get().submit(signal).thenApply(s -> s.id);
+    }
+
+    private <T extends Entity<T>> QueuedSignal createQueuedSignal(String fromEntityUniqueId,
+            Object id, Class<T> cls, Event<T> event, long time, Optional<Long> repeatIntervalMs,
             String entityUniqueId) {
         byte[] idBytes = Util.toBytes(id);
         byte[] eventBytes = Util.toBytes(event);
-        QueuedSignal signal = new QueuedSignal(id.getClass().getName(), idBytes, cls.getName(),
-                event.getClass().getName(), eventBytes, time, repeatIntervalMs, fromEntityUniqueId,
-                entityUniqueId);
+        QueuedSignal signal = new QueuedSignal(idGenerator.next(), id.getClass().getName(),
+                idBytes, cls.getName(), event.getClass().getName(), event.signatureKey(),
+                eventBytes, time, repeatIntervalMs, fromEntityUniqueId, entityUniqueId);
+        signal.priority = Signal.priority(event);
+        signal.partition = SignalCluster.partition(entityUniqueId, config.getPartitions());
+        return signal;
+    }
+
+    private void persist(List<QueuedSignal> signals) {
         EntityManager em = emf.createEntityManager();
-        em.getTransaction().begin();
-        em.persist(signal);
-        em.getTransaction().commit();
-        em.close();
-        log.trace("persisted {}", signal);
-        return signal.id;
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            for (QueuedSignal signal : signals)
+                em.persist(signal);
+            tx.commit();
+            queueSizeEstimate.add(signals.size());
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Persists a delayed signal sent from outside an entity and deletes the
+     * delayed signals it replaces in the same transaction.
+     */
+    private void persistReplacingDelayed(QueuedSignal signal) {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = null;
+        try {
+            tx = em.getTransaction();
+            tx.begin();
+            em.persist(signal);
+            int deleted = SignalScheduler.deleteDelayed(em, signal.fromEntityUniqueId,
+                    signal.toEntityUniqueId, signal.eventSignatureKey, Optional.of(signal.id));
+            tx.commit();
+            queueSizeEstimate.add(1 - deleted);
+            log.trace("persisted {}", signal);
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive())
+                tx.rollback();
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the EntityManager of the entity transaction that the current
+     * signal is being raised from if transactional outbox mode is enabled and
+     * that transaction is active.
+     * 
+     * @return entity manager to persist the signal with
+     */
+    private Optional<EntityManager> outboxEntityManager() {
+        if (!transactionalOutbox)
+            return Optional.absent();
+        else
+            return entityTransaction();
+    }
+
+    /**
+     * Returns the EntityManager of the entity transaction that the current
+     * signal is being raised from if that transaction is active.
+     * 
+     * @return entity manager of the active entity transaction
+     */
+    private Optional<EntityManager> entityTransaction() {
+        if (!signalInitiatedFromEvent())
+            return Optional.absent();
+        EntityManager em = info.get().getCurrentEntityManager();
+        if (em != null && em.isOpen() && em.isJoinedToTransaction())
+            return Optional.of(em);
+        else
+            return Optional.absent();
     }
 
     private boolean signalInitiatedFromEvent() {
@@ -341,7 +917,19 @@ public class Signaller {
     }
 
     public void stop() {
-        actorSystem.shutdown();
+        if (groupCommitter.isPresent())
+            groupCommitter.get().close();
+        if (compactor.isPresent())
+            compactor.get().shutdownNow();
+        if (backlog.isPresent())
+            backlog.get().stop();
+        scheduler.stop();
+        // partitions are only released once nothing is being processed,
+        // otherwise another node could process signals to an entity that is
+        // still committing here
+        boolean finished = dispatcher.stop();
+        if (cluster.isPresent())
+            cluster.get().stop(finished);
     }
 
     public void close() {
@@ -0,0 +1,943 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Tuning options for a {@link Signaller}. Instances are immutable, use
+ * {@link #builder()} to create one.
+ */
+public final class SignallerConfig {
+
+    private final int entityActorPoolSize;
+    private final boolean groupCommit;
+    private final int groupCommitBufferSize;
+    private final int groupCommitMaxBatchSize;
+    private final long groupCommitMaxDelayMs;
+    private final boolean transactionalOutbox;
+    private final SignalAcknowledger signalAcknowledger;
+    private final long compactionIntervalMs;
+    private final int compactionBatchSize;
+    private final boolean residentActors;
+    private final long residentIdleTtlMs;
+    private final int maxResidentActors;
+    private final int rootActorShards;
+    private final Optional<EntityExecutorType> entityExecutorType;
+    private final boolean capEntityActorPoolSizeToJdbcPool;
+    private final SignalDispatcherType signalDispatcherType;
+    private final long schedulerHorizonMs;
+    private final int schedulerPageSize;
+    private final int recoveryPageSize;
+    private final int recoveryDecodeThreads;
+    private final long recoveryMaxInFlight;
+    private final boolean recoveryOverdueFirst;
+    private final SignalIdGenerator signalIdGenerator;
+    private final long queueSizeResetIntervalMs;
+    private final int maxBatchSize;
+    private final long maxBatchTimeMs;
+    private final long maxInFlightSignals;
+    private final long backpressureTimeoutMs;
+    private final boolean overloadShedding;
+    private final Optional<String> nodeId;
+    private final int partitions;
+    private final long leaseDurationMs;
+    private final long clusterPollIntervalMs;
+    private final int pollingWorkers;
+    private final int pollingBatchSize;
+    private final long pollIntervalMs;
+    private final long claimTimeoutMs;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final OptimisticLockRetry optimisticLockRetry;
+    private final int maxDispatchedSignals;
+    private final Optional<SignalMetrics> metrics;
+    private final SignalListener listener;
+
+    private SignallerConfig(Builder builder) {
+        this.entityActorPoolSize = builder.entityActorPoolSize;
+        this.groupCommit = builder.groupCommit;
+        this.groupCommitBufferSize = builder.groupCommitBufferSize;
+        this.groupCommitMaxBatchSize = builder.groupCommitMaxBatchSize;
+        this.groupCommitMaxDelayMs = builder.groupCommitMaxDelayMs;
+        this.transactionalOutbox = builder.transactionalOutbox;
+        this.signalAcknowledger = builder.signalAcknowledger;
+        this.compactionIntervalMs = builder.compactionIntervalMs;
+        this.compactionBatchSize = builder.compactionBatchSize;
+        this.residentActors = builder.residentActors;
+        this.residentIdleTtlMs = builder.residentIdleTtlMs;
+        this.maxResidentActors = builder.maxResidentActors;
+        this.rootActorShards = builder.rootActorShards;
+        this.entityExecutorType = builder.entityExecutorType;
+        this.capEntityActorPoolSizeToJdbcPool = builder.capEntityActorPoolSizeToJdbcPool;
+        this.signalDispatcherType = builder.signalDispatcherType;
+        this.schedulerHorizonMs = builder.schedulerHorizonMs;
+        this.schedulerPageSize = builder.schedulerPageSize;
+        this.recoveryPageSize = builder.recoveryPageSize;
+        this.recoveryDecodeThreads = builder.recoveryDecodeThreads;
+        this.recoveryMaxInFlight = builder.recoveryMaxInFlight;
+        this.recoveryOverdueFirst = builder.recoveryOverdueFirst;
+        this.signalIdGenerator = builder.signalIdGenerator;
+        this.queueSizeResetIntervalMs = builder.queueSizeResetIntervalMs;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxBatchTimeMs = builder.maxBatchTimeMs;
+        this.maxInFlightSignals = builder.maxInFlightSignals;
+        this.backpressureTimeoutMs = builder.backpressureTimeoutMs;
+        this.overloadShedding = builder.overloadShedding;
+        this.nodeId = builder.nodeId;
+        this.partitions = builder.partitions;
+        this.leaseDurationMs = builder.leaseDurationMs;
+        this.clusterPollIntervalMs = builder.clusterPollIntervalMs;
+        this.pollingWorkers = builder.pollingWorkers;
+        this.pollingBatchSize = builder.pollingBatchSize;
+        this.pollIntervalMs = builder.pollIntervalMs;
+        this.claimTimeoutMs = builder.claimTimeoutMs;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMs = builder.initialBackoffMs;
+        this.maxBackoffMs = builder.maxBackoffMs;
+        this.optimisticLockRetry = builder.optimisticLockRetry();
+        this.maxDispatchedSignals = builder.maxDispatchedSignals;
+        this.metrics = builder.metrics;
+        this.listener = builder.listener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getEntityActorPoolSize() {
+        return entityActorPoolSize;
+    }
+
+    /**
+     * Returns true if signals persisted outside of an entity transaction are
+     * written by a {@link GroupCommitter} rather than one transaction per
+     * signal.
+     *
+     * @return true if group commit is enabled
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public int getGroupCommitBufferSize() {
+        return groupCommitBufferSize;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public long getGroupCommitMaxDelayMs() {
+        return groupCommitMaxDelayMs;
+    }
+
+    /**
+     * Returns true if signals raised during an entity transaction are persisted
+     * in that transaction rather than in their own.
+     * 
+     * @return true if transactional outbox mode is enabled
+     */
+    public boolean isTransactionalOutbox() {
+        return transactionalOutbox;
+    }
+
+    public SignalAcknowledger getSignalAcknowledger() {
+        return signalAcknowledger;
+    }
+
+    public long getCompactionIntervalMs() {
+        return compactionIntervalMs;
+    }
+
+    public int getCompactionBatchSize() {
+        return compactionBatchSize;
+    }
+
+    /**
+     * Returns true if entity actors and their EntityManager are kept after
+     * processing so that further signals to the same entity reuse them.
+     * 
+     * @return true if resident actors are enabled
+     */
+    public boolean isResidentActors() {
+        return residentActors;
+    }
+
+    public long getResidentIdleTtlMs() {
+        return residentIdleTtlMs;
+    }
+
+    public int getMaxResidentActors() {
+        return maxResidentActors;
+    }
+
+    public int getRootActorShards() {
+        return rootActorShards;
+    }
+
+    /**
+     * Returns the executor type for the entity dispatcher. If absent the type
+     * in xuml-akka.conf is used.
+     * 
+     * @return entity executor type
+     */
+    public Optional<EntityExecutorType> getEntityExecutorType() {
+        return entityExecutorType;
+    }
+
+    /**
+     * Returns true if the entity actor pool size is reduced to the JDBC
+     * connection pool size when the latter is smaller.
+     * 
+     * @return true if capped to the JDBC pool size
+     */
+    public boolean isCapEntityActorPoolSizeToJdbcPool() {
+        return capEntityActorPoolSizeToJdbcPool;
+    }
+
+    public SignalDispatcherType getSignalDispatcherType() {
+        return signalDispatcherType;
+    }
+
+    public long getSchedulerHorizonMs() {
+        return schedulerHorizonMs;
+    }
+
+    public int getSchedulerPageSize() {
+        return schedulerPageSize;
+    }
+
+    public int getRecoveryPageSize() {
+        return recoveryPageSize;
+    }
+
+    public int getRecoveryDecodeThreads() {
+        return recoveryDecodeThreads;
+    }
+
+    public long getRecoveryMaxInFlight() {
+        return recoveryMaxInFlight;
+    }
+
+    /**
+     * Returns true if recovery sends the queued signals with the earliest time
+     * first rather than in insertion order.
+     * 
+     * @return true if overdue signals are recovered first
+     */
+    public boolean isRecoveryOverdueFirst() {
+        return recoveryOverdueFirst;
+    }
+
+    public SignalIdGenerator getSignalIdGenerator() {
+        return signalIdGenerator;
+    }
+
+    public long getQueueSizeResetIntervalMs() {
+        return queueSizeResetIntervalMs;
+    }
+
+    /**
+     * Returns true if signals waiting for the same entity are performed
+     * several to a transaction.
+     * 
+     * @return true if batch processing is enabled
+     */
+    public boolean isBatchProcessing() {
+        return maxBatchSize > 1;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxBatchTimeMs() {
+        return maxBatchTimeMs;
+    }
+
+    /**
+     * Returns true if signals sent from outside an entity are only accepted
+     * while fewer than {@link #getMaxInFlightSignals()} signals are in
+     * flight.
+     * 
+     * @return true if backpressure is enabled
+     */
+    public boolean isBackpressure() {
+        return maxInFlightSignals < Long.MAX_VALUE;
+    }
+
+    public long getMaxInFlightSignals() {
+        return maxInFlightSignals;
+    }
+
+    public long getBackpressureTimeoutMs() {
+        return backpressureTimeoutMs;
+    }
+
+    /**
+     * Returns true if signals over the in flight limit are left in the
+     * database and dispatched later rather than making the caller wait.
+     * 
+     * @return true if overload shedding is enabled
+     */
+    public boolean isOverloadShedding() {
+        return overloadShedding;
+    }
+
+    public boolean isClustered() {
+        return nodeId.isPresent();
+    }
+
+    public Optional<String> getNodeId() {
+        return nodeId;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public long getLeaseDurationMs() {
+        return leaseDurationMs;
+    }
+
+    public long getClusterPollIntervalMs() {
+        return clusterPollIntervalMs;
+    }
+
+    public int getPollingWorkers() {
+        return pollingWorkers;
+    }
+
+    public int getPollingBatchSize() {
+        return pollingBatchSize;
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public long getClaimTimeoutMs() {
+        return claimTimeoutMs;
+    }
+
+    public boolean isRetry() {
+        return maxAttempts > 0;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getInitialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    public OptimisticLockRetry getOptimisticLockRetry() {
+        return optimisticLockRetry;
+    }
+
+    public boolean isPriorityLanes() {
+        return maxDispatchedSignals > 0;
+    }
+
+    public int getMaxDispatchedSignals() {
+        return maxDispatchedSignals;
+    }
+
+    public Optional<SignalMetrics> getMetrics() {
+        return metrics;
+    }
+
+    public SignalListener getListener() {
+        return listener;
+    }
+
+    public static class Builder {
+
+        private int entityActorPoolSize = 10;
+        private boolean groupCommit = false;
+        private int groupCommitBufferSize = 10000;
+        private int groupCommitMaxBatchSize = 100;
+        private long groupCommitMaxDelayMs = 1;
+        private boolean transactionalOutbox = false;
+        private SignalAcknowledger signalAcknowledger = new SignalAcknowledgerDelete();
+        private long compactionIntervalMs = 1000;
+        private int compactionBatchSize = 1000;
+        private boolean residentActors = false;
+        private long residentIdleTtlMs = 60000;
+        private int maxResidentActors = 10000;
+        private int rootActorShards = 1;
+        private Optional<EntityExecutorType> entityExecutorType = Optional.absent();
+        private boolean capEntityActorPoolSizeToJdbcPool = false;
+        private SignalDispatcherType signalDispatcherType = SignalDispatcherType.AKKA;
+        private long schedulerHorizonMs = 60000;
+        private int schedulerPageSize = 1000;
+        private int recoveryPageSize = 1000;
+        private int recoveryDecodeThreads = Runtime.getRuntime().availableProcessors();
+        private long recoveryMaxInFlight = 10000;
+        private boolean recoveryOverdueFirst = true;
+        private SignalIdGenerator signalIdGenerator = new SignalIdGeneratorRandom();
+        private long queueSizeResetIntervalMs = 60000;
+        private int maxBatchSize = 1;
+        private long maxBatchTimeMs = 100;
+        private long maxInFlightSignals = Long.MAX_VALUE;
+        private long backpressureTimeoutMs = 0;
+        private boolean overloadShedding = false;
+        private Optional<String> nodeId = Optional.absent();
+        private int partitions = 64;
+        private long leaseDurationMs = 30000;
+        private long clusterPollIntervalMs = 100;
+        private int pollingWorkers = Runtime.getRuntime().availableProcessors();
+        private int pollingBatchSize = 100;
+        private long pollIntervalMs = 100;
+        private long claimTimeoutMs = 60000;
+        // 0 means don't retry
+        private int maxAttempts = 0;
+        private long initialBackoffMs = 1000;
+        private long maxBackoffMs = 60000;
+        // absent means the default, which depends on transactionalOutbox
+        private Optional<OptimisticLockRetry> optimisticLockRetry = Optional.absent();
+        // 0 means priority lanes are disabled
+        private int maxDispatchedSignals = 0;
+        private Optional<SignalMetrics> metrics = Optional.absent();
+        private SignalListener listener = SignalListenerDoesNothing.getInstance();
+
+        private Builder() {
+
+        }
+
+        public Builder entityActorPoolSize(int size) {
+            Preconditions.checkArgument(size > 0, "pool size must be > 0");
+            this.entityActorPoolSize = size;
+            return this;
+        }
+
+        /**
+         * Enables group commit of persisted signals. Concurrent callers of
+         * {@link Signaller#persistSignal} have their signals staged in a
+         * buffer that is written in one transaction when it reaches
+         * {@code maxBatchSize} or when {@code maxDelay} has passed since the
+         * first signal of the batch arrived. Callers still block until their
+         * signal is durable.
+         *
+         * @param maxBatchSize
+         *            maximum signals written per transaction
+         * @param maxDelay
+         *            maximum time to wait for a batch to fill
+         * @param unit
+         *            unit of maxDelay
+         * @return this
+         */
+        public Builder groupCommit(int maxBatchSize, long maxDelay, TimeUnit unit) {
+            Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0");
+            Preconditions.checkArgument(maxDelay >= 0, "maxDelay must be >= 0");
+            this.groupCommit = true;
+            this.groupCommitMaxBatchSize = maxBatchSize;
+            this.groupCommitMaxDelayMs = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * Sets the capacity of the group commit staging buffer. Callers block
+         * when the buffer is full.
+         *
+         * @param size
+         * @return this
+         */
+        public Builder groupCommitBufferSize(int size) {
+            Preconditions.checkArgument(size > 0, "size must be > 0");
+            this.groupCommitBufferSize = size;
+            return this;
+        }
+
+        /**
+         * When enabled, signals to other entities raised by an on-entry
+         * procedure are persisted using the EntityManager of the entity
+         * being processed so they commit or roll back with the entity state
+         * change. After commit they are dispatched without any further
+         * database access. When disabled each such signal is persisted in
+         * its own transaction before the entity transaction commits.
+         * 
+         * @param enabled
+         * @return this
+         */
+        public Builder transactionalOutbox(boolean enabled) {
+            this.transactionalOutbox = enabled;
+            return this;
+        }
+
+        /**
+         * Sets how processed signals are removed from the queue. Defaults to
+         * {@link SignalAcknowledgerDelete}.
+         * 
+         * @param acknowledger
+         * @return this
+         */
+        public Builder signalAcknowledger(SignalAcknowledger acknowledger) {
+            Preconditions.checkNotNull(acknowledger);
+            this.signalAcknowledger = acknowledger;
+            return this;
+        }
+
+        /**
+         * Sets how often and in what batch size processed signals are deleted
+         * when the {@link SignalAcknowledger} in use requires compaction.
+         * 
+         * @param interval
+         * @param unit
+         * @param batchSize
+         *            maximum rows deleted per transaction
+         * @return this
+         */
+        public Builder compaction(long interval, TimeUnit unit, int batchSize) {
+            Preconditions.checkArgument(interval > 0, "interval must be > 0");
+            Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+            this.compactionIntervalMs = unit.toMillis(interval);
+            this.compactionBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Enables resident entity actors. Instead of being stopped once it
+         * has no signals to process an entity actor keeps its EntityManager
+         * open so the next signal to that entity does not create a new one.
+         * The persistence context is cleared after each transaction and the
+         * entity is found again in the next one, so changes made outside
+         * signal processing are seen and related entities are not retained.
+         * For an entity with a version column (xt:Versioned) a change
+         * committed between that load and the commit fails the transaction
+         * rather than being overwritten. Idle actors are stopped after
+         * {@code idleTtl} and the least recently used idle actors are stopped
+         * when there are more than {@code maxResidentActors}. The retained
+         * EntityManager is discarded if processing fails.
+         * 
+         * @param idleTtl
+         * @param unit
+         * @param maxResidentActors
+         * @return this
+         */
+        public Builder residentActors(long idleTtl, TimeUnit unit, int maxResidentActors) {
+            Preconditions.checkArgument(idleTtl > 0, "idleTtl must be > 0");
+            Preconditions.checkArgument(maxResidentActors > 0, "maxResidentActors must be > 0");
+            this.residentActors = true;
+            this.residentIdleTtlMs = unit.toMillis(idleTtl);
+            this.maxResidentActors = maxResidentActors;
+            return this;
+        }
+
+        /**
+         * Sets the number of RootActor shards that route signals to entity
+         * actors. Signals are assigned to a shard by a consistent hash of the
+         * entity unique id so there is still only one EntityActor per entity,
+         * but routing is no longer limited to the one thread running a single
+         * RootActor.
+         * 
+         * @param shards
+         * @return this
+         */
+        public Builder rootActorShards(int shards) {
+            Preconditions.checkArgument(shards > 0, "shards must be > 0");
+            this.rootActorShards = shards;
+            return this;
+        }
+
+        /**
+         * Sets the kind of executor that runs entity actors, overriding
+         * xuml-akka.conf.
+         * 
+         * @param type
+         * @return this
+         */
+        public Builder entityExecutorType(EntityExecutorType type) {
+            Preconditions.checkNotNull(type);
+            this.entityExecutorType = Optional.of(type);
+            return this;
+        }
+
+        /**
+         * When enabled the entity actor pool size is reduced to the maximum
+         * size of the JDBC connection pool, read from the properties of the
+         * EntityManagerFactory, so that entity actors do not block waiting
+         * for a connection.
+         * 
+         * @param enabled
+         * @return this
+         */
+        public Builder capEntityActorPoolSizeToJdbcPool(boolean enabled) {
+            this.capEntityActorPoolSizeToJdbcPool = enabled;
+            return this;
+        }
+
+        /**
+         * Sets how signals are dispatched to entities. Defaults to
+         * {@link SignalDispatcherType#AKKA}. The entity executor, root actor
+         * shard and resident actor options only apply to the Akka
+         * dispatcher.
+         * 
+         * @param type
+         * @return this
+         */
+        public Builder signalDispatcher(SignalDispatcherType type) {
+            Preconditions.checkNotNull(type);
+            this.signalDispatcherType = type;
+            return this;
+        }
+
+        /**
+         * Dispatches signals with {@link SignalDispatcherType#POLLING}.
+         * {@code workers} threads each claim up to {@code batchSize} due
+         * signals at a time from the queued signal table and process them,
+         * polling every {@code pollInterval} while there are none. Workers in
+         * other JVMs sharing the database take their share of the signals.
+         * Signals to one entity are processed by one worker at a time, in
+         * order. A claim older than {@code claimTimeout} is taken to be
+         * abandoned, so it must be longer than a batch takes to process, and
+         * a signal that fails is retried once its claim expires unless
+         * {@link #retry} is set.
+         * 
+         * @param workers
+         * @param batchSize
+         * @param pollInterval
+         * @param claimTimeout
+         * @param unit
+         * @return this
+         */
+        public Builder polling(int workers, int batchSize, long pollInterval, long claimTimeout,
+                TimeUnit unit) {
+            Preconditions.checkArgument(workers > 0, "workers must be > 0");
+            Preconditions.checkArgument(batchSize > 0, "batchSize must be > 0");
+            Preconditions.checkArgument(pollInterval > 0, "pollInterval must be > 0");
+            Preconditions.checkArgument(claimTimeout > 0, "claimTimeout must be > 0");
+            this.signalDispatcherType = SignalDispatcherType.POLLING;
+            this.pollingWorkers = workers;
+            this.pollingBatchSize = batchSize;
+            this.pollIntervalMs = unit.toMillis(pollInterval);
+            this.claimTimeoutMs = unit.toMillis(claimTimeout);
+            return this;
+        }
+
+        /**
+         * Retries a signal whose processing fails after a delay of
+         * {@code initialBackoff}, doubling with each further failure up to
+         * {@code maxBackoff}, by moving its queued signal to the later time.
+         * Once it has failed {@code maxAttempts} times it is moved to the
+         * {@link DeadLetterSignal} table, which must then be in the
+         * persistence unit, from where it can be replayed with
+         * {@link Signaller#replayDeadLetter(long)}. Requires
+         * {@link #transactionalOutbox}, otherwise the signals raised by each
+         * failed attempt would stay queued and be delivered. Without retry a
+         * failed signal stays queued until the next
+         * {@link Signaller#sendSignalsInQueue()}.
+         * 
+         * @param maxAttempts
+         * @param initialBackoff
+         * @param maxBackoff
+         * @param unit
+         * @return this
+         */
+        public Builder retry(int maxAttempts, long initialBackoff, long maxBackoff,
+                TimeUnit unit) {
+            Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be > 0");
+            Preconditions.checkArgument(initialBackoff > 0, "initialBackoff must be > 0");
+            Preconditions.checkArgument(maxBackoff >= initialBackoff,
+                    "maxBackoff must be >= initialBackoff");
+            this.maxAttempts = maxAttempts;
+            this.initialBackoffMs = unit.toMillis(initialBackoff);
+            this.maxBackoffMs = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Performs a signal again, up to {@code maxRetries} times, if its
+         * transaction fails with an
+         * {@link javax.persistence.OptimisticLockException} because its
+         * entity was updated concurrently, sleeping a random time of up to
+         * {@code maxJitter} times the number of the retry first. Only
+         * entities with a version column (the <code>xt:Versioned</code> class
+         * extension) detect concurrent updates. Requires
+         * {@link #transactionalOutbox}, otherwise the signals raised by each
+         * attempt that rolled back would stay queued and be delivered. Defaults
+         * to 3 retries with up to 50ms jitter with the transactional outbox and
+         * to none without, 0 retries disables it.
+         * 
+         * @param maxRetries
+         * @param maxJitter
+         * @param unit
+         * @return this
+         */
+        public Builder optimisticLockRetry(int maxRetries, long maxJitter, TimeUnit unit) {
+            this.optimisticLockRetry = Optional
+                    .of(new OptimisticLockRetry(maxRetries, unit.toMillis(maxJitter)));
+            return this;
+        }
+
+        private OptimisticLockRetry optimisticLockRetry() {
+            if (optimisticLockRetry.isPresent())
+                return optimisticLockRetry.get();
+            else if (transactionalOutbox)
+                return new OptimisticLockRetry(3, 50);
+            else
+                return OptimisticLockRetry.none();
+        }
+
+        /**
+         * Dispatches pending signals by the priority of their events (see
+         * {@link PrioritisedEvent}). Each root actor sends at most
+         * {@code maxDispatched} signals to entity actors at a time and holds
+         * the rest per entity, so that a flood of low priority signals can't
+         * queue ahead of high priority ones. As capacity frees up the entity
+         * holding the highest priority signal is served next. Signals to an
+         * entity are still processed in the order they were sent, so a high
+         * priority signal waits for the signals sent before it to the same
+         * entity. Only supported by {@link SignalDispatcherType#AKKA}.
+         * 
+         * @param maxDispatched
+         *            per root actor shard, a small multiple of the entity
+         *            actor pool size is enough to keep it busy
+         * @return this
+         */
+        public Builder priorityLanes(int maxDispatched) {
+            Preconditions.checkArgument(maxDispatched > 0, "maxDispatched must be > 0");
+            this.maxDispatchedSignals = maxDispatched;
+            return this;
+        }
+
+        /**
+         * Sets how far ahead delayed signals are held in memory. Signals due
+         * later are left in the database and paged in, {@code pageSize} rows
+         * at a time, as the horizon advances.
+         * 
+         * @param horizon
+         * @param unit
+         * @param pageSize
+         * @return this
+         */
+        public Builder scheduler(long horizon, TimeUnit unit, int pageSize) {
+            Preconditions.checkArgument(horizon > 0, "horizon must be > 0");
+            Preconditions.checkArgument(pageSize > 0, "pageSize must be > 0");
+            this.schedulerHorizonMs = unit.toMillis(horizon);
+            this.schedulerPageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Sets how {@link Signaller#sendSignalsInQueue()} recovers queued
+         * signals. Rows are read {@code pageSize} at a time and decoded by
+         * {@code decodeThreads} threads. Reading pauses while
+         * {@code maxInFlight} or more signals have been dispatched but not
+         * yet processed. If {@code overdueFirst} is true the signals with the
+         * earliest time are sent first.
+         * 
+         * @param pageSize
+         * @param decodeThreads
+         * @param maxInFlight
+         * @param overdueFirst
+         * @return this
+         */
+        public Builder recovery(int pageSize, int decodeThreads, long maxInFlight,
+                boolean overdueFirst) {
+            Preconditions.checkArgument(pageSize > 0, "pageSize must be > 0");
+            Preconditions.checkArgument(decodeThreads > 0, "decodeThreads must be > 0");
+            Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be > 0");
+            this.recoveryPageSize = pageSize;
+            this.recoveryDecodeThreads = decodeThreads;
+            this.recoveryMaxInFlight = maxInFlight;
+            this.recoveryOverdueFirst = overdueFirst;
+            return this;
+        }
+
+        /**
+         * Sets how queued signal ids are generated. Defaults to
+         * {@link SignalIdGeneratorRandom}. Use
+         * {@link SignalIdGeneratorTimeOrdered} for faster inserts and
+         * deletes on large queues.
+         * 
+         * @param generator
+         * @return this
+         */
+        public Builder signalIdGenerator(SignalIdGenerator generator) {
+            Preconditions.checkNotNull(generator);
+            this.signalIdGenerator = generator;
+            return this;
+        }
+
+        /**
+         * Sets how often {@link Signaller#approximateQueueSize()} replaces its
+         * estimate with an exact count of the queued signals.
+         * 
+         * @param interval
+         * @param unit
+         * @return this
+         */
+        public Builder queueSizeResetInterval(long interval, TimeUnit unit) {
+            Preconditions.checkArgument(interval > 0, "interval must be > 0");
+            this.queueSizeResetIntervalMs = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Enables batch processing. Signals waiting for the same entity are
+         * performed in order in one transaction, up to {@code maxSignals} at
+         * a time, and their queued signals acknowledged in that transaction.
+         * A transaction takes no more signals once it has been open for
+         * {@code maxTime}. If a batch fails it is rolled back and its signals
+         * performed again one per transaction so a failing signal only
+         * affects itself.
+         * 
+         * @param maxSignals
+         * @param maxTime
+         * @param unit
+         * @return this
+         */
+        public Builder batchProcessing(int maxSignals, long maxTime, TimeUnit unit) {
+            Preconditions.checkArgument(maxSignals > 0, "maxSignals must be > 0");
+            Preconditions.checkArgument(maxTime > 0, "maxTime must be > 0");
+            this.maxBatchSize = maxSignals;
+            this.maxBatchTimeMs = unit.toMillis(maxTime);
+            return this;
+        }
+
+        /**
+         * Bounds the number of signals in memory. A signal sent from outside
+         * an entity, for example by a web service, is only accepted while
+         * fewer than {@code maxInFlight} signals have been dispatched and not
+         * yet processed. Otherwise the caller blocks for up to
+         * {@code timeout} and then gets a {@link SignalOverloadException}.
+         * Signals raised by entities are always accepted so processing cannot
+         * stall. Use {@link Signaller#whenAcceptingSignals()} to wait without
+         * blocking.
+         * 
+         * @param maxInFlight
+         * @param timeout
+         * @param unit
+         * @return this
+         */
+        public Builder backpressure(long maxInFlight, long timeout, TimeUnit unit) {
+            Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be > 0");
+            Preconditions.checkArgument(timeout >= 0, "timeout must be >= 0");
+            this.maxInFlightSignals = maxInFlight;
+            this.backpressureTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * When enabled with {@link #backpressure}, a signal that would have
+         * to wait for capacity is persisted but not dispatched. It and every
+         * signal after it are dispatched from the database, in time order, as
+         * in flight signals drop below the limit, so callers never block and
+         * memory use stays bounded however large the backlog.
+         * 
+         * @param enabled
+         * @return this
+         */
+        public Builder overloadShedding(boolean enabled) {
+            this.overloadShedding = enabled;
+            return this;
+        }
+
+        /**
+         * Makes this signaller one node of a cluster sharing the database.
+         * Entities are assigned to {@code partitions} partitions by the hash
+         * of their unique id and each partition is leased by one node, which
+         * alone processes signals to its entities. Leases last
+         * {@code leaseDuration} and are renewed a few times in that period;
+         * partitions of a node that stops renewing are taken over by the
+         * others, which recover their queued signals. A signal dispatched on a
+         * node that does not own the entity is handed over through the
+         * database. Every node must use the same number of partitions and
+         * the node clocks must agree to well within the lease duration.
+         * Delivery is at least once: a signal in flight when its partition
+         * moves may be performed again by the new owner. {@link ClusterLease}
+         * must be listed in the persistence unit and the number of partitions
+         * only changed while the queue is empty.
+         * 
+         * @param nodeId
+         *            unique among the nodes
+         * @param partitions
+         * @param leaseDuration
+         * @param unit
+         * @return this
+         */
+        public Builder cluster(String nodeId, int partitions, long leaseDuration,
+                TimeUnit unit) {
+            Preconditions.checkNotNull(nodeId);
+            Preconditions.checkArgument(partitions > 0, "partitions must be > 0");
+            Preconditions.checkArgument(leaseDuration > 0, "leaseDuration must be > 0");
+            this.nodeId = Optional.of(nodeId);
+            this.partitions = partitions;
+            this.leaseDurationMs = unit.toMillis(leaseDuration);
+            return this;
+        }
+
+        /**
+         * Sets how often a cluster node looks for signals handed over to it by
+         * other nodes. Defaults to 100ms.
+         * 
+         * @param interval
+         * @param unit
+         * @return this
+         */
+        public Builder clusterPollInterval(long interval, TimeUnit unit) {
+            Preconditions.checkArgument(interval > 0, "interval must be > 0");
+            this.clusterPollIntervalMs = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Records queue latency, processing and commit time histograms per
+         * event class and the queue depth, in flight and active entity
+         * gauges into {@code metrics} using a {@link SignalListenerMetrics}
+         * in front of the configured {@link #listener}.
+         * 
+         * @param metrics
+         * @return this
+         */
+        public Builder metrics(SignalMetrics metrics) {
+            Preconditions.checkNotNull(metrics);
+            this.metrics = Optional.of(metrics);
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of every creation, processed signal and
+         * dispatch. It is shared by all entities so must be thread safe.
+         * 
+         * @param listener
+         * @return this
+         */
+        public Builder listener(SignalListener listener) {
+            Preconditions.checkNotNull(listener);
+            this.listener = listener;
+            return this;
+        }
+
+        public SignallerConfig build() {
+            Preconditions.checkState(!overloadShedding || maxInFlightSignals < Long.MAX_VALUE,
+                    "overload shedding requires backpressure");
+            Preconditions.checkState(!overloadShedding || !nodeId.isPresent(),
+                    "overload shedding is not supported when clustered");
+            Preconditions.checkState(
+                    !nodeId.isPresent() || signalDispatcherType != SignalDispatcherType.POLLING,
+                    "polling workers already share the queue between nodes so cannot be clustered");
+            Preconditions.checkState(!nodeId.isPresent() || leaseDurationMs >= 3,
+                    "leaseDuration must be at least 3ms");
+            Preconditions.checkState(transactionalOutbox || maxAttempts == 0,
+                    "retry requires the transactional outbox");
+            Preconditions.checkState(
+                    transactionalOutbox || optimisticLockRetry().getMaxRetries() == 0,
+                    "optimistic lock retry requires the transactional outbox");
+            Preconditions.checkState(
+                    maxDispatchedSignals == 0 || signalDispatcherType == SignalDispatcherType.AKKA,
+                    "priority lanes are only supported by the akka signal dispatcher");
+            return new SignallerConfig(this);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Resolves the classes named in {@link QueuedSignal} rows and constructs
+ * entities without reflection. The generated Context registers the entity,
+ * event and embedded id classes of its domain and a constructor reference for
+ * each entity. Classes that were not registered are looked up with
+ * {@link Class#forName(String)} once and then cached. Both are keyed by class
+ * name so that a redeployed domain registering its classes again replaces
+ * those of the previous deployment rather than keeping them reachable.
+ */
+public final class TypeRegistry {
+
+    private static final ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+    private static final ConcurrentHashMap<String, Supplier<?>> constructors = new ConcurrentHashMap<String, Supplier<?>>();
+
+    private TypeRegistry() {
+        // prevent instantiation
+    }
+
+    public static void registerClass(Class<?> cls) {
+        Preconditions.checkNotNull(cls);
+        classes.put(cls.getName(), cls);
+    }
+
+    public static <T> void registerEntity(Class<T> cls, Supplier<T> constructor) {
+        Preconditions.checkNotNull(constructor);
+        registerClass(cls);
+        constructors.put(cls.getName(), constructor);
+    }
+
+    /**
+     * Returns the class with the given binary name (as returned by
+     * {@link Class#getName()}).
+     * 
+     * @param className
+     * @return class
+     * @throws RuntimeException
+     *             if the class cannot be found
+     */
+    public static Class<?> classForName(String className) {
+        Class<?> cls = classes.get(className);
+        if (cls != null)
+            return cls;
+        try {
+            cls = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        classes.putIfAbsent(className, cls);
+        return cls;
+    }
+
+    /**
+     * Returns a new instance of {@code cls} using its registered constructor
+     * or, if none is registered for this class (rather than another class of
+     * the same name), its no-arg constructor.
+     * 
+     * @param cls
+     * @return new instance
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T newInstance(Class<T> cls) {
+        Supplier<?> constructor = constructors.get(cls.getName());
+        if (constructor != null && classes.get(cls.getName()) == cls)
+            return (T) constructor.get();
+        try {
+            return cls.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
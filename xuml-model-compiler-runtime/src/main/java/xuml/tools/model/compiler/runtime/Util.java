@@ -1,69 +1,166 @@
 package xuml.tools.model.compiler.runtime;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.Kryo.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.kryo.pool.KryoFactory;
-import com.esotericsoftware.kryo.pool.KryoPool;
 
 public class Util {
 
-    private static final KryoPool pool = createKryoPool();
+    private static final byte[] EMPTY = new byte[] {};
+
+    // buffers larger than this are not kept for reuse
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    // Kryo instances beyond this are dropped on release rather than pooled,
+    // more than one per thread serializing at once is never needed
+    private static final int MAX_POOLED_KRYO = Runtime.getRuntime().availableProcessors() * 4;
+
+    private static final Queue<PooledKryo> pool = new ConcurrentLinkedQueue<PooledKryo>();
+
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
 
     public static byte[] toBytes(Object object) {
         if (object == null)
-            return new byte[] {};
-        Kryo kryo = pool.borrow();
+            return EMPTY;
+        PooledKryo kryo = borrow();
+        Buffers b = buffers.get();
         try {
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-            Output output = new Output(bytes);
-            try {
-                kryo.writeObject(output, object);
-            } finally {
-                output.close();
-            }
-            return bytes.toByteArray();
+            b.output.clear();
+            kryo.kryo.writeObject(b.output, object);
+            return b.output.toBytes();
         } finally {
-            pool.release(kryo);
+            b.releaseOutput();
+            release(kryo);
         }
     }
 
     public static <T> T toObject(byte[] bytes, Class<T> cls) {
         if (bytes.length == 0)
             return null;
-        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-        Kryo kryo = pool.borrow();
+        PooledKryo kryo = borrow();
+        Buffers b = buffers.get();
+        try {
+            // reads from the array without copying it
+            b.input.setBuffer(bytes);
+            return kryo.kryo.readObject(b.input, cls);
+        } finally {
+            b.input.setBuffer(EMPTY);
+            release(kryo);
+        }
+    }
+
+    /**
+     * Writes the object into {@code buffer}, which may be direct, starting at
+     * its position. The position is advanced past the bytes written.
+     * 
+     * @param object
+     * @param buffer
+     * @return number of bytes written
+     * @throws com.esotericsoftware.kryo.KryoException
+     *             if the buffer has insufficient space remaining
+     */
+    public static int toBytes(Object object, ByteBuffer buffer) {
+        if (object == null)
+            return 0;
+        PooledKryo kryo = borrow();
+        Buffers b = buffers.get();
+        int start = buffer.position();
+        try {
+            b.byteBufferOutput.setBuffer(buffer, buffer.capacity());
+            kryo.kryo.writeObject(b.byteBufferOutput, object);
+            b.byteBufferOutput.flush();
+            return buffer.position() - start;
+        } finally {
+            b.byteBufferOutput.setBuffer(b.emptyByteBuffer, 0);
+            release(kryo);
+        }
+    }
+
+    /**
+     * Reads an object written by {@link #toBytes(Object, ByteBuffer)} from
+     * {@code buffer}, which may be direct, starting at its position. The
+     * position is advanced past the bytes read.
+     * 
+     * @param buffer
+     * @param cls
+     * @return object, null if the buffer has no bytes remaining
+     */
+    public static <T> T toObject(ByteBuffer buffer, Class<T> cls) {
+        if (!buffer.hasRemaining())
+            return null;
+        PooledKryo kryo = borrow();
+        Buffers b = buffers.get();
         try {
-            Input input = new Input(in);
-            try {
-                return kryo.readObject(input, cls);
-            } finally {
-                input.close();
-            }
+            b.byteBufferInput.setBuffer(buffer);
+            return kryo.kryo.readObject(b.byteBufferInput, cls);
         } finally {
-            pool.release(kryo);
+            b.byteBufferInput.setBuffer(b.emptyByteBuffer);
+            release(kryo);
+        }
+    }
+
+    private static PooledKryo borrow() {
+        PooledKryo kryo = pool.poll();
+        if (kryo != null)
+            pooled.decrementAndGet();
+        // Kryo caches class lookups so an instance that has been used is
+        // replaced rather than updated when registrations have changed
+        if (kryo == null || kryo.entries != KryoRegistry.entries())
+            kryo = new PooledKryo();
+        return kryo;
+    }
+
+    private static void release(PooledKryo kryo) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_KRYO)
+            pool.offer(kryo);
+        else
+            pooled.decrementAndGet();
+    }
+
+    private static final class PooledKryo {
+        final Kryo kryo;
+        // the KryoRegistry entries registered with kryo
+        final List<KryoRegistry.Entry> entries;
+
+        PooledKryo() {
+            kryo = new Kryo();
+            kryo.setInstantiatorStrategy(
+                    new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+            entries = KryoRegistry.entries();
+            for (KryoRegistry.Entry entry : entries)
+                kryo.register(entry.cls, entry.id);
         }
     }
 
-    private static KryoPool createKryoPool() {
-        KryoFactory factory = new KryoFactory() {
-            @Override
-            public Kryo create() {
-                Kryo kryo = new Kryo();
-                kryo.setInstantiatorStrategy(
-                        new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
-                // configure kryo instance, customize settings
-                return kryo;
-            }
-        };
-        // Build pool with SoftReferences enabled (optional)
-        return new KryoPool.Builder(factory).softReferences().build();
+    private static final class Buffers {
+        final ByteBuffer emptyByteBuffer = ByteBuffer.allocate(0);
+        Output output = new Output(1024, -1);
+        final Input input = new Input(EMPTY);
+        final ByteBufferOutput byteBufferOutput = new ByteBufferOutput(emptyByteBuffer, 0);
+        final ByteBufferInput byteBufferInput = new ByteBufferInput(emptyByteBuffer);
+
+        void releaseOutput() {
+            if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE)
+                output = new Output(1024, -1);
+        }
     }
 
 }
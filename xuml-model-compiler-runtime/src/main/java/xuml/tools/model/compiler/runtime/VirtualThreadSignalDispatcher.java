@@ -0,0 +1,190 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Keeps a serial mailbox per entity unique id. A mailbox exists only while it
+ * has signals to process and is drained by a single task on a virtual thread,
+ * so a blocked JDBC call parks only that entity rather than a carrier thread.
+ * Before Java 21 a cached thread pool is used instead.
+ * 
+ * <p>
+ * Concurrency is not bounded here, entities wait for a connection from the
+ * JDBC pool instead. Resident entities are not supported, the entity is
+ * released when its mailbox empties. {@link SignalProcessorListener}s are
+ * called with a null actor.
+ */
+public final class VirtualThreadSignalDispatcher implements SignalDispatcher {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(VirtualThreadSignalDispatcher.class);
+
+    private final EntityManagerFactory emf;
+    private final SignalProcessorListenerFactory listenerFactory;
+    private final SignalListener signalListener;
+    private final SignalAcknowledger acknowledger;
+    private final SignalFailureHandler failureHandler;
+    private final OptimisticLockRetry optimisticLockRetry;
+    private final InFlightSignals inFlight;
+    private final int maxBatchSize;
+    private final long maxBatchTimeMs;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+    private volatile boolean stopped;
+
+    public VirtualThreadSignalDispatcher(EntityManagerFactory emf,
+            SignalProcessorListenerFactory listenerFactory, SignalListener signalListener,
+            SignalAcknowledger acknowledger, SignalFailureHandler failureHandler,
+            OptimisticLockRetry optimisticLockRetry, InFlightSignals inFlight, int maxBatchSize,
+            long maxBatchTimeMs) {
+        this.emf = emf;
+        this.listenerFactory = listenerFactory;
+        this.signalListener = signalListener;
+        this.acknowledger = acknowledger;
+        this.failureHandler = failureHandler;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.inFlight = inFlight;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchTimeMs = maxBatchTimeMs;
+        Optional<ExecutorService> virtual = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        if (virtual.isPresent())
+            this.executor = virtual.get();
+        else {
+            log.warn("virtual threads not available in this JVM, using cached thread pool");
+            this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("xuml-entity-%d").setDaemon(true).build());
+        }
+    }
+
+    @Override
+    public void dispatch(final Signal<?> signal) {
+        if (stopped)
+            throw new RejectedExecutionException("dispatcher has been stopped");
+        inFlight.increment();
+        String key = signal.getEntityUniqueId();
+        final Mailbox[] created = new Mailbox[1];
+        // the offer happens in compute so it cannot interleave with the
+        // removal of an empty mailbox by its drainer
+        mailboxes.compute(key, (k, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox(k);
+                created[0] = mailbox;
+            }
+            mailbox.queue.offer(signal);
+            return mailbox;
+        });
+        if (created[0] != null)
+            try {
+                executor.execute(created[0]);
+            } catch (RejectedExecutionException e) {
+                // stopped concurrently, the mailbox will never be drained so
+                // forget it and its signals (they are still queued in the
+                // database)
+                if (mailboxes.remove(key, created[0]))
+                    inFlight.decrement(created[0].queue.size());
+                throw e;
+            }
+    }
+
+    @Override
+    public long activeEntities() {
+        return mailboxes.size();
+    }
+
+    @Override
+    public boolean stop() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(30, TimeUnit.SECONDS))
+                return true;
+            log.warn("entity mailboxes did not drain within 30s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private SignalProcessorListener createListener(String entityUniqueId) {
+        if (listenerFactory == null)
+            return SignalProcessorListenerDoesNothing.getInstance();
+        else
+            return listenerFactory.create(entityUniqueId);
+    }
+
+    private final class Mailbox implements Runnable {
+
+        private final String entityUniqueId;
+        private final Queue<Signal<?>> queue = new ConcurrentLinkedQueue<Signal<?>>();
+
+        Mailbox(String entityUniqueId) {
+            this.entityUniqueId = entityUniqueId;
+        }
+
+        @Override
+        public void run() {
+            SignalProcessor processor = new SignalProcessor(emf, createListener(entityUniqueId),
+                    signalListener, acknowledger, failureHandler, optimisticLockRetry, false,
+                    Optional.<ResidentActorMetrics> absent(), inFlight, null);
+            List<Signal<?>> signals = Lists.newArrayList();
+            do {
+                Signal<?> signal;
+                while ((signal = queue.poll()) != null)
+                    signals.add(signal);
+                List<Merged> coalesced = SignalCoalescer.coalesce(signals);
+                if (maxBatchSize > 1)
+                    try {
+                        processor.process(coalesced, maxBatchSize, maxBatchTimeMs);
+                    } catch (RuntimeException e) {
+                        // the listener rethrew, the rest of this drain is
+                        // replayed on restart
+                        log.error(e.getMessage(), e);
+                    }
+                else
+                    for (Merged merged : coalesced) {
+                        try {
+                            processor.process(merged.getSignal(), merged.getReplaced());
+                        } catch (RuntimeException e) {
+                            // the listener rethrew, carry on with the next
+                            // signal
+                            log.error(e.getMessage(), e);
+                        }
+                    }
+                signals.clear();
+                processor.flushAcknowledgements();
+            } while (!removeIfEmpty());
+        }
+
+        private boolean removeIfEmpty() {
+            final boolean[] removed = new boolean[1];
+            mailboxes.computeIfPresent(entityUniqueId, (k, mailbox) -> {
+                if (mailbox.queue.isEmpty()) {
+                    removed[0] = true;
+                    return null;
+                } else
+                    return mailbox;
+            });
+            return removed[0];
+        }
+    }
+
+}
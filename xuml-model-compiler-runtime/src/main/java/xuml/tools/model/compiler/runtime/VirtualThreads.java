@@ -0,0 +1,35 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Optional;
+
+/**
+ * Access to virtual threads without requiring Java 21 to compile or run.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread or absent
+     * if the JVM does not support virtual threads.
+     * 
+     * @return virtual thread per task executor
+     */
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService) method.invoke(null));
+        } catch (NoSuchMethodException e) {
+            return Optional.absent();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package xuml.tools.model.compiler.runtime.actor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import xuml.tools.model.compiler.runtime.InFlightSignals;
+import xuml.tools.model.compiler.runtime.ResidentActorMetrics;
+import xuml.tools.model.compiler.runtime.SignalAcknowledger;
+import xuml.tools.model.compiler.runtime.SignalFailureHandler;
+import xuml.tools.model.compiler.runtime.SignalDispatcher;
+import xuml.tools.model.compiler.runtime.SignalListener;
+import xuml.tools.model.compiler.runtime.SignalProcessorListenerFactory;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+import xuml.tools.model.compiler.runtime.message.ActorConfig;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Dispatches signals through one or more {@link RootActor} shards to an
+ * {@link EntityActor} per entity.
+ */
+public final class AkkaSignalDispatcher implements SignalDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(AkkaSignalDispatcher.class);
+
+    /**
+     * Properties that JPA providers and connection pools use for the maximum
+     * JDBC connection pool size, in order of precedence.
+     */
+    private static final List<String> JDBC_POOL_SIZE_PROPERTIES = ImmutableList.of(
+            "hibernate.hikari.maximumPoolSize", "hibernate.c3p0.max_size",
+            "hibernate.connection.pool_size");
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private static final HashFunction shardHash = Hashing.murmur3_32();
+
+    private final ActorSystem actorSystem;
+    private final List<ActorRef> roots;
+    private final InFlightSignals inFlight;
+    private final AtomicLong activeEntityActors = new AtomicLong();
+
+    public AkkaSignalDispatcher(EntityManagerFactory emf, SignallerConfig config,
+            SignalProcessorListenerFactory listenerFactory, SignalListener signalListener,
+            SignalAcknowledger acknowledger, SignalFailureHandler failureHandler,
+            Optional<ResidentActorMetrics> residentActorMetrics, InFlightSignals inFlight) {
+        this.inFlight = inFlight;
+        int poolSize = entityActorPoolSize(emf, config);
+        this.actorSystem = createActorSystem(config, poolSize);
+        this.roots = createRoots(config.getRootActorShards(), config.isPriorityLanes());
+        log.debug("Akka system settings:\n{}", actorSystem.settings());
+        ActorConfig actorConfig = new ActorConfig(poolSize, config.isResidentActors(),
+                config.getResidentIdleTtlMs(), maxResidentActorsPerShard(config),
+                residentActorMetrics, inFlight, config.getMaxBatchSize(),
+                config.getMaxBatchTimeMs(), activeEntityActors, signalListener, failureHandler,
+                config.getOptimisticLockRetry(), config.getMaxDispatchedSignals());
+        for (ActorRef root : roots) {
+            root.tell(actorConfig, root);
+            root.tell(emf, root);
+            if (listenerFactory != null)
+                root.tell(listenerFactory, root);
+            root.tell(acknowledger, root);
+        }
+    }
+
+    private static ActorSystem createActorSystem(SignallerConfig config, int poolSize) {
+        Map<String, Object> overrides = Maps.newHashMap();
+        overrides.put("akka.entity-dispatcher.entity-executor.pool-size", poolSize);
+        if (config.getEntityExecutorType().isPresent())
+            overrides.put("akka.entity-dispatcher.entity-executor.type",
+                    config.getEntityExecutorType().get().configValue());
+        return ActorSystem.create("xuml-tools",
+                ConfigFactory.parseMap(overrides).withFallback(ConfigFactory.load("xuml-akka"))
+                        .withFallback(ConfigFactory.load()));
+    }
+
+    private static int entityActorPoolSize(EntityManagerFactory emf, SignallerConfig config) {
+        int poolSize = config.getEntityActorPoolSize();
+        if (config.isCapEntityActorPoolSizeToJdbcPool()) {
+            Optional<Integer> jdbcPoolSize = jdbcPoolSize(emf.getProperties());
+            if (jdbcPoolSize.isPresent() && jdbcPoolSize.get() < poolSize) {
+                log.info("capping entity actor pool size {} to JDBC pool size {}", poolSize,
+                        jdbcPoolSize.get());
+                poolSize = jdbcPoolSize.get();
+            } else if (!jdbcPoolSize.isPresent())
+                log.warn("JDBC pool size not found in properties {}", JDBC_POOL_SIZE_PROPERTIES);
+        }
+        return poolSize;
+    }
+
+    private static Optional<Integer> jdbcPoolSize(Map<String, Object> properties) {
+        for (String name : JDBC_POOL_SIZE_PROPERTIES) {
+            Object value = properties.get(name);
+            if (value != null) {
+                int size = Integer.parseInt(value.toString().trim());
+                if (size > 0)
+                    return Optional.of(size);
+            }
+        }
+        return Optional.absent();
+    }
+
+    private static int maxResidentActorsPerShard(SignallerConfig config) {
+        int shards = config.getRootActorShards();
+        return (config.getMaxResidentActors() + shards - 1) / shards;
+    }
+
+    private List<ActorRef> createRoots(int shards, boolean priorityLanes) {
+        Props props = Props.create(RootActor.class);
+        if (priorityLanes)
+            props = props.withMailbox(RootActor.PRIORITY_MAILBOX);
+        if (shards == 1)
+            return ImmutableList.of(actorSystem.actorOf(props, "root"));
+        ImmutableList.Builder<ActorRef> builder = ImmutableList.builder();
+        for (int i = 0; i < shards; i++)
+            builder.add(actorSystem.actorOf(props, "root-" + i));
+        return builder.build();
+    }
+
+    /**
+     * Returns the RootActor shard responsible for the given entity. Every
+     * signal to an entity goes through the same shard so that shard alone
+     * decides which EntityActor processes it.
+     * 
+     * @param entityUniqueId
+     * @return root actor shard
+     */
+    private ActorRef root(String entityUniqueId) {
+        if (roots.size() == 1)
+            return roots.get(0);
+        int shard = Hashing.consistentHash(shardHash.hashString(entityUniqueId, Charsets.UTF_8),
+                roots.size());
+        return roots.get(shard);
+    }
+
+    @Override
+    public void dispatch(Signal<?> signal) {
+        inFlight.increment();
+        ActorRef root = root(signal.getEntityUniqueId());
+        root.tell(signal, root);
+    }
+
+    @Override
+    public long activeEntities() {
+        return activeEntityActors.get();
+    }
+
+    @Override
+    public boolean stop() {
+        actorSystem.shutdown();
+        // an actor stops once the message it is processing has committed
+        try {
+            Await.ready(actorSystem.whenTerminated(),
+                    Duration.create(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return true;
+        } catch (TimeoutException e) {
+            log.warn("entity actors did not stop within {}s", STOP_TIMEOUT_SECONDS);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
@@ -1,17 +1,27 @@
 package xuml.tools.model.compiler.runtime.actor;
 
-import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.List;
+
 import javax.persistence.EntityManagerFactory;
-import javax.persistence.EntityTransaction;
 
+import com.google.common.collect.Lists;
+
+import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import xuml.tools.model.compiler.runtime.Entity;
-import xuml.tools.model.compiler.runtime.QueuedSignal;
+import xuml.tools.model.compiler.runtime.SignalAcknowledger;
+import xuml.tools.model.compiler.runtime.SignalAcknowledgerDelete;
+import xuml.tools.model.compiler.runtime.SignalCoalescer;
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.SignalProcessor;
 import xuml.tools.model.compiler.runtime.SignalProcessorListener;
 import xuml.tools.model.compiler.runtime.SignalProcessorListenerDoesNothing;
+import xuml.tools.model.compiler.runtime.message.ActorConfig;
 import xuml.tools.model.compiler.runtime.message.CloseEntityActor;
+import xuml.tools.model.compiler.runtime.message.FlushAcknowledgements;
+import xuml.tools.model.compiler.runtime.message.ProcessPendingSignals;
 import xuml.tools.model.compiler.runtime.message.Signal;
 import xuml.tools.model.compiler.runtime.message.StopEntityActor;
 
@@ -20,6 +30,15 @@ public class EntityActor extends UntypedActor {
     private EntityManagerFactory emf;
     private final LoggingAdapter log;
     private SignalProcessorListener listener = SignalProcessorListenerDoesNothing.getInstance();
+    private SignalAcknowledger acknowledger = new SignalAcknowledgerDelete();
+    private ActorConfig config = new ActorConfig(1);
+    // created when the first signal arrives, after the configuration messages
+    private SignalProcessor processor;
+    private boolean flushScheduled;
+    // signals held so that consecutive mergeable signals can be coalesced
+    // and, if batch processing, performed in one transaction
+    private final List<Signal<?>> pending = Lists.newArrayList();
+    private boolean processPendingScheduled;
 
     public EntityActor() {
         log = Logging.getLogger(getContext().system(), this);
@@ -32,77 +51,93 @@ public class EntityActor extends UntypedActor {
             handleMessage((EntityManagerFactory) message);
         else if (message instanceof SignalProcessorListener)
             listener = (SignalProcessorListener) message;
+        else if (message instanceof SignalAcknowledger)
+            acknowledger = (SignalAcknowledger) message;
+        else if (message instanceof ActorConfig)
+            config = (ActorConfig) message;
         else if (message instanceof Signal) {
             handleMessage((Signal<?>) message);
+        } else if (message instanceof ProcessPendingSignals) {
+            processPendingScheduled = false;
+            processPending();
+        } else if (message instanceof FlushAcknowledgements) {
+            flushScheduled = false;
+            if (processor != null)
+                processor.flushAcknowledgements();
         } else if (message instanceof StopEntityActor) {
             getContext().stop(getSelf());
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void handleMessage(@SuppressWarnings("rawtypes") Signal signal) {
+    @Override
+    public void postStop() {
+        if (processor != null)
+            processor.close();
+    }
+
+    private void handleMessage(Signal<?> signal) {
+        if (pending.isEmpty() && !SignalCoalescer.isMergeable(signal)
+                && config.getMaxBatchSize() == 1)
+            process(signal, Collections.<Signal<?>> emptyList());
+        else {
+            pending.add(signal);
+            if (!processPendingScheduled) {
+                // arrives after the signals already in the mailbox so they
+                // can be merged with this one
+                getSelf().tell(ProcessPendingSignals.instance(), getSelf());
+                processPendingScheduled = true;
+            }
+        }
+    }
+
+    private void processPending() {
+        List<Signal<?>> signals = Lists.newArrayList(pending);
+        pending.clear();
+        List<Merged> coalesced = SignalCoalescer.coalesce(signals);
+        if (config.getMaxBatchSize() > 1)
+            process(coalesced);
+        else
+            for (Merged merged : coalesced)
+                process(Collections.singletonList(merged));
+    }
+
+    private void process(Signal<?> signal, List<Signal<?>> replaced) {
+        process(Collections.singletonList(new Merged(signal, replaced)));
+    }
+
+    private void process(List<Merged> signals) {
         if (emf != null) {
-            // perform the event on the entity after it has been
-            // loaded by a new EntityManager
-            EntityManager em = null;
-            EntityTransaction tx = null;
-            Entity<?> entity = null;
+            if (processor == null)
+                processor = new SignalProcessor(emf, listener, config.getSignalListener(),
+                        acknowledger, config.getFailureHandler(),
+                        config.getOptimisticLockRetry(), config.isResidentActors(),
+                        config.getResidentActorMetrics(), config.getInFlightSignals(), this);
             try {
-                listener.beforeProcessing(signal, this);
-                em = emf.createEntityManager();
-                tx = em.getTransaction();
-                tx.begin();
-                log.debug("started transaction");
-                entity = (Entity<?>) em.find(signal.getEntityClass(), signal.getEntityId());
-                log.debug("calling event {} on entity id = ",
-                        signal.getEvent().getClass().getSimpleName(), signal.getEntityId());
-                entity.helper().setEntityManager(em);
-                entity.event(signal.getEvent());
-                log.debug("removing signal from persistence signalId={}, entityId={}",
-                        signal.getId(), signal.getEntityId());
-                int countDeleted = em
-                        .createQuery("delete from " + QueuedSignal.class.getSimpleName()
-                                + " where id=:id")
-                        .setParameter("id", signal.getId()).executeUpdate();
-                if (countDeleted == 0) {
-                    throw new RuntimeException("queued signal not deleted: " + signal.getId());
+                if (signals.size() == 1)
+                    processor.process(signals.get(0).getSignal(), signals.get(0).getReplaced());
+                else
+                    processor.process(signals, config.getMaxBatchSize(),
+                            config.getMaxBatchTimeMs());
+                if (processor.hasPendingAcknowledgements() && !flushScheduled) {
+                    // arrives after the signals already in the mailbox so they
+                    // are acknowledged together
+                    getSelf().tell(FlushAcknowledgements.instance(), getSelf());
+                    flushScheduled = true;
                 }
-                tx.commit();
-                log.debug("committed");
-                listener.afterProcessing(signal, this);
-                em.close();
-                entity.helper().setEntityManager(null);
-                // only after successful commit do we send the signals to other
-                // entities made during onEntry procedure.
-                entity.helper().sendQueuedSignals();
-            } catch (RuntimeException e) {
-                handleException(signal, em, tx, e);
             } finally {
-                // in case this entity is reused make sure its entity manager is
-                // cleared
-                if (entity != null) {
-                    entity.helper().setEntityManager(null);
+                // give RootActor a chance to dispose of this actor, it counts
+                // every signal sent including those replaced
+                ActorRef root = getContext().parent();
+                for (Merged merged : signals) {
+                    root.tell(new CloseEntityActor(merged.getSignal().getEntityUniqueId()),
+                            getSelf());
+                    for (Signal<?> r : merged.getReplaced())
+                        root.tell(new CloseEntityActor(r.getEntityUniqueId()), getSelf());
                 }
-                // give RootActor a chance to dispose of this actor
-                getSender().tell(new CloseEntityActor(signal.getEntityUniqueId()), getSelf());
             }
-        }
-    }
-
-    private void handleException(@SuppressWarnings("rawtypes") Signal signal, EntityManager em,
-            EntityTransaction tx, RuntimeException e) {
-        try {
-            if (tx != null && tx.isActive()) {
-                tx.rollback();
-            }
-            if (em != null && em.isOpen()) {
-                em.close();
-            }
-            listener.failure(signal, e, this);
-        } catch (RuntimeException e2) {
-            log.error(e2.getMessage(), e2);
-            throw e;
-        }
+        } else
+            for (Merged merged : signals)
+                config.getInFlightSignals().decrement(1 + merged.getReplaced().size());
     }
 
     private void handleMessage(EntityManagerFactory message) {
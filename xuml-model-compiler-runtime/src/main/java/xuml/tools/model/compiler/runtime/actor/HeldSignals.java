@@ -0,0 +1,116 @@
+package xuml.tools.model.compiler.runtime.actor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.TreeMultiset;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Signals held by {@link RootActor} while the maximum number of signals are
+ * dispatched (see
+ * {@link xuml.tools.model.compiler.runtime.SignallerConfig.Builder#priorityLanes(int)}).
+ * Signals to an entity are kept in the order they arrived. Priority only
+ * decides which entity is served next: the one holding the highest priority
+ * signal, and of those the one whose first held signal arrived first. A high
+ * priority signal behind lower priority ones to the same entity raises the
+ * priority of all of them rather than overtaking them.
+ */
+final class HeldSignals {
+
+    private final Map<String, EntityQueue> queues = Maps.newHashMap();
+    // entities with held signals, next to serve first
+    private final TreeSet<EntityQueue> order = new TreeSet<EntityQueue>();
+    private long sequence;
+
+    /**
+     * Returns true if signals to the entity are held, in which case later
+     * signals to it must be held too.
+     *
+     * @param entityUniqueId
+     * @return true if signals to the entity are held
+     */
+    boolean contains(String entityUniqueId) {
+        return queues.containsKey(entityUniqueId);
+    }
+
+    boolean isEmpty() {
+        return queues.isEmpty();
+    }
+
+    void add(Signal<?> signal) {
+        String key = signal.getEntityUniqueId();
+        EntityQueue queue = queues.get(key);
+        if (queue == null) {
+            queue = new EntityQueue(key);
+            queues.put(key, queue);
+        } else
+            // reinserted below because its position may change
+            order.remove(queue);
+        queue.add(signal, sequence++);
+        order.add(queue);
+    }
+
+    /**
+     * Removes and returns the first held signal of the entity to serve next.
+     *
+     * @return signal
+     */
+    Signal<?> poll() {
+        EntityQueue queue = order.pollFirst();
+        Signal<?> signal = queue.poll();
+        if (queue.isEmpty())
+            queues.remove(queue.entityUniqueId);
+        else
+            order.add(queue);
+        return signal;
+    }
+
+    private static final class EntityQueue implements Comparable<EntityQueue> {
+
+        final String entityUniqueId;
+        private final Deque<Signal<?>> signals = new ArrayDeque<Signal<?>>();
+        private final Deque<Long> sequences = new ArrayDeque<Long>();
+        private final TreeMultiset<Integer> priorities = TreeMultiset.create();
+
+        EntityQueue(String entityUniqueId) {
+            this.entityUniqueId = entityUniqueId;
+        }
+
+        void add(Signal<?> signal, long sequence) {
+            signals.add(signal);
+            sequences.add(sequence);
+            priorities.add(signal.getPriority());
+        }
+
+        Signal<?> poll() {
+            Signal<?> signal = signals.poll();
+            sequences.poll();
+            priorities.remove(signal.getPriority());
+            return signal;
+        }
+
+        boolean isEmpty() {
+            return signals.isEmpty();
+        }
+
+        private int priority() {
+            return priorities.lastEntry().getElement();
+        }
+
+        @Override
+        public int compareTo(EntityQueue o) {
+            int c = Integer.compare(o.priority(), priority());
+            if (c != 0)
+                return c;
+            else
+                // unique so queues are never equal
+                return Long.compare(sequences.peek(), o.sequences.peek());
+        }
+    }
+
+}
@@ -1,28 +1,49 @@
 package xuml.tools.model.compiler.runtime.actor;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManagerFactory;
 
-import com.google.common.collect.Maps;
+import com.google.common.base.Optional;
 
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import xuml.tools.model.compiler.runtime.ResidentActorMetrics;
+import xuml.tools.model.compiler.runtime.SignalAcknowledger;
 import xuml.tools.model.compiler.runtime.SignalProcessorListenerFactory;
 import xuml.tools.model.compiler.runtime.message.ActorConfig;
 import xuml.tools.model.compiler.runtime.message.CloseEntityActor;
+import xuml.tools.model.compiler.runtime.message.EvictIdleEntityActors;
 import xuml.tools.model.compiler.runtime.message.Signal;
 import xuml.tools.model.compiler.runtime.message.StopEntityActor;
 
 public class RootActor extends UntypedActor {
 
+    static final String PRIORITY_MAILBOX = "akka.signal-priority-mailbox";
+
     private EntityManagerFactory emf;
-    private final HashMap<String, ActorInfo> actors = Maps.newHashMap();
+    // access ordered so that iteration starts at the least recently used
+    private final LinkedHashMap<String, ActorInfo> actors = new LinkedHashMap<String, ActorInfo>(
+            16, 0.75f, true);
     private final LoggingAdapter log;
     private SignalProcessorListenerFactory listenerFactory;
+    private SignalAcknowledger acknowledger;
+    private ActorConfig config = new ActorConfig(1);
+    private Optional<Cancellable> evictionSchedule = Optional.absent();
+    // signals sent to entity actors that have not closed yet
+    private long dispatched;
+    // with priority lanes, signals waiting for dispatched to drop below the
+    // maximum
+    private final HeldSignals held = new HeldSignals();
 
     public RootActor() {
         log = Logging.getLogger(getContext().system(), this);
@@ -37,34 +58,105 @@ public class RootActor extends UntypedActor {
             handleMessage((EntityManagerFactory) message);
         else if (message instanceof SignalProcessorListenerFactory)
             listenerFactory = (SignalProcessorListenerFactory) message;
+        else if (message instanceof SignalAcknowledger)
+            acknowledger = (SignalAcknowledger) message;
         else if (message instanceof Signal)
             handleMessage((Signal<?>) message);
         else if (message instanceof CloseEntityActor)
             handleMessage((CloseEntityActor) message);
+        else if (message instanceof EvictIdleEntityActors)
+            evictIdleActors();
+    }
+
+    @Override
+    public void postStop() {
+        if (evictionSchedule.isPresent())
+            evictionSchedule.get().cancel();
     }
 
     private void handleMessage(ActorConfig message) {
+        config = message;
+        if (config.isResidentActors() && !evictionSchedule.isPresent()) {
+            long intervalMs = Math.max(1, config.getResidentIdleTtlMs() / 2);
+            FiniteDuration interval = Duration.create(intervalMs, TimeUnit.MILLISECONDS);
+            evictionSchedule = Optional.of(getContext().system().scheduler().schedule(interval,
+                    interval, getSelf(), EvictIdleEntityActors.instance(),
+                    getContext().dispatcher(), getSelf()));
+        }
     }
 
     private void handleMessage(CloseEntityActor message) {
+        dispatched--;
         String key = message.getEntityUniqueId();
         ActorInfo info = actors.remove(key);
         if (info.counter > 1) {
             actors.put(key, info.decrement());
+        } else if (config.isResidentActors()) {
+            // keep the actor and its entity for the next signal
+            actors.put(key, info.decrement());
+            evictLeastRecentlyUsed();
         } else {
             // when the counter gets down to 1 we stop the entity actor
             info.actor.tell(new StopEntityActor(), getSelf());
+            config.getActiveEntityActors().decrementAndGet();
+        }
+        while (!held.isEmpty() && dispatched < config.getMaxDispatchedSignals())
+            dispatch(held.poll());
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<ActorInfo> it = actors.values().iterator();
+        while (actors.size() > config.getMaxResidentActors() && it.hasNext()) {
+            ActorInfo info = it.next();
+            if (info.isIdle()) {
+                it.remove();
+                evict(info);
+            }
         }
     }
 
+    private void evictIdleActors() {
+        long cutoff = System.currentTimeMillis() - config.getResidentIdleTtlMs();
+        Iterator<Entry<String, ActorInfo>> it = actors.entrySet().iterator();
+        while (it.hasNext()) {
+            ActorInfo info = it.next().getValue();
+            if (info.isIdle()) {
+                if (info.lastUsed > cutoff)
+                    // iteration is in access order so the rest were used later
+                    break;
+                it.remove();
+                evict(info);
+            }
+        }
+    }
+
+    private void evict(ActorInfo info) {
+        info.actor.tell(new StopEntityActor(), getSelf());
+        config.getActiveEntityActors().decrementAndGet();
+        Optional<ResidentActorMetrics> metrics = config.getResidentActorMetrics();
+        if (metrics.isPresent())
+            metrics.get().evicted();
+    }
+
     private void handleMessage(EntityManagerFactory message) {
         emf = message;
     }
 
     private void handleMessage(Signal<?> message) {
+        if (config.isPriorityLanes() && (dispatched >= config.getMaxDispatchedSignals()
+                || held.contains(message.getEntityUniqueId())))
+            // a bulk load can't crowd out later signals of higher priority and
+            // a signal must not overtake those held for the same entity
+            held.add(message);
+        else
+            dispatch(message);
+    }
+
+    private void dispatch(Signal<?> message) {
         String key = message.getEntityUniqueId();
         ActorRef actor = getActor(key);
         actor.tell(message, getSelf());
+        dispatched++;
     }
 
     private ActorRef getActor(String key) {
@@ -72,9 +164,13 @@ public class RootActor extends UntypedActor {
         if (info == null) {
             ActorRef actor = createActor(key);
             actors.put(key, new ActorInfo(actor, 1));
+            config.getActiveEntityActors().incrementAndGet();
             actor.tell(emf, getSelf());
+            actor.tell(config, getSelf());
             if (listenerFactory != null)
                 actor.tell(listenerFactory.create(key), getSelf());
+            if (acknowledger != null)
+                actor.tell(acknowledger, getSelf());
         } else {
             actors.put(key, info.increment());
         }
@@ -82,18 +178,20 @@ public class RootActor extends UntypedActor {
     }
 
     private ActorRef createActor(String key) {
-        return getContext()
-                .actorOf(Props.create(EntityActor.class).withDispatcher("akka.entity-dispatcher"));
+        Props props = Props.create(EntityActor.class).withDispatcher("akka.entity-dispatcher");
+        return getContext().actorOf(props);
     }
 
     private static final class ActorInfo {
 
         final ActorRef actor;
         final long counter;
+        final long lastUsed;
 
         ActorInfo(ActorRef actor, long counter) {
             this.actor = actor;
             this.counter = counter;
+            this.lastUsed = System.currentTimeMillis();
         }
 
         ActorInfo increment() {
@@ -104,6 +202,13 @@ public class RootActor extends UntypedActor {
             return new ActorInfo(actor, counter - 1);
         }
 
+        /**
+         * Returns true if a resident actor has no signals outstanding.
+         */
+        boolean isIdle() {
+            return counter == 0;
+        }
+
     }
 
 }
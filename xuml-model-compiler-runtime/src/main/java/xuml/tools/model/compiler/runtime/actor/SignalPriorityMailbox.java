@@ -0,0 +1,44 @@
+package xuml.tools.model.compiler.runtime.actor;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.PriorityGenerator;
+import akka.dispatch.UnboundedStablePriorityMailbox;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Mailbox of {@link RootActor} when priority lanes are enabled. Configuration
+ * messages and the
+ * {@link xuml.tools.model.compiler.runtime.message.CloseEntityActor} replies
+ * that free capacity for held signals go before any signal, so that a steady
+ * stream of signals cannot hold them back. Signals keep the order they
+ * arrived in whatever their priority, so signals to an entity are not
+ * reordered. Priority is applied by {@link RootActor} when choosing which
+ * entity's held signals to dispatch next (see {@link HeldSignals}).
+ */
+public final class SignalPriorityMailbox extends UnboundedStablePriorityMailbox {
+
+    public SignalPriorityMailbox(ActorSystem.Settings settings, Config config) {
+        super(new PriorityGenerator() {
+            @Override
+            public int gen(Object message) {
+                return order(message);
+            }
+        });
+    }
+
+    /**
+     * Returns the position of the message in the mailbox, lower first.
+     *
+     * @param message
+     * @return order
+     */
+    static int order(Object message) {
+        if (message instanceof Signal)
+            return 0;
+        else
+            return Integer.MIN_VALUE;
+    }
+
+}
@@ -1,17 +1,126 @@
 package xuml.tools.model.compiler.runtime.message;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
+import xuml.tools.model.compiler.runtime.InFlightSignals;
+import xuml.tools.model.compiler.runtime.OptimisticLockRetry;
+import xuml.tools.model.compiler.runtime.ResidentActorMetrics;
+import xuml.tools.model.compiler.runtime.SignalFailureHandler;
+import xuml.tools.model.compiler.runtime.SignalFailureHandlerDoesNothing;
+import xuml.tools.model.compiler.runtime.SignalListener;
+import xuml.tools.model.compiler.runtime.SignalListenerDoesNothing;
+
 public final class ActorConfig {
 
     private final int entityActoryPoolSize;
+    private final boolean residentActors;
+    private final long residentIdleTtlMs;
+    private final int maxResidentActors;
+    private final Optional<ResidentActorMetrics> residentActorMetrics;
+    private final InFlightSignals inFlightSignals;
+    private final int maxBatchSize;
+    private final long maxBatchTimeMs;
+    // entity actors alive across all root actors
+    private final AtomicLong activeEntityActors;
+    private final SignalListener signalListener;
+    private final SignalFailureHandler failureHandler;
+    private final OptimisticLockRetry optimisticLockRetry;
+    // 0 if priority lanes are disabled
+    private final int maxDispatchedSignals;
 
     public ActorConfig(int entityActoryPoolSize) {
+        this(entityActoryPoolSize, false, 0, 0, Optional.<ResidentActorMetrics> absent(),
+                new InFlightSignals(), 1, 0, new AtomicLong(),
+                SignalListenerDoesNothing.getInstance(),
+                SignalFailureHandlerDoesNothing.getInstance(), OptimisticLockRetry.none(), 0);
+    }
+
+    public ActorConfig(int entityActoryPoolSize, boolean residentActors, long residentIdleTtlMs,
+            int maxResidentActors, Optional<ResidentActorMetrics> residentActorMetrics,
+            InFlightSignals inFlightSignals, int maxBatchSize, long maxBatchTimeMs,
+            AtomicLong activeEntityActors, SignalListener signalListener,
+            SignalFailureHandler failureHandler, OptimisticLockRetry optimisticLockRetry,
+            int maxDispatchedSignals) {
         Preconditions.checkArgument(entityActoryPoolSize > 0, "pool size must be > 0");
+        Preconditions.checkNotNull(residentActorMetrics);
+        Preconditions.checkNotNull(inFlightSignals);
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0");
+        Preconditions.checkNotNull(activeEntityActors);
+        Preconditions.checkNotNull(signalListener);
+        Preconditions.checkNotNull(failureHandler);
+        Preconditions.checkNotNull(optimisticLockRetry);
+        Preconditions.checkArgument(maxDispatchedSignals >= 0, "maxDispatchedSignals must be >= 0");
         this.entityActoryPoolSize = entityActoryPoolSize;
+        this.residentActors = residentActors;
+        this.residentIdleTtlMs = residentIdleTtlMs;
+        this.maxResidentActors = maxResidentActors;
+        this.residentActorMetrics = residentActorMetrics;
+        this.inFlightSignals = inFlightSignals;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchTimeMs = maxBatchTimeMs;
+        this.activeEntityActors = activeEntityActors;
+        this.signalListener = signalListener;
+        this.failureHandler = failureHandler;
+        this.optimisticLockRetry = optimisticLockRetry;
+        this.maxDispatchedSignals = maxDispatchedSignals;
     }
 
     public int getEntityActoryPoolSize() {
         return entityActoryPoolSize;
     }
+
+    public boolean isResidentActors() {
+        return residentActors;
+    }
+
+    public long getResidentIdleTtlMs() {
+        return residentIdleTtlMs;
+    }
+
+    public int getMaxResidentActors() {
+        return maxResidentActors;
+    }
+
+    public Optional<ResidentActorMetrics> getResidentActorMetrics() {
+        return residentActorMetrics;
+    }
+
+    public InFlightSignals getInFlightSignals() {
+        return inFlightSignals;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxBatchTimeMs() {
+        return maxBatchTimeMs;
+    }
+
+    public AtomicLong getActiveEntityActors() {
+        return activeEntityActors;
+    }
+
+    public SignalListener getSignalListener() {
+        return signalListener;
+    }
+
+    public SignalFailureHandler getFailureHandler() {
+        return failureHandler;
+    }
+
+    public OptimisticLockRetry getOptimisticLockRetry() {
+        return optimisticLockRetry;
+    }
+
+    public boolean isPriorityLanes() {
+        return maxDispatchedSignals > 0;
+    }
+
+    public int getMaxDispatchedSignals() {
+        return maxDispatchedSignals;
+    }
 }
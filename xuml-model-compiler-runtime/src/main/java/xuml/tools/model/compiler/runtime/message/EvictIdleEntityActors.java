@@ -0,0 +1,19 @@
+package xuml.tools.model.compiler.runtime.message;
+
+/**
+ * Sent periodically by the scheduler to RootActor so that resident entity
+ * actors idle for longer than the configured time to live are stopped.
+ */
+public class EvictIdleEntityActors {
+
+    private static final EvictIdleEntityActors INSTANCE = new EvictIdleEntityActors();
+
+    public static EvictIdleEntityActors instance() {
+        return INSTANCE;
+    }
+
+    private EvictIdleEntityActors() {
+        // use instance()
+    }
+
+}
@@ -0,0 +1,19 @@
+package xuml.tools.model.compiler.runtime.message;
+
+/**
+ * Sent by an entity actor to itself so that deferred signal acknowledgements
+ * are written once the messages already in its mailbox have been processed.
+ */
+public class FlushAcknowledgements {
+
+    private static final FlushAcknowledgements INSTANCE = new FlushAcknowledgements();
+
+    public static FlushAcknowledgements instance() {
+        return INSTANCE;
+    }
+
+    private FlushAcknowledgements() {
+        // use instance()
+    }
+
+}
@@ -0,0 +1,19 @@
+package xuml.tools.model.compiler.runtime.message;
+
+/**
+ * Sent by an entity actor to itself so that signals held for coalescing are
+ * processed once the signals already in its mailbox have joined them.
+ */
+public class ProcessPendingSignals {
+
+    private static final ProcessPendingSignals INSTANCE = new ProcessPendingSignals();
+
+    public static ProcessPendingSignals instance() {
+        return INSTANCE;
+    }
+
+    private ProcessPendingSignals() {
+        // use instance()
+    }
+
+}
@@ -3,29 +3,33 @@ package xuml.tools.model.compiler.runtime.message;
 import java.io.Serializable;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 import xuml.tools.model.compiler.runtime.Entity;
 import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.PrioritisedEvent;
 
 public class Signal<T> {
 
     private final Class<Entity<T>> entityClass;
     private final Event<T> event;
-    private final String id;
+    private final long id;
     // epoch time ms to process signal
     private final Long timeMs;
     private final Optional<FiniteDuration> repeatInterval;
     private final String fromEntityUniqueId;
     private final Serializable entityId;
     private final String entityUniqueId;
+    private final int priority;
 
     public Signal(String fromEntityUniqueId, Class<Entity<T>> entityClass, Event<T> event,
-            String id, Long timeMs, Optional<FiniteDuration> repeatInterval, Serializable entityId,
+            long id, Long timeMs, Optional<FiniteDuration> repeatInterval, Serializable entityId,
             String entityUniqueId) {
         if (entityId instanceof Optional)
             throw new RuntimeException("unexpected");
+        Preconditions.checkNotNull(repeatInterval);
         this.fromEntityUniqueId = fromEntityUniqueId;
         this.entityClass = entityClass;
         this.event = event;
@@ -34,15 +38,31 @@ public class Signal<T> {
         this.repeatInterval = repeatInterval;
         this.entityId = entityId;
         this.entityUniqueId = entityUniqueId;
+        this.priority = priority(event);
+    }
+
+    /**
+     * Returns the priority of signals of the event, 0 unless it is a
+     * {@link PrioritisedEvent}.
+     * 
+     * @param event
+     * @return priority
+     */
+    public static int priority(Event<?> event) {
+        if (event instanceof PrioritisedEvent)
+            return ((PrioritisedEvent<?>) event).priority();
+        else
+            return 0;
     }
 
     public Signal(String fromEntityUniqueId, Class<Entity<T>> entityClass, Event<T> event,
-            String id, Long timeMs, Serializable entityId, String entityUniqueId) {
-        this(fromEntityUniqueId, entityClass, event, id, timeMs, null, entityId, entityUniqueId);
+            long id, Long timeMs, Serializable entityId, String entityUniqueId) {
+        this(fromEntityUniqueId, entityClass, event, id, timeMs,
+                Optional.<FiniteDuration> absent(), entityId, entityUniqueId);
     }
 
     public Signal(String fromEntityUniqueId, Class<Entity<T>> entityClass, Event<T> event,
-            String id, Duration delay, FiniteDuration repeatInterval, Serializable entityId,
+            long id, Duration delay, FiniteDuration repeatInterval, Serializable entityId,
             String entityUniqueId) {
         this(fromEntityUniqueId, entityClass, event, id, getTime(delay),
                 Optional.of(repeatInterval), entityId, entityUniqueId);
@@ -56,11 +76,11 @@ public class Signal<T> {
     }
 
     public Signal(String fromEntityUniqueId, Class<Entity<T>> entityClass, Event<T> event,
-            String id, Serializable entityId, String entityUniqueId) {
+            long id, Serializable entityId, String entityUniqueId) {
         this(fromEntityUniqueId, entityClass, event, id, null, entityId, entityUniqueId);
     }
 
-    public String getId() {
+    public long getId() {
         return id;
     }
 
@@ -80,6 +100,19 @@ public class Signal<T> {
         return timeMs;
     }
 
+    /**
+     * Returns a copy of this signal to be processed at the given time. Used
+     * for the next occurrence of a repeating signal.
+     * 
+     * @param timeMs
+     *            epoch time ms to process the signal
+     * @return copy of this signal
+     */
+    public Signal<T> atTime(long timeMs) {
+        return new Signal<T>(fromEntityUniqueId, entityClass, event, id, timeMs, repeatInterval,
+                entityId, entityUniqueId);
+    }
+
     public Serializable getEntityId() {
         return entityId;
     }
@@ -92,6 +125,15 @@ public class Signal<T> {
         return entityUniqueId;
     }
 
+    /**
+     * Returns the priority of this signal, higher first.
+     * 
+     * @return priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -0,0 +1,219 @@
+package xuml.tools.model.compiler.runtime;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Column;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import com.google.common.base.Optional;
+
+import scala.concurrent.duration.Duration;
+
+/**
+ * Entity used by the H2 backed tests, written like the classes generated by
+ * xuml-model-compiler. {@link Increment} adds one to its count,
+ * {@link Forward} also signals {@link Increment} to another counter,
+ * {@link ForwardAndFail} does that and then throws, {@link Absorb} adds the
+ * count of another counter and sets that to 0 and {@link Fail} throws.
+ */
+@javax.persistence.Entity
+@Table(name = "xuml_test_counter")
+public class Counter implements Entity<Counter> {
+
+    private static Signaller signaller;
+
+    static void setSignaller_(Signaller sig) {
+        signaller = sig;
+    }
+
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "num", nullable = false)
+    private int count;
+
+    @Transient
+    private EntityHelper _helper;
+
+    public Counter() {
+        // no-arg constructor required by JPA
+    }
+
+    Counter(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public Serializable getId() {
+        return id;
+    }
+
+    @Override
+    public String uniqueId() {
+        return Counter.class.getName() + ":" + id;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    void setCount(int count) {
+        this.count = count;
+    }
+
+    @Override
+    public synchronized EntityHelper helper() {
+        if (_helper == null)
+            _helper = new EntityHelper(signaller, this);
+        return _helper;
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event) {
+        helper().signal(event);
+        return this;
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event, Duration delay) {
+        helper().signal(event, Optional.of(delay));
+        return this;
+    }
+
+    @Override
+    public Counter signal(Event<Counter> event, long time) {
+        return signal(event,
+                Duration.create(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public Counter event(Event<Counter> event) {
+        helper().beforeEvent();
+        try {
+            if (event instanceof Fail)
+                throw new RuntimeException("failed on purpose");
+            if (event instanceof Absorb) {
+                Counter other = helper().getEntityManager().find(Counter.class,
+                        ((Absorb) event).from);
+                count += other.count;
+                other.count = 0;
+            } else
+                count++;
+            if (event instanceof Forward)
+                helper().getEntityManager().find(Counter.class, ((Forward) event).to)
+                        .signal(new Increment());
+            if (event instanceof ForwardAndFail) {
+                helper().getEntityManager().find(Counter.class, ((ForwardAndFail) event).to)
+                        .signal(new Increment());
+                throw new RuntimeException("failed on purpose after signalling");
+            }
+        } finally {
+            helper().afterEvent();
+        }
+        return this;
+    }
+
+    /**
+     * Inserts counters with the given ids and a count of 0.
+     *
+     * @param emf
+     * @param ids
+     */
+    static void create(EntityManagerFactory emf, String... ids) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        for (String id : ids)
+            em.persist(new Counter(id));
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    static Counter find(EntityManagerFactory emf, String id) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(Counter.class, id);
+        } finally {
+            em.close();
+        }
+    }
+
+    static int count(EntityManagerFactory emf, String id) {
+        return find(emf, id).count;
+    }
+
+    static void setCount(EntityManagerFactory emf, String id, int count) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.find(Counter.class, id).count = count;
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    @SuppressWarnings("serial")
+    static class Increment implements Event<Counter>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "Increment";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Forward implements Event<Counter>, Serializable {
+
+        final String to;
+
+        Forward(String to) {
+            this.to = to;
+        }
+
+        @Override
+        public String signatureKey() {
+            return "Forward";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class ForwardAndFail implements Event<Counter>, Serializable {
+
+        final String to;
+
+        ForwardAndFail(String to) {
+            this.to = to;
+        }
+
+        @Override
+        public String signatureKey() {
+            return "ForwardAndFail";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Absorb implements Event<Counter>, Serializable {
+
+        final String from;
+
+        Absorb(String from) {
+            this.from = from;
+        }
+
+        @Override
+        public String signatureKey() {
+            return "Absorb";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Fail implements Event<Counter>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "Fail";
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class GroupCommitterTest {
+
+    @Test
+    public void testSubmittedItemsAreFlushedInBatches() throws Exception {
+        final List<List<Integer>> batches = new CopyOnWriteArrayList<List<Integer>>();
+        GroupCommitter<Integer> committer = new GroupCommitter<Integer>("test",
+                new GroupCommitter.Flusher<Integer>() {
+                    @Override
+                    public void flush(List<Integer> items) {
+                        batches.add(Lists.newArrayList(items));
+                    }
+                }, 100, 3, 50, TimeUnit.MILLISECONDS);
+        List<CompletableFuture<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 7; i++)
+            futures.add(committer.submit(i));
+        for (int i = 0; i < 7; i++)
+            assertEquals(i, (int) futures.get(i).get(5, TimeUnit.SECONDS));
+        committer.close();
+        int count = 0;
+        for (List<Integer> batch : batches) {
+            assertTrue(batch.size() <= 3);
+            count += batch.size();
+        }
+        assertEquals(7, count);
+    }
+
+    @Test
+    public void testFailingItemOnlyFailsItsOwnFuture() throws Exception {
+        GroupCommitter<Integer> committer = new GroupCommitter<Integer>("test",
+                new GroupCommitter.Flusher<Integer>() {
+                    @Override
+                    public void flush(List<Integer> items) {
+                        if (items.contains(2))
+                            throw new RuntimeException("boom");
+                    }
+                }, 100, 10, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> a = committer.submit(1);
+        CompletableFuture<Integer> b = committer.submit(2);
+        CompletableFuture<Integer> c = committer.submit(3);
+        assertEquals(1, (int) a.get(5, TimeUnit.SECONDS));
+        assertEquals(3, (int) c.get(5, TimeUnit.SECONDS));
+        try {
+            b.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("expected failure");
+        } catch (ExecutionException e) {
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        committer.close();
+    }
+
+    @Test
+    public void testErrorFailsEveryFutureInTheBatch() throws Exception {
+        GroupCommitter<Integer> committer = new GroupCommitter<Integer>("test",
+                new GroupCommitter.Flusher<Integer>() {
+                    @Override
+                    public void flush(List<Integer> items) {
+                        throw new OutOfMemoryError("boom");
+                    }
+                }, 100, 10, 50, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> a = committer.submit(1);
+        CompletableFuture<Integer> b = committer.submit(2);
+        for (CompletableFuture<Integer> future : Lists.newArrayList(a, b)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                throw new AssertionError("expected failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OutOfMemoryError);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterCloseThrows() {
+        GroupCommitter<Integer> committer = new GroupCommitter<Integer>("test",
+                new GroupCommitter.Flusher<Integer>() {
+                    @Override
+                    public void flush(List<Integer> items) {
+                    }
+                }, 10, 10, 0, TimeUnit.MILLISECONDS);
+        committer.close();
+        committer.submit(1);
+    }
+
+}
@@ -0,0 +1,64 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class InFlightSignalsTest {
+
+    @Test
+    public void testAwaitBelowReturnsImmediatelyWhenBelowLimit() throws InterruptedException {
+        InFlightSignals inFlight = new InFlightSignals();
+        inFlight.increment();
+        assertTrue(inFlight.awaitBelow(2, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAwaitBelowTimesOutWhenAtLimit() throws InterruptedException {
+        InFlightSignals inFlight = new InFlightSignals();
+        inFlight.increment();
+        assertFalse(inFlight.awaitBelow(1, 20, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAwaitBelowWakesOnDecrement() throws InterruptedException {
+        final InFlightSignals inFlight = new InFlightSignals();
+        inFlight.increment();
+        inFlight.increment();
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            inFlight.decrement();
+        });
+        t.start();
+        assertTrue(inFlight.awaitBelow(2, 5, TimeUnit.SECONDS));
+        assertEquals(1, inFlight.get());
+        t.join();
+    }
+
+    @Test
+    public void testWhenBelowCompletesImmediatelyWhenBelowLimit() {
+        InFlightSignals inFlight = new InFlightSignals();
+        assertTrue(inFlight.whenBelow(1).isDone());
+    }
+
+    @Test
+    public void testWhenBelowCompletesOnDecrement() {
+        InFlightSignals inFlight = new InFlightSignals();
+        inFlight.increment();
+        inFlight.increment();
+        CompletableFuture<Void> future = inFlight.whenBelow(2);
+        assertFalse(future.isDone());
+        inFlight.decrement();
+        assertTrue(future.isDone());
+    }
+
+}
@@ -0,0 +1,70 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import javax.persistence.RollbackException;
+
+import org.junit.Test;
+
+public class OptimisticLockRetryTest {
+
+    @Test
+    public void testOptimisticLockExceptionIsRetried() {
+        OptimisticLockRetry retry = new OptimisticLockRetry(2, 0);
+        assertTrue(retry.shouldRetry(new OptimisticLockException(), 0));
+        assertTrue(retry.shouldRetry(new OptimisticLockException(), 1));
+    }
+
+    @Test
+    public void testRetriesAreBounded() {
+        OptimisticLockRetry retry = new OptimisticLockRetry(2, 0);
+        assertFalse(retry.shouldRetry(new OptimisticLockException(), 2));
+    }
+
+    @Test
+    public void testOptimisticLockExceptionWrappedOnCommitIsRetried() {
+        OptimisticLockRetry retry = new OptimisticLockRetry(1, 0);
+        assertTrue(retry.shouldRetry(
+                new RollbackException("commit failed", new OptimisticLockException()), 0));
+    }
+
+    @Test
+    public void testOtherFailuresAreNotRetried() {
+        OptimisticLockRetry retry = new OptimisticLockRetry(1, 0);
+        assertFalse(retry.shouldRetry(new PersistenceException("constraint violated"), 0));
+        assertFalse(retry.shouldRetry(new RuntimeException(), 0));
+    }
+
+    @Test
+    public void testNoneNeverRetries() {
+        assertFalse(OptimisticLockRetry.none().shouldRetry(new OptimisticLockException(), 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetryRequiresTransactionalOutbox() {
+        SignallerConfig.builder().optimisticLockRetry(1, 0, TimeUnit.MILLISECONDS).build();
+    }
+
+    @Test
+    public void testRetriesByDefaultOnlyWithTransactionalOutbox() {
+        assertEquals(0, SignallerConfig.builder().build().getOptimisticLockRetry()
+                .getMaxRetries());
+        assertEquals(3, SignallerConfig.builder().transactionalOutbox(true).build()
+                .getOptimisticLockRetry().getMaxRetries());
+    }
+
+    @Test
+    public void testPauseIsBoundedByJitter() {
+        OptimisticLockRetry retry = new OptimisticLockRetry(3, 5);
+        long start = System.currentTimeMillis();
+        retry.pause(1);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+}
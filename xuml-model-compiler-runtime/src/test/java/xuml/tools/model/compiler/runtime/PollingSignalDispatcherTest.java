@@ -0,0 +1,225 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.actor.EntityActor;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class PollingSignalDispatcherTest {
+
+    private static final String[] ENTITIES = { "a", "b", "c" };
+
+    private EntityManagerFactory emf;
+    private Signaller signaller;
+
+    @Before
+    public void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+    }
+
+    @After
+    public void tearDown() {
+        if (signaller != null) {
+            signaller.stop();
+            // closes the entity manager factory which drops the tables
+            signaller.close();
+        } else
+            emf.close();
+    }
+
+    @Test
+    public void testTwoWorkersNeverInterleaveTheSignalsOfAnEntity()
+            throws InterruptedException {
+        final Map<String, AtomicInteger> active = new ConcurrentHashMap<String, AtomicInteger>();
+        final Map<String, Long> lastTime = new ConcurrentHashMap<String, Long>();
+        final List<String> problems = new CopyOnWriteArrayList<String>();
+        for (String entity : ENTITIES)
+            active.put(entity, new AtomicInteger());
+        // a small page so an entity's signals are claimed over several polls
+        // and a worker can find some of them while another is processing the
+        // earlier ones
+        start(SignallerConfig.builder().polling(2, 1, 10, 60, TimeUnit.SECONDS)
+                .recovery(4, 1, 1000, false),
+                entityUniqueId -> new SignalProcessorListener() {
+
+                    @Override
+                    public void beforeProcessing(Signal<?> signal, EntityActor actor) {
+                        String entity = (String) signal.getEntityId();
+                        if (active.get(entity).incrementAndGet() > 1)
+                            problems.add("interleaved " + entity);
+                        Long last = lastTime.put(entity, signal.getTime());
+                        if (last != null && last > signal.getTime())
+                            problems.add("out of order " + entity);
+                        sleep(1);
+                    }
+
+                    @Override
+                    public void afterProcessing(Signal<?> signal, EntityActor actor) {
+                        active.get(signal.getEntityId()).decrementAndGet();
+                    }
+
+                    @Override
+                    public void failure(Signal<?> signal, Exception e, EntityActor actor) {
+                        active.get(signal.getEntityId()).decrementAndGet();
+                    }
+                });
+        long time = System.currentTimeMillis() - 1000;
+        int n = 60;
+        for (int i = 0; i < n; i++) {
+            String entity = ENTITIES[i % ENTITIES.length];
+            persist(entity, new Counter.Increment(), time + i);
+        }
+        signaller.sendSignalsInQueue();
+        assertTrue(awaitQueueSize(0));
+        assertTrue(problems.toString(), problems.isEmpty());
+        for (String entity : ENTITIES)
+            assertEquals(n / ENTITIES.length, Counter.count(emf, entity));
+    }
+
+    @Test
+    public void testExpiredClaimIsClaimedAgain() throws InterruptedException {
+        start(SignallerConfig.builder().polling(1, 10, 10, 500, TimeUnit.MILLISECONDS), null);
+        long time = System.currentTimeMillis();
+        long expired = persist("a", new Counter.Increment(), time);
+        long current = persist("b", new Counter.Increment(), time);
+        // claimed by workers that died, one too long ago
+        setClaim(expired, time - TimeUnit.HOURS.toMillis(1));
+        setClaim(current, time + TimeUnit.HOURS.toMillis(1));
+        signaller.sendSignalsInQueue();
+        assertTrue(awaitQueueSize(1));
+        assertEquals(1, Counter.count(emf, "a"));
+        assertEquals(0, Counter.count(emf, "b"));
+    }
+
+    @Test
+    public void testFailedSignalHoldsBackLaterSignalsToItsEntityWithoutRetry()
+            throws InterruptedException {
+        start(SignallerConfig.builder().polling(1, 10, 10, 60, TimeUnit.SECONDS), null);
+        long time = System.currentTimeMillis();
+        long failing = persist("a", new Counter.Fail(), time);
+        long later = persist("a", new Counter.Increment(), time + 1);
+        persist("b", new Counter.Increment(), time + 2);
+        signaller.sendSignalsInQueue();
+        assertTrue(awaitQueueSize(2));
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(0, Counter.count(emf, "a"));
+        assertEquals(1, Counter.count(emf, "b"));
+        // the failed signal stays claimed until its claim expires, the later
+        // signal is released but waits behind it
+        assertTrue(find(failing).claimOwner != null);
+        assertNull(find(later).claimOwner);
+        assertEquals(QueuedSignal.Status.QUEUED, find(later).status);
+    }
+
+    @Test
+    public void testIsIdle() throws InterruptedException {
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        start(SignallerConfig.builder().polling(2, 10, 10, 60, TimeUnit.SECONDS),
+                entityUniqueId -> new SignalProcessorListener() {
+
+                    @Override
+                    public void beforeProcessing(Signal<?> signal, EntityActor actor) {
+                        processing.countDown();
+                        try {
+                            proceed.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void afterProcessing(Signal<?> signal, EntityActor actor) {
+                    }
+
+                    @Override
+                    public void failure(Signal<?> signal, Exception e, EntityActor actor) {
+                    }
+                });
+        persist("a", new Counter.Increment(), System.currentTimeMillis());
+        // signals left in the queue are not counted until the workers start
+        assertTrue(signaller.isIdle());
+        signaller.sendSignalsInQueue();
+        assertTrue(processing.await(10, TimeUnit.SECONDS));
+        assertFalse(signaller.isIdle());
+        proceed.countDown();
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, Counter.count(emf, "a"));
+        assertTrue(awaitQueueSize(0));
+        assertTrue(signaller.isIdle());
+    }
+
+    private void start(SignallerConfig.Builder builder,
+            SignalProcessorListenerFactory listenerFactory) {
+        signaller = new Signaller(emf, builder.build(), listenerFactory);
+        Counter.setSignaller_(signaller);
+        for (String entity : ENTITIES)
+            Counter.create(emf, entity);
+    }
+
+    private long persist(String entity, Event<Counter> event, long time) {
+        return signaller.persistSignal("from", entity, Counter.class, event, time,
+                Optional.<Long> absent(), Counter.find(emf, entity).uniqueId());
+    }
+
+    private void setClaim(long id, long claimTime) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("update " + QueuedSignal.class.getSimpleName()
+                + " set claimOwner=:owner, claimTime=:time where id=:id")
+                .setParameter("owner", "dead-worker").setParameter("time", new Date(claimTime))
+                .setParameter("id", id).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    private QueuedSignal find(long id) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(QueuedSignal.class, id);
+        } finally {
+            em.close();
+        }
+    }
+
+    private boolean awaitQueueSize(long size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (signaller.queueSize() != size) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import scala.concurrent.duration.Duration;
+
+/**
+ * Checks that {@link Signaller#approximateQueueSize()} follows the signals
+ * persisted, acknowledged, superseded and dead lettered in H2 and is reset
+ * from the exact count.
+ */
+public class QueueSizeEstimateTest {
+
+    private EntityManagerFactory emf;
+    private Signaller signaller;
+
+    @After
+    public void tearDown() {
+        signaller.stop();
+        // closes the entity manager factory which drops the tables
+        signaller.close();
+    }
+
+    @Test
+    public void testEstimateFollowsPersistedAndAcknowledgedSignals()
+            throws InterruptedException {
+        start(1, TimeUnit.HOURS);
+        assertEquals(0, signaller.approximateQueueSize());
+        signal("from1", new Counter.Increment(), true);
+        signal("from2", new Counter.Increment(), true);
+        assertEquals(2, signaller.approximateQueueSize());
+        signal("from3", new Counter.Increment(), false);
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, Counter.count(emf, "a"));
+        assertEquals(2, signaller.approximateQueueSize());
+        assertEquals(2, signaller.queueSize());
+    }
+
+    @Test
+    public void testEstimateFollowsSupersededSignals() {
+        start(1, TimeUnit.HOURS);
+        assertEquals(0, signaller.approximateQueueSize());
+        signal("from", new Counter.Increment(), true);
+        // replaces the first
+        signal("from", new Counter.Increment(), true);
+        assertEquals(1, signaller.approximateQueueSize());
+        assertEquals(1, signaller.queueSize());
+    }
+
+    @Test
+    public void testEstimateFollowsDeadLetteredSignals() throws InterruptedException {
+        start(1, TimeUnit.HOURS);
+        assertEquals(0, signaller.approximateQueueSize());
+        signal("from", new Counter.Fail(), false);
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, signaller.deadLetterCount());
+        assertEquals(0, signaller.approximateQueueSize());
+        assertEquals(0, signaller.queueSize());
+    }
+
+    @Test
+    public void testEstimateIsResetFromExactCount() throws InterruptedException {
+        start(500, TimeUnit.MILLISECONDS);
+        assertEquals(0, signaller.approximateQueueSize());
+        signal("from1", new Counter.Increment(), true);
+        signal("from2", new Counter.Increment(), true);
+        // deleted behind the signaller's back
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("delete from " + QueuedSignal.class.getSimpleName()).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        assertEquals(2, signaller.approximateQueueSize());
+        Thread.sleep(600);
+        assertEquals(0, signaller.approximateQueueSize());
+    }
+
+    private void start(long resetInterval, TimeUnit unit) {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+        signaller = new Signaller(emf,
+                SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                        .transactionalOutbox(true).retry(1, 1, 1, TimeUnit.MILLISECONDS)
+                        .queueSizeResetInterval(resetInterval, unit).build(),
+                null);
+        Counter.setSignaller_(signaller);
+        Counter.create(emf, "a");
+    }
+
+    private void signal(String from, Event<Counter> event, boolean delayed) {
+        Optional<Duration> delay = delayed ? Optional.of(Duration.create(1, TimeUnit.HOURS))
+                : Optional.<Duration> absent();
+        signaller.signal(from, Counter.find(emf, "a"), event, delay);
+    }
+
+}
@@ -0,0 +1,179 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Defers signals to the database in H2 and checks the order and pace at which
+ * they are dispatched.
+ */
+public class SignalBacklogTest {
+
+    private EntityManagerFactory emf;
+    private InFlightSignals inFlight;
+    private SignalBacklog backlog;
+    private Signaller signaller;
+    private final List<Long> sent = new CopyOnWriteArrayList<Long>();
+    // the sender takes a slot as a dispatcher would
+    private volatile boolean sendingTakesCapacity = true;
+
+    @Before
+    public void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+        inFlight = new InFlightSignals();
+    }
+
+    @After
+    public void tearDown() {
+        if (backlog != null)
+            backlog.stop();
+        if (signaller != null) {
+            signaller.stop();
+            // closes the entity manager factory which drops the tables
+            signaller.close();
+        } else
+            emf.close();
+    }
+
+    @Test
+    public void testDeferredSignalsAreDispatchedInTimeIdOrderAsCapacityFrees()
+            throws InterruptedException {
+        // one row per page so capacity is checked before each signal
+        start(2, 1);
+        inFlight.increment();
+        inFlight.increment();
+        long time = System.currentTimeMillis();
+        deferAndPersist(5, time);
+        deferAndPersist(4, time + 1);
+        deferAndPersist(1, time + 2);
+        deferAndPersist(3, time + 1);
+        Thread.sleep(100);
+        assertTrue(sent.isEmpty());
+        assertFalse(backlog.isIdle());
+        for (int i = 1; i <= 4; i++) {
+            inFlight.decrement();
+            assertTrue(awaitSent(i));
+            // full again until the next signal finishes
+            Thread.sleep(50);
+            assertEquals(i, sent.size());
+        }
+        assertEquals(ImmutableList.of(5L, 3L, 4L, 1L), sent);
+        // finds there is nothing left once there is capacity again
+        inFlight.decrement();
+        assertTrue(awaitIdle());
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void testLaterSignalsDoNotOvertakeTheBacklog() throws InterruptedException {
+        start(1, 10);
+        sendingTakesCapacity = false;
+        inFlight.increment();
+        long time = System.currentTimeMillis();
+        deferAndPersist(1, time);
+        // deferred but not committed yet
+        assertTrue(backlog.defer());
+        inFlight.decrement();
+        assertTrue(awaitSent(1));
+        // there is capacity but the backlog is still waiting for a signal
+        assertTrue(backlog.defer());
+        persist(2, time + 1);
+        persist(3, time + 2);
+        assertTrue(awaitIdle());
+        assertEquals(ImmutableList.of(1L, 2L, 3L), sent);
+        // no backlog and capacity
+        assertFalse(backlog.defer());
+    }
+
+    @Test
+    public void testSendSignalsInQueueRequeuesDeferredSignals() throws InterruptedException {
+        signaller = new Signaller(emf, SignallerConfig.builder()
+                .signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS).build(), null);
+        Counter.setSignaller_(signaller);
+        Counter.create(emf, "a");
+        String uniqueId = Counter.find(emf, "a").uniqueId();
+        for (int i = 0; i < 3; i++)
+            signaller.persistSignal("from", "a", Counter.class, new Counter.Increment(),
+                    System.currentTimeMillis(), Optional.<Long> absent(), uniqueId);
+        // left deferred by an overloaded previous run
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("update " + QueuedSignal.class.getSimpleName() + " set status=:deferred")
+                .setParameter("deferred", QueuedSignal.Status.DEFERRED).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        signaller.sendSignalsInQueue();
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(3, Counter.count(emf, "a"));
+        assertEquals(0, signaller.queuedSignals().size());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void start(long maxInFlight, int pageSize) {
+        backlog = new SignalBacklog(emf,
+                sig -> new Signal("from", Counter.class, new Counter.Increment(), sig.id,
+                        sig.time.getTime(), sig.toEntityUniqueId, sig.toEntityUniqueId),
+                signal -> {
+                    if (sendingTakesCapacity)
+                        inFlight.increment();
+                    sent.add(signal.getId());
+                }, inFlight, maxInFlight, pageSize);
+    }
+
+    private void deferAndPersist(long id, long time) {
+        assertTrue(backlog.defer());
+        persist(id, time);
+    }
+
+    private void persist(long id, long time) {
+        QueuedSignal signal = new QueuedSignal(id, String.class.getName(), Util.toBytes("a"),
+                Counter.class.getName(), Counter.Increment.class.getName(), "Increment",
+                Util.toBytes(new Counter.Increment()), time, Optional.<Long> absent(), "from",
+                "a");
+        signal.status = QueuedSignal.Status.DEFERRED;
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(signal);
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    private boolean awaitSent(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sent.size() < count) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private boolean awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!backlog.isIdle()) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,128 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Renews the leases of cluster nodes against H2 at chosen times and checks
+ * when partitions change hands and are recovered.
+ */
+public class SignalClusterLeaseTest {
+
+    private static final int PARTITIONS = 4;
+    private static final long LEASE_MS = 10000;
+
+    private static EntityManagerFactory emf;
+
+    @BeforeClass
+    public static void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        emf.close();
+    }
+
+    @After
+    public void deleteLeases() {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("delete from " + ClusterLease.class.getSimpleName()).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    @Test
+    public void testReleasedPartitionIsNotTakenOverBeforeItsLeaseExpires() {
+        SignalCluster a = createNode("a", LEASE_MS, null);
+        SignalCluster b = createNode("b", LEASE_MS, null);
+        long t0 = System.currentTimeMillis();
+        a.renew(t0);
+        assertEquals(PARTITIONS, a.owned().size());
+        b.renew(t0);
+        a.renew(t0 + 1000);
+        // a has stopped dispatching to half of its partitions
+        assertEquals(PARTITIONS / 2, a.owned().size());
+        b.renew(t0 + 2000);
+        assertEquals(0, b.owned().size());
+        // the leases a gave up expire at t0 + LEASE_MS
+        b.renew(t0 + LEASE_MS + 500);
+        assertEquals(PARTITIONS / 2, b.owned().size());
+        a.renew(t0 + LEASE_MS + 600);
+        assertEquals(PARTITIONS / 2, a.owned().size());
+        a.stop(true);
+        b.stop(true);
+    }
+
+    @Test
+    public void testStoppedNodeReleasesItsPartitions() {
+        SignalCluster a = createNode("a", LEASE_MS, null);
+        SignalCluster b = createNode("b", LEASE_MS, null);
+        long t0 = System.currentTimeMillis();
+        a.renew(t0);
+        a.stop(true);
+        b.renew(t0 + 1000);
+        assertEquals(PARTITIONS, b.owned().size());
+        b.stop(true);
+    }
+
+    @Test
+    public void testPartitionsOfNodeStoppedWhileProcessingAreNotTakenOverBeforeTheyExpire() {
+        SignalCluster a = createNode("a", LEASE_MS, null);
+        SignalCluster b = createNode("b", LEASE_MS, null);
+        long t0 = System.currentTimeMillis();
+        a.renew(t0);
+        // a's dispatcher did not finish processing in time
+        a.stop(false);
+        b.renew(t0 + 1000);
+        assertEquals(0, b.owned().size());
+        b.renew(t0 + LEASE_MS + 500);
+        assertEquals(PARTITIONS, b.owned().size());
+        b.stop(true);
+    }
+
+    @Test
+    public void testLateRenewalDoesNotRecoverPartitionsAgain() throws InterruptedException {
+        BlockingQueue<Set<Integer>> recovered = new LinkedBlockingQueue<Set<Integer>>();
+        long leaseMs = 1000;
+        SignalCluster a = createNode("a", leaseMs, recovered::add);
+        a.renew(System.currentTimeMillis());
+        assertEquals(PARTITIONS, a.startRecovery().size());
+        // renewed late, after validity has lapsed but before the leases expire
+        Thread.sleep(leaseMs * 6 / 10);
+        long t = System.currentTimeMillis();
+        a.renew(t);
+        assertNull(recovered.poll(500, TimeUnit.MILLISECONDS));
+        // renewed after the leases expire, when another node could have taken
+        // them
+        a.renew(t + leaseMs + 1);
+        assertEquals(ImmutableSet.of(0, 1, 2, 3), recovered.poll(10, TimeUnit.SECONDS));
+        a.stop(true);
+    }
+
+    private static SignalCluster createNode(String nodeId, long leaseMs,
+            Consumer<Set<Integer>> recoverer) {
+        SignallerConfig config = SignallerConfig.builder()
+                .cluster(nodeId, PARTITIONS, leaseMs, TimeUnit.MILLISECONDS).build();
+        return new SignalCluster(emf, config, null, null, recoverer);
+    }
+
+}
@@ -0,0 +1,109 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import xuml.tools.model.compiler.runtime.SignalCluster.Plan;
+
+public class SignalClusterTest {
+
+    private static final long NOW = 1000000;
+
+    @Test
+    public void testSingleNodeClaimsAllFreePartitions() {
+        Plan plan = SignalCluster.plan("a", 8, 1, leases(8), NOW);
+        assertEquals(8, plan.claim.size());
+        assertTrue(plan.release.isEmpty());
+    }
+
+    @Test
+    public void testNodeClaimsShareOfFreePartitions() {
+        Plan plan = SignalCluster.plan("a", 8, 3, leases(8), NOW);
+        assertEquals(3, plan.claim.size());
+    }
+
+    @Test
+    public void testNodeReleasesPartitionsBeyondItsShare() {
+        Map<Integer, ClusterLease> leases = leases(8);
+        for (int p = 0; p < 8; p++)
+            own(leases, p, "a", NOW + 1000);
+        Plan plan = SignalCluster.plan("a", 8, 2, leases, NOW);
+        assertEquals(4, plan.claim.size());
+        assertEquals(4, plan.release.size());
+        assertTrue(Sets.intersection(Sets.newHashSet(plan.claim), Sets.newHashSet(plan.release))
+                .isEmpty());
+    }
+
+    @Test
+    public void testNodeKeepsOwnPartitionsBeforeClaimingFreeOnes() {
+        Map<Integer, ClusterLease> leases = leases(8);
+        own(leases, 5, "a", NOW + 1000);
+        Plan plan = SignalCluster.plan("a", 8, 2, leases, NOW);
+        assertEquals(5, (int) plan.claim.get(0));
+        assertEquals(4, plan.claim.size());
+    }
+
+    @Test
+    public void testNodeDoesNotClaimPartitionsLeasedByOthers() {
+        Map<Integer, ClusterLease> leases = leases(4);
+        for (int p = 0; p < 4; p++)
+            own(leases, p, "b", NOW + 1000);
+        Plan plan = SignalCluster.plan("a", 4, 2, leases, NOW);
+        assertTrue(plan.claim.isEmpty());
+        assertTrue(plan.release.isEmpty());
+    }
+
+    @Test
+    public void testNodeClaimsExpiredPartitionsOfOtherNodes() {
+        Map<Integer, ClusterLease> leases = leases(4);
+        own(leases, 0, "b", NOW);
+        own(leases, 1, "b", NOW - 1);
+        own(leases, 2, "b", NOW + 1);
+        own(leases, 3, "b", NOW + 1);
+        Plan plan = SignalCluster.plan("a", 4, 1, leases, NOW);
+        assertEquals(Sets.newHashSet(0, 1), Sets.newHashSet(plan.claim));
+    }
+
+    @Test
+    public void testPartitionsWithoutRowsAreNotClaimed() {
+        Map<Integer, ClusterLease> leases = leases(4);
+        leases.remove(2);
+        Plan plan = SignalCluster.plan("a", 4, 1, leases, NOW);
+        assertEquals(Sets.newHashSet(0, 1, 3), Sets.newHashSet(plan.claim));
+    }
+
+    @Test
+    public void testPartitionIsStableAndInRange() {
+        Set<Integer> seen = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            int p = SignalCluster.partition("Account:" + i, 16);
+            assertTrue(p >= 0 && p < 16);
+            assertEquals(p, SignalCluster.partition("Account:" + i, 16));
+            seen.add(p);
+        }
+        assertEquals(16, seen.size());
+    }
+
+    private static Map<Integer, ClusterLease> leases(int partitions) {
+        Map<Integer, ClusterLease> leases = Maps.newHashMap();
+        for (int p = 0; p < partitions; p++)
+            leases.put(p, new ClusterLease(ClusterLease.partitionLeaseId(p), null, new Date(0)));
+        return leases;
+    }
+
+    private static void own(Map<Integer, ClusterLease> leases, int partition, String owner,
+            long expiry) {
+        leases.get(partition).owner = owner;
+        leases.get(partition).expiry = new Date(expiry);
+    }
+
+}
@@ -0,0 +1,110 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class SignalCoalescerTest {
+
+    @Test
+    public void testRunOfCoalescibleSignalsKeepsLast() {
+        List<Merged> merged = SignalCoalescer
+                .coalesce(signals(signal(1, new Latest()), signal(2, new Latest()),
+                        signal(3, new Latest())));
+        assertEquals(1, merged.size());
+        assertEquals(3, merged.get(0).getSignal().getId());
+        assertEquals(ids(1, 2), ids(merged.get(0).getReplaced()));
+    }
+
+    @Test
+    public void testCoalescingDoesNotCrossOtherEvents() {
+        List<Merged> merged = SignalCoalescer.coalesce(signals(signal(1, new Latest()),
+                signal(2, new Plain()), signal(3, new Latest())));
+        assertEquals(ids(1, 2, 3), idsOf(merged));
+    }
+
+    @Test
+    public void testIdenticalIdempotentSignalsAreDropped() {
+        List<Merged> merged = SignalCoalescer.coalesce(signals(signal(1, new Same("a")),
+                signal(2, new Same("a")), signal(3, new Same("b")),
+                signal(4, new Same("b"))));
+        assertEquals(ids(1, 3), idsOf(merged));
+        assertEquals(ids(2), ids(merged.get(0).getReplaced()));
+        assertEquals(ids(4), ids(merged.get(1).getReplaced()));
+    }
+
+    @Test
+    public void testPlainSignalsAreNotMerged() {
+        List<Merged> merged = SignalCoalescer
+                .coalesce(signals(signal(1, new Plain()), signal(2, new Plain())));
+        assertEquals(ids(1, 2), idsOf(merged));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal(long id, Event<?> event) {
+        return new Signal("from", Entity.class, event, id, System.currentTimeMillis(), "1",
+                "to");
+    }
+
+    private static List<Signal<?>> signals(Signal<?>... signals) {
+        return Lists.newArrayList(signals);
+    }
+
+    private static List<Long> ids(long... ids) {
+        return Longs.asList(ids);
+    }
+
+    private static List<Long> ids(List<Signal<?>> signals) {
+        List<Long> list = Lists.newArrayList();
+        for (Signal<?> signal : signals)
+            list.add(signal.getId());
+        return list;
+    }
+
+    private static List<Long> idsOf(List<Merged> merged) {
+        List<Long> list = Lists.newArrayList();
+        for (Merged m : merged)
+            list.add(m.getSignal().getId());
+        return list;
+    }
+
+    @SuppressWarnings("serial")
+    static class Latest implements CoalescibleEvent<Object>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Same implements IdempotentEvent<Object>, Serializable {
+        final String value;
+
+        Same(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String signatureKey() {
+            return "java.lang.String;";
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Plain implements Event<Object>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+    }
+
+}
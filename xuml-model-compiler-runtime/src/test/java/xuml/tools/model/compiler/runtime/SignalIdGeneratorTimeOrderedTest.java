@@ -0,0 +1,52 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SignalIdGeneratorTimeOrderedTest {
+
+    @Test
+    public void testIdsArePositiveInGenerationOrder() {
+        SignalIdGenerator generator = new SignalIdGeneratorTimeOrdered(5);
+        long last = generator.next();
+        assertTrue(last > 0);
+        for (int i = 0; i < 100000; i++) {
+            long id = generator.next();
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    public void testIdsIncreaseWhenClockGoesBackwards() {
+        SignalIdGeneratorTimeOrdered generator = new SignalIdGeneratorTimeOrdered(0);
+        long a = generator.nextLong(1500000000000L);
+        long b = generator.nextLong(1400000000000L);
+        assertTrue(b > a);
+    }
+
+    @Test
+    public void testSequenceOverflowBorrowsNextMillisecond() {
+        SignalIdGeneratorTimeOrdered generator = new SignalIdGeneratorTimeOrdered(0);
+        long last = generator.nextLong(1500000000000L);
+        for (int i = 0; i < 5000; i++) {
+            long id = generator.nextLong(1500000000000L);
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    @Test
+    public void testNodeIdIsEncoded() {
+        long id = new SignalIdGeneratorTimeOrdered(1023).nextLong(1500000000000L);
+        assertEquals(1023, (id >> 12) & 1023);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeIdOutOfRange() {
+        new SignalIdGeneratorTimeOrdered(1024);
+    }
+
+}
@@ -0,0 +1,114 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.SignalIdMigration.Database;
+
+/**
+ * Puts rows with the VARCHAR ids of earlier versions in H2 and migrates them.
+ */
+public class SignalIdMigrationTest {
+
+    private static final String TIME_ORDERED_ID = "0000018b2f3a4c01";
+    private static final String RANDOM_ID = "3f2a9c1e7b5d40e2a8c6f1d3b9e7a5c4";
+
+    private EntityManagerFactory emf;
+
+    @Before
+    public void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+    }
+
+    @After
+    public void tearDown() {
+        // drops the tables
+        emf.close();
+    }
+
+    @Test
+    public void testTimeOrderedIdKeepsItsValue() {
+        assertEquals(0x0000018b2f3a4c01L, SignalIdMigration.toLong(TIME_ORDERED_ID));
+    }
+
+    @Test
+    public void testRandomIdBecomesItsLow63Bits() {
+        assertEquals(0x28c6f1d3b9e7a5c4L, SignalIdMigration.toLong(RANDOM_ID));
+    }
+
+    @Test
+    public void testConvertedIdIsReadAgain() {
+        assertEquals(1234L, SignalIdMigration.toLong("00000000000000001234"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnexpectedIdIsRejected() {
+        SignalIdMigration.toLong("1234");
+    }
+
+    @Test
+    public void testVarcharIdsAreMigratedToBigint() {
+        persist(1, "a");
+        persist(2, "b");
+        toVarcharIds();
+        setId("1", TIME_ORDERED_ID);
+        setId("2", RANDOM_ID);
+
+        assertEquals(2, SignalIdMigration.migrate(emf, Database.H2));
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            QueuedSignal a = em.find(QueuedSignal.class,
+                    SignalIdMigration.toLong(TIME_ORDERED_ID));
+            assertNotNull(a);
+            assertEquals("a", a.toEntityUniqueId);
+            QueuedSignal b = em.find(QueuedSignal.class, SignalIdMigration.toLong(RANDOM_ID));
+            assertNotNull(b);
+            assertEquals("b", b.toEntityUniqueId);
+        } finally {
+            em.close();
+        }
+        // the columns are numeric now so nothing is done
+        assertEquals(0, SignalIdMigration.migrate(emf, Database.H2));
+    }
+
+    private void persist(long id, String to) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(new QueuedSignal(id, String.class.getName(), Util.toBytes(to),
+                Counter.class.getName(), Counter.Increment.class.getName(), "Increment",
+                Util.toBytes(new Counter.Increment()), System.currentTimeMillis(),
+                Optional.<Long> absent(), "from", to));
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    private void toVarcharIds() {
+        for (String table : new String[] { "xuml_queued_signal", "xuml_dead_letter_signal" })
+            executeUpdate("alter table " + table + " alter column signal_id varchar(255)");
+    }
+
+    private void setId(String id, String oldId) {
+        executeUpdate("update xuml_queued_signal set signal_id='" + oldId + "' where signal_id='"
+                + id + "'");
+    }
+
+    private void executeUpdate(String sql) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createNativeQuery(sql).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+    }
+
+}
@@ -0,0 +1,67 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class SignalListenerMetricsTest {
+
+    @Test
+    public void testRecordsProcessedAndFailedSignalsByEventClass() {
+        SignalMetrics metrics = new SignalMetrics();
+        SignalListenerMetrics listener = new SignalListenerMetrics(metrics);
+        long start = System.nanoTime();
+        listener.processed(signal(1), start, start + 1000, start + 3000);
+        listener.processingFailed(signal(2), new RuntimeException(), start, start + 1000);
+        EventMetrics m = Iterables.getOnlyElement(metrics.getEventMetrics());
+        assertEquals("Ping", m.getEventClassName());
+        assertEquals(1, m.getCount());
+        assertEquals(1, m.getCommit().getTotalCount());
+        assertEquals(1, m.getQueueLatency().getTotalCount());
+        assertEquals(1, m.getFailures());
+    }
+
+    @Test
+    public void testCallsDelegate() {
+        final int[] processed = new int[1];
+        SignalListener delegate = new SignalListener() {
+            @Override
+            public void processed(Signal<?> signal, long startNanos, long commitStartNanos,
+                    long endNanos) {
+                processed[0]++;
+            }
+        };
+        SignalListenerMetrics listener = new SignalListenerMetrics(new SignalMetrics(), delegate);
+        listener.processed(signal(1), 0, 0, 0);
+        assertEquals(1, processed[0]);
+    }
+
+    @Test
+    public void testGaugesDefaultToZero() {
+        SignalMetrics metrics = new SignalMetrics();
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(0, metrics.getInFlightSignals());
+        assertEquals(0, metrics.getActiveEntities());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal(long id) {
+        return new Signal("from", Entity.class, new Ping(), id, System.currentTimeMillis(), "1",
+                "to");
+    }
+
+    @SuppressWarnings("serial")
+    static class Ping implements Event<Object>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import scala.concurrent.duration.Duration;
+import xuml.tools.model.compiler.runtime.SignalCoalescer.Merged;
+import xuml.tools.model.compiler.runtime.actor.EntityActor;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Processes signals to {@link Counter} entities in H2 and checks what is
+ * committed, retried and sent on.
+ */
+public class SignalProcessorTest {
+
+    private Signaller signaller;
+    private EntityManagerFactory emf;
+
+    @After
+    public void tearDown() {
+        signaller.stop();
+        // closes the entity manager factory which drops the tables
+        signaller.close();
+    }
+
+    @Test
+    public void testListenerFailureAfterCommitDoesNotRetryAndStillSendsSignals()
+            throws InterruptedException {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                // leaves the committed signal queued until after the listener
+                .signalAcknowledger(new SignalAcknowledgerBatchedDelete())
+                .transactionalOutbox(true).retry(3, 1, 1, TimeUnit.MILLISECONDS).build(),
+                new SignalProcessorListenerFactory() {
+                    @Override
+                    public SignalProcessorListener create(String entityUniqueId) {
+                        return new ThrowingAfterProcessing();
+                    }
+                });
+        Counter.create(emf, "a", "b");
+        signaller.signal("from", Counter.find(emf, "a"), new Counter.Forward("b"),
+                Optional.<Duration> absent());
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, Counter.count(emf, "a"));
+        assertEquals(1, Counter.count(emf, "b"));
+        assertEquals(0, signaller.deadLetterCount());
+        // acknowledged once the entity has no more signals to process
+        assertTrue(awaitEmptyQueue());
+    }
+
+    @Test
+    public void testRolledBackEntityTransactionLeavesNoOutboundSignal()
+            throws InterruptedException {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .transactionalOutbox(true).build(), null);
+        Counter.create(emf, "a", "b");
+        signaller.signal("from", Counter.find(emf, "a"), new Counter.ForwardAndFail("b"),
+                Optional.<Duration> absent());
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(0, Counter.count(emf, "a"));
+        assertEquals(0, Counter.count(emf, "b"));
+        // only the failed signal itself is left, the signal it raised was
+        // rolled back with it
+        List<QueuedSignal> queued = signaller.queuedSignals();
+        assertEquals(1, queued.size());
+        assertEquals(Counter.find(emf, "a").uniqueId(), queued.get(0).toEntityUniqueId);
+    }
+
+    @Test
+    public void testCommittedEntityTransactionDispatchesOutboundSignalOnce()
+            throws InterruptedException {
+        final List<Long> processed = new CopyOnWriteArrayList<Long>();
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .transactionalOutbox(true).build(), new SignalProcessorListenerFactory() {
+                    @Override
+                    public SignalProcessorListener create(String entityUniqueId) {
+                        return new RecordingListener(0) {
+                            @Override
+                            public void afterProcessing(Signal<?> signal, EntityActor actor) {
+                                processed.add(signal.getId());
+                            }
+                        };
+                    }
+                });
+        Counter.create(emf, "a", "b");
+        signaller.signal("from", Counter.find(emf, "a"), new Counter.Forward("b"),
+                Optional.<Duration> absent());
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, Counter.count(emf, "a"));
+        assertEquals(1, Counter.count(emf, "b"));
+        assertEquals(2, processed.size());
+        assertEquals(2, ImmutableSet.copyOf(processed).size());
+        assertTrue(signaller.queuedSignals().isEmpty());
+    }
+
+    @Test
+    public void testResidentProcessorSeesChangesMadeBetweenSignals() {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .build(), null);
+        Counter.create(emf, "a", "b");
+        Counter.setCount(emf, "b", 5);
+        ResidentActorMetrics metrics = new ResidentActorMetrics();
+        InFlightSignals inFlight = new InFlightSignals();
+        SignalProcessor processor = new SignalProcessor(emf,
+                SignalProcessorListenerDoesNothing.getInstance(),
+                SignalListenerDoesNothing.getInstance(), new SignalAcknowledgerDelete(),
+                SignalFailureHandlerDoesNothing.getInstance(), OptimisticLockRetry.none(), true,
+                Optional.of(metrics), inFlight, null);
+        try {
+            inFlight.increment();
+            processor.process(persistAbsorb("a", "b"));
+            assertEquals(5, Counter.count(emf, "a"));
+            assertEquals(0, Counter.count(emf, "b"));
+
+            // b is changed while a's entity manager is retained
+            Counter.setCount(emf, "b", 7);
+            inFlight.increment();
+            processor.process(persistAbsorb("a", "b"));
+            assertEquals(12, Counter.count(emf, "a"));
+            assertEquals(0, Counter.count(emf, "b"));
+            assertEquals(1, metrics.getMisses());
+            assertEquals(1, metrics.getHits());
+        } finally {
+            processor.close();
+        }
+    }
+
+    @Test
+    public void testPoisonSignalInBatchFailsAloneAndTheOthersCommit() {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .build(), null);
+        Counter.create(emf, "a");
+        List<Merged> signals = Lists.newArrayList(merged(persist("a", new Counter.Increment())),
+                merged(persist("a", new Counter.Increment())),
+                merged(persist("a", new Counter.Fail())),
+                merged(persist("a", new Counter.Increment())),
+                merged(persist("a", new Counter.Increment())));
+        RecordingListener listener = new RecordingListener(0);
+        process(signals, listener, 10, Long.MAX_VALUE);
+        assertEquals(4, Counter.count(emf, "a"));
+        assertEquals(ImmutableList.of(signals.get(2).getSignal().getId()), listener.failed);
+        for (Merged merged : signals)
+            if (merged == signals.get(2))
+                assertNotNull(find(merged.getSignal().getId()));
+            else
+                assertNull(find(merged.getSignal().getId()));
+    }
+
+    @Test
+    public void testBatchTakesNoMoreSignalsAfterMaxBatchTime() {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .build(), null);
+        Counter.create(emf, "a");
+        List<Merged> signals = Lists.newArrayList();
+        for (int i = 0; i < 5; i++)
+            signals.add(merged(persist("a", new Counter.Increment())));
+        // two signals always take longer than the batch time
+        RecordingListener listener = new RecordingListener(30);
+        process(signals, listener, 10, 50);
+        assertEquals(5, Counter.count(emf, "a"));
+        assertTrue(listener.transactionSizes.toString(), listener.transactionSizes.size() >= 3);
+        for (int size : listener.transactionSizes)
+            assertTrue(listener.transactionSizes.toString(), size <= 2);
+
+        // without the time limit they all go in one transaction
+        signals.clear();
+        for (int i = 0; i < 5; i++)
+            signals.add(merged(persist("a", new Counter.Increment())));
+        listener = new RecordingListener(30);
+        process(signals, listener, 10, Long.MAX_VALUE);
+        assertEquals(10, Counter.count(emf, "a"));
+        assertEquals(ImmutableList.of(5), listener.transactionSizes);
+    }
+
+    @Test
+    public void testReplacedSignalsAreAcknowledgedWithTheirBatch() {
+        start(SignallerConfig.builder().signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS)
+                .build(), null);
+        Counter.create(emf, "a");
+        Signal<?> replaced1 = persist("a", new Counter.Increment());
+        Signal<?> replaced2 = persist("a", new Counter.Increment());
+        Signal<?> replaced3 = persist("a", new Counter.Increment());
+        List<Merged> signals = Lists.newArrayList(
+                new Merged(persist("a", new Counter.Increment()),
+                        ImmutableList.<Signal<?>> of(replaced1)),
+                new Merged(persist("a", new Counter.Increment()),
+                        ImmutableList.<Signal<?>> of(replaced2)),
+                new Merged(persist("a", new Counter.Fail()),
+                        ImmutableList.<Signal<?>> of(replaced3)));
+        RecordingListener listener = new RecordingListener(0);
+        process(signals, listener, 10, Long.MAX_VALUE);
+        assertEquals(2, Counter.count(emf, "a"));
+        assertNull(find(replaced1.getId()));
+        assertNull(find(replaced2.getId()));
+        // still queued behind the signal that failed
+        assertNotNull(find(replaced3.getId()));
+        assertNotNull(find(signals.get(2).getSignal().getId()));
+    }
+
+    private Signal<?> persistAbsorb(String to, String from) {
+        return persist(to, new Counter.Absorb(from));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Signal<?> persist(String to, Event<Counter> event) {
+        Counter counter = Counter.find(emf, to);
+        long time = System.currentTimeMillis();
+        long id = signaller.persistSignal("from", to, Counter.class, event, time,
+                Optional.<Long> absent(), counter.uniqueId());
+        return new Signal("from", Counter.class, event, id, time, to, counter.uniqueId());
+    }
+
+    private static Merged merged(Signal<?> signal) {
+        return new Merged(signal, Collections.<Signal<?>> emptyList());
+    }
+
+    /**
+     * Processes the signals to one entity in batches, checking that none are
+     * left in flight.
+     */
+    private void process(List<Merged> signals, SignalProcessorListener listener,
+            int maxBatchSize, long maxBatchTimeMs) {
+        InFlightSignals inFlight = new InFlightSignals();
+        SignalProcessor processor = new SignalProcessor(emf, listener,
+                SignalListenerDoesNothing.getInstance(), new SignalAcknowledgerDelete(),
+                SignalFailureHandlerDoesNothing.getInstance(), OptimisticLockRetry.none(),
+                false, Optional.<ResidentActorMetrics> absent(), inFlight, null);
+        try {
+            for (Merged merged : signals)
+                for (int i = 0; i < 1 + merged.getReplaced().size(); i++)
+                    inFlight.increment();
+            processor.process(signals, maxBatchSize, maxBatchTimeMs);
+            assertEquals(0, inFlight.get());
+        } finally {
+            processor.close();
+        }
+    }
+
+    private QueuedSignal find(long id) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(QueuedSignal.class, id);
+        } finally {
+            em.close();
+        }
+    }
+
+    private boolean awaitEmptyQueue() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (signaller.queueSize() > 0) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void start(SignallerConfig config, SignalProcessorListenerFactory listenerFactory) {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+        signaller = new Signaller(emf, config, listenerFactory);
+        Counter.setSignaller_(signaller);
+    }
+
+    /**
+     * Records failures and the number of signals committed by each
+     * transaction, which calls {@link #afterProcessing} for its signals only
+     * once it has committed.
+     */
+    private static class RecordingListener implements SignalProcessorListener {
+
+        private final long sleepMs;
+        final List<Long> failed = Lists.newArrayList();
+        final List<Integer> transactionSizes = Lists.newArrayList();
+        private boolean afterProcessing;
+
+        RecordingListener(long sleepMs) {
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public void beforeProcessing(Signal<?> signal, EntityActor actor) {
+            afterProcessing = false;
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void afterProcessing(Signal<?> signal, EntityActor actor) {
+            if (afterProcessing)
+                transactionSizes.set(transactionSizes.size() - 1,
+                        transactionSizes.get(transactionSizes.size() - 1) + 1);
+            else
+                transactionSizes.add(1);
+            afterProcessing = true;
+        }
+
+        @Override
+        public void failure(Signal<?> signal, Exception e, EntityActor actor) {
+            afterProcessing = false;
+            failed.add(signal.getId());
+        }
+    }
+
+    private static final class ThrowingAfterProcessing implements SignalProcessorListener {
+
+        @Override
+        public void beforeProcessing(Signal<?> signal, EntityActor actor) {
+        }
+
+        @Override
+        public void afterProcessing(Signal<?> signal, EntityActor actor) {
+            throw new RuntimeException("listener failed on purpose");
+        }
+
+        @Override
+        public void failure(Signal<?> signal, Exception e, EntityActor actor) {
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.primitives.Ints;
+
+public class SignalRecoveryTest {
+
+    @Test
+    public void testOneLaneGetsWholePage() {
+        assertEquals(Arrays.asList(1000), Ints.asList(SignalRecovery.lanePageSizes(1, 1000)));
+    }
+
+    @Test
+    public void testEachLaneGetsTwiceThePageOfTheNext() {
+        assertEquals(Arrays.asList(666, 333),
+                Ints.asList(SignalRecovery.lanePageSizes(2, 1000)));
+        assertEquals(Arrays.asList(571, 285, 142),
+                Ints.asList(SignalRecovery.lanePageSizes(3, 1000)));
+    }
+
+    @Test
+    public void testLowLanesGetMinimumPage() {
+        assertEquals(Arrays.asList(516, 258, 129, 64, 50),
+                Ints.asList(SignalRecovery.lanePageSizes(5, 1000)));
+        int[] sizes = SignalRecovery.lanePageSizes(20, 1000);
+        assertEquals(SignalRecovery.MIN_LANE_PAGE_SIZE, sizes[sizes.length - 1]);
+    }
+
+    @Test
+    public void testMinimumPageIsAtMostThePageSize() {
+        assertEquals(Arrays.asList(10, 10, 10, 10),
+                Ints.asList(SignalRecovery.lanePageSizes(4, 10)));
+    }
+
+}
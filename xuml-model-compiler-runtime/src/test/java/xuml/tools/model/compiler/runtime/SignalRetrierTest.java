@@ -0,0 +1,155 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class SignalRetrierTest {
+
+    private static final long INITIAL_BACKOFF_MS = 10000;
+
+    private EntityManagerFactory emf;
+    private Signaller signaller;
+    private SignalRetrier retrier;
+    private final List<Signal<?>> scheduled = new CopyOnWriteArrayList<Signal<?>>();
+
+    @Before
+    public void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+        SignallerConfig config = SignallerConfig.builder()
+                .signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS).transactionalOutbox(true)
+                .retry(2, INITIAL_BACKOFF_MS, INITIAL_BACKOFF_MS * 10, TimeUnit.MILLISECONDS)
+                .build();
+        signaller = new Signaller(emf, config, null);
+        Counter.setSignaller_(signaller);
+        retrier = new SignalRetrier(emf, config, scheduled::add, new QueueSizeEstimate());
+        Counter.create(emf, "a");
+    }
+
+    @After
+    public void tearDown() {
+        signaller.stop();
+        // closes the entity manager factory which drops the tables
+        signaller.close();
+    }
+
+    @Test
+    public void testFirstFailureWaitsInitialBackoff() {
+        assertEquals(100, SignalRetrier.backoffMs(1, 100, 10000));
+    }
+
+    @Test
+    public void testBackoffDoublesWithEachFailure() {
+        assertEquals(200, SignalRetrier.backoffMs(2, 100, 10000));
+        assertEquals(400, SignalRetrier.backoffMs(3, 100, 10000));
+        assertEquals(800, SignalRetrier.backoffMs(4, 100, 10000));
+    }
+
+    @Test
+    public void testBackoffIsCappedAtMax() {
+        assertEquals(1000, SignalRetrier.backoffMs(5, 100, 1000));
+        assertEquals(1000, SignalRetrier.backoffMs(Integer.MAX_VALUE, 100, 1000));
+    }
+
+    @Test
+    public void testBackoffDoesNotOverflow() {
+        assertEquals(Long.MAX_VALUE, SignalRetrier.backoffMs(100, 1, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testFailureIsCountedAndSignalRescheduledAfterBackoff() {
+        Signal<?> signal = persistIncrement();
+        long start = System.currentTimeMillis();
+        retrier.failed(signal, new RuntimeException("boom"));
+        QueuedSignal row = find(signal.getId());
+        assertEquals(1, row.numFailures);
+        assertEquals(QueuedSignal.Status.QUEUED, row.status);
+        assertTrue(row.time.getTime() >= start + INITIAL_BACKOFF_MS);
+        assertEquals(row.timeFirstFailure, row.timeLastFailure);
+        assertEquals(1, scheduled.size());
+        assertEquals(signal.getId(), scheduled.get(0).getId());
+        assertEquals(row.time.getTime(), (long) scheduled.get(0).getTime());
+    }
+
+    @Test
+    public void testSignalIsDeadLetteredAfterMaxAttempts() {
+        Signal<?> signal = persistIncrement();
+        retrier.failed(signal, new RuntimeException("boom"));
+        retrier.failed(signal, new RuntimeException("boom again"));
+        assertNull(find(signal.getId()));
+        assertEquals(1, scheduled.size());
+        List<DeadLetterSignal> dead = signaller.deadLetters(10);
+        assertEquals(1, dead.size());
+        assertEquals(signal.getId(), dead.get(0).id);
+        assertEquals(2, dead.get(0).numFailures);
+        assertTrue(dead.get(0).failure.contains("boom again"));
+    }
+
+    @Test
+    public void testFailureOfAcknowledgedSignalIsIgnored() {
+        Signal<?> signal = persistIncrement();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        new SignalAcknowledgerDelete().acknowledge(em, signal.getId());
+        em.getTransaction().commit();
+        em.close();
+        retrier.failed(signal, new RuntimeException("boom"));
+        assertTrue(scheduled.isEmpty());
+        assertEquals(0, signaller.deadLetterCount());
+    }
+
+    @Test
+    public void testReplayedDeadLetterIsPerformed() throws InterruptedException {
+        Signal<?> signal = persistIncrement();
+        retrier.failed(signal, new RuntimeException("boom"));
+        retrier.failed(signal, new RuntimeException("boom"));
+        assertTrue(signaller.replayDeadLetter(signal.getId()));
+        assertFalse(signaller.replayDeadLetter(signal.getId()));
+        assertTrue(signaller.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(0, signaller.deadLetterCount());
+        assertEquals(0, signaller.queueSize());
+        assertEquals(1, Counter.count(emf, "a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetryRequiresTransactionalOutbox() {
+        SignallerConfig.builder().retry(1, 1, 1, TimeUnit.SECONDS).build();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Signal<?> persistIncrement() {
+        Counter counter = Counter.find(emf, "a");
+        long time = System.currentTimeMillis();
+        long id = signaller.persistSignal("from", "a", Counter.class, new Counter.Increment(),
+                time, Optional.<Long> absent(), counter.uniqueId());
+        return new Signal("from", Counter.class, new Counter.Increment(), id, time, "a",
+                counter.uniqueId());
+    }
+
+    private QueuedSignal find(long id) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.find(QueuedSignal.class, id);
+        } finally {
+            em.close();
+        }
+    }
+
+}
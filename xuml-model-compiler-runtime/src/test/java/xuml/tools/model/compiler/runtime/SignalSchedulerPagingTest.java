@@ -0,0 +1,161 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+/**
+ * Pages delayed signals in from an H2 queued signal table and checks that
+ * they can be cancelled and superseded like signals scheduled in memory.
+ */
+public class SignalSchedulerPagingTest {
+
+    private static EntityManagerFactory emf;
+
+    @BeforeClass
+    public static void setup() {
+        emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        emf.close();
+    }
+
+    @After
+    public void deleteSignals() {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("delete from " + QueuedSignal.class.getSimpleName()).executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    @Test
+    public void testPagedInSignalCanBeCancelled() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        pageIn(scheduler, persist(1, "A", scheduler.getHorizonEnd() + 10));
+        assertEquals(1, scheduler.scheduledCount());
+        scheduler.cancel("from", "to", "A");
+        assertEquals(0, scheduler.scheduledCount());
+        assertTrue(scheduler.isIdle());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testPagedInSignalIsSupersededByLaterSignal() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        pageIn(scheduler, persist(1, "A", scheduler.getHorizonEnd() + 10));
+        scheduler.schedule(signal(2, "A", System.currentTimeMillis() + 50));
+        assertEquals(1, scheduler.scheduledCount());
+        waitForIdle(scheduler);
+        assertEquals(1, dispatcher.signals.size());
+        assertEquals(2, dispatcher.signals.get(0).getId());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testPagedInSignalReplacedBeforePagingIsNotScheduled()
+            throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        // sent while the page holding signal 1 was being read
+        scheduler.schedule(signal(2, "A", System.currentTimeMillis() + 50));
+        pageIn(scheduler, persist(1, "A", scheduler.getHorizonEnd() + 10));
+        assertEquals(1, scheduler.scheduledCount());
+        waitForIdle(scheduler);
+        assertEquals(1, dispatcher.signals.size());
+        assertEquals(2, dispatcher.signals.get(0).getId());
+        scheduler.stop();
+    }
+
+    private static SignalScheduler createScheduler(SignalDispatcher dispatcher) {
+        // the horizon is long enough that only the test polls
+        return new SignalScheduler(emf, dispatcher, new Function<QueuedSignal, Signal<?>>() {
+            @Override
+            public Signal<?> apply(QueuedSignal sig) {
+                return signal(sig.id, sig.eventSignatureKey, sig.time.getTime());
+            }
+        }, 1, TimeUnit.HOURS, 100);
+    }
+
+    private static long persist(long id, String signatureKey, long time) {
+        QueuedSignal sig = new QueuedSignal(id, String.class.getName(), new byte[0],
+                Entity.class.getName(), Event.class.getName(), signatureKey, new byte[0], time,
+                Optional.<Long> absent(), "from", "to");
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(sig);
+        em.getTransaction().commit();
+        em.close();
+        return time;
+    }
+
+    private static void pageIn(SignalScheduler scheduler, long time)
+            throws InterruptedException {
+        // the signal is due after the horizon so is paged in once the clock
+        // has moved past it
+        while (System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1) < time)
+            Thread.sleep(5);
+        scheduler.poll();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal(long id, final String signatureKey, long time) {
+        Event<Object> event = new Event<Object>() {
+            @Override
+            public String signatureKey() {
+                return signatureKey;
+            }
+        };
+        return new Signal("from", Entity.class, event, id, time, "1", "to");
+    }
+
+    private static void waitForIdle(SignalScheduler scheduler) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!scheduler.isIdle()
+                && System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5))
+            Thread.sleep(10);
+        assertTrue(scheduler.isIdle());
+    }
+
+    private static final class RecordingDispatcher implements SignalDispatcher {
+
+        final List<Signal<?>> signals = new CopyOnWriteArrayList<Signal<?>>();
+
+        @Override
+        public void dispatch(Signal<?> signal) {
+            signals.add(signal);
+        }
+
+        @Override
+        public long activeEntities() {
+            return 0;
+        }
+
+        @Override
+        public boolean stop() {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class SignalSchedulerTest {
+
+    @Test
+    public void testSignalInWindowIsDispatchedWhenDue() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        scheduler.schedule(signal(1, "A", 50));
+        assertEquals(1, scheduler.scheduledCount());
+        waitFor(dispatcher, 1);
+        assertEquals(1, dispatcher.signals.get(0).getId());
+        assertEquals(0, scheduler.scheduledCount());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testSignalBeyondHorizonIsNotHeldInMemory() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        scheduler.schedule(signal(1, "A", TimeUnit.HOURS.toMillis(2)));
+        assertEquals(0, scheduler.scheduledCount());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testLaterSignalOfSameSignatureReplacesEarlier() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        scheduler.schedule(signal(1, "A", 50));
+        scheduler.schedule(signal(2, "A", 100));
+        scheduler.schedule(signal(3, "B", 100));
+        assertEquals(2, scheduler.scheduledCount());
+        waitFor(dispatcher, 2);
+        // nothing is left to fire once idle
+        assertTrue(scheduler.isIdle());
+        assertEquals(2, dispatcher.signals.size());
+        for (Signal<?> signal : dispatcher.signals)
+            assertTrue(signal.getId() != 1);
+        scheduler.stop();
+    }
+
+    @Test
+    public void testCancel() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        scheduler.schedule(signal(1, "A", 10000));
+        scheduler.cancel("from", "to", "A");
+        assertEquals(0, scheduler.scheduledCount());
+        assertTrue(scheduler.isIdle());
+        assertEquals(0, dispatcher.signals.size());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testNotIdleUntilScheduledSignalDispatched() throws InterruptedException {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        assertTrue(scheduler.isIdle());
+        scheduler.schedule(signal(1, "A", 50));
+        assertFalse(scheduler.isIdle());
+        waitFor(dispatcher, 1);
+        assertTrue(scheduler.isIdle());
+        scheduler.stop();
+    }
+
+    @Test
+    public void testIdleAfterCancelAndReplace() {
+        RecordingDispatcher dispatcher = new RecordingDispatcher();
+        SignalScheduler scheduler = createScheduler(dispatcher);
+        scheduler.schedule(signal(1, "A", 10000));
+        scheduler.schedule(signal(2, "A", 10000));
+        assertEquals(1, scheduler.scheduledCount());
+        scheduler.cancel("from", "to", "A");
+        assertTrue(scheduler.isIdle());
+        scheduler.stop();
+    }
+
+    private static SignalScheduler createScheduler(SignalDispatcher dispatcher) {
+        // the poller does not run within the tests so no database is needed
+        return new SignalScheduler(null, dispatcher, null, 1, TimeUnit.HOURS, 100);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal(long id, final String signatureKey, long delayMs) {
+        Event<Object> event = new Event<Object>() {
+            @Override
+            public String signatureKey() {
+                return signatureKey;
+            }
+        };
+        return new Signal("from", Entity.class, event, id,
+                System.currentTimeMillis() + delayMs, "1", "to");
+    }
+
+    private static void waitFor(RecordingDispatcher dispatcher, int count)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (dispatcher.signals.size() < count
+                && System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5))
+            Thread.sleep(10);
+        assertEquals(count, dispatcher.signals.size());
+    }
+
+    private static final class RecordingDispatcher implements SignalDispatcher {
+
+        final List<Signal<?>> signals = new CopyOnWriteArrayList<Signal<?>>();
+
+        @Override
+        public void dispatch(Signal<?> signal) {
+            signals.add(signal);
+        }
+
+        @Override
+        public long activeEntities() {
+            return 0;
+        }
+
+        @Override
+        public boolean stop() {
+            return true;
+        }
+    }
+
+}
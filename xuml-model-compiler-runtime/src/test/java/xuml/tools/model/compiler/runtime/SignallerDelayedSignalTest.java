@@ -0,0 +1,133 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import scala.concurrent.duration.Duration;
+
+/**
+ * Checks against H2 that a delayed signal replaces the earlier delayed signal
+ * of the same signature in the transaction that sent it.
+ */
+public class SignallerDelayedSignalTest {
+
+    private Signaller signaller;
+
+    @Before
+    public void setup() {
+        EntityManagerFactory emf = Persistence.createEntityManagerFactory("xuml-runtime-test");
+        signaller = new Signaller(emf, SignallerConfig.builder()
+                .signalDispatcher(SignalDispatcherType.VIRTUAL_THREADS).build(), null);
+    }
+
+    @After
+    public void tearDown() {
+        signaller.stop();
+        // closes the entity manager factory which drops the tables
+        signaller.close();
+    }
+
+    @Test
+    public void testDelayedSignalFromOutsideAnEntityReplacesEarlierOne() {
+        Thing thing = new Thing(signaller);
+        signaller.signal("from", thing, new Tick(), delay());
+        signaller.signal("from", thing, new Tick(), delay());
+        assertEquals(1, signaller.queuedSignals().size());
+    }
+
+    @Test
+    public void testReplacedSignalIsKeptIfEntityTransactionRollsBack() {
+        Thing thing = new Thing(signaller);
+        signaller.signal("from", thing, new Tick(), delay());
+        long original = signaller.queuedSignals().get(0).id;
+        EntityManager em = signaller.getEntityManagerFactory().createEntityManager();
+        em.getTransaction().begin();
+        Thing sender = new Thing(signaller);
+        signaller.getInfo().setCurrentEntity(sender);
+        signaller.getInfo().setCurrentEntityManager(em);
+        try {
+            signaller.signal("from", thing, new Tick(), delay());
+        } finally {
+            signaller.getInfo().setCurrentEntity(null);
+            signaller.getInfo().setCurrentEntityManager(null);
+            em.getTransaction().rollback();
+            em.close();
+        }
+        List<QueuedSignal> signals = signaller.queuedSignals();
+        boolean found = false;
+        for (QueuedSignal signal : signals)
+            found |= signal.id == original;
+        assertTrue(found);
+    }
+
+    private static Optional<Duration> delay() {
+        return Optional.<Duration> of(Duration.create(1, TimeUnit.HOURS));
+    }
+
+    @SuppressWarnings("serial")
+    static class Tick implements Event<Thing>, Serializable {
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+    }
+
+    static class Thing implements Entity<Thing> {
+
+        private final EntityHelper helper;
+
+        Thing(Signaller signaller) {
+            this.helper = new EntityHelper(signaller, this);
+        }
+
+        @Override
+        public Serializable getId() {
+            return "1";
+        }
+
+        @Override
+        public String uniqueId() {
+            return Thing.class.getName() + ":1";
+        }
+
+        @Override
+        public Thing signal(Event<Thing> event) {
+            return this;
+        }
+
+        @Override
+        public Thing signal(Event<Thing> event, Duration delay) {
+            return this;
+        }
+
+        @Override
+        public Thing signal(Event<Thing> event, long time) {
+            return this;
+        }
+
+        @Override
+        public Thing event(Event<Thing> event) {
+            return this;
+        }
+
+        @Override
+        public EntityHelper helper() {
+            return helper;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+public class TypeRegistryTest {
+
+    @Test
+    public void testClassForNameOfUnregisteredClass() {
+        assertEquals(String.class, TypeRegistry.classForName("java.lang.String"));
+    }
+
+    @Test
+    public void testClassForNameOfNestedClassUsesBinaryName() {
+        TypeRegistry.registerClass(Thing.class);
+        assertEquals(Thing.class, TypeRegistry.classForName(Thing.class.getName()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testClassForNameThrowsIfNotFound() {
+        TypeRegistry.classForName("does.not.Exist");
+    }
+
+    @Test
+    public void testNewInstanceUsesRegisteredConstructor() {
+        TypeRegistry.registerEntity(Thing.class, () -> new Thing("registered"));
+        assertEquals("registered", TypeRegistry.newInstance(Thing.class).name);
+    }
+
+    @Test
+    public void testNewInstanceOfUnregisteredClassUsesNoArgConstructor() {
+        assertTrue(TypeRegistry.newInstance(Other.class) instanceof Other);
+    }
+
+    @Test
+    public void testRedeployedEntityReplacesTheOneOfTheSameName() throws Exception {
+        TypeRegistry.registerEntity(Other.class, () -> new Other());
+        Class<?> redeployed = redeploy(Other.class);
+        assertNotSame(Other.class, redeployed);
+        // not built by the constructor registered for the old class
+        assertTrue(redeployed.isInstance(TypeRegistry.newInstance(redeployed)));
+        registerEntity(redeployed);
+        assertEquals(redeployed, TypeRegistry.classForName(Other.class.getName()));
+        assertTrue(redeployed.isInstance(TypeRegistry.newInstance(redeployed)));
+    }
+
+    @Test
+    public void testPreviousDeploymentIsNotKeptReachable() throws Exception {
+        Class<?> first = redeploy(Other.class);
+        registerEntity(first);
+        WeakReference<ClassLoader> loader = new WeakReference<ClassLoader>(first.getClassLoader());
+        first = null;
+        registerEntity(redeploy(Other.class));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (loader.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader.get());
+    }
+
+    private static <T> void registerEntity(Class<T> cls) {
+        TypeRegistry.registerEntity(cls, () -> {
+            try {
+                return cls.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Loads the class again from its location with a class loader that does
+     * not delegate to the one that loaded it, as a redeployment would.
+     */
+    @SuppressWarnings("resource")
+    private static Class<?> redeploy(Class<?> cls) throws ClassNotFoundException {
+        URL location = cls.getProtectionDomain().getCodeSource().getLocation();
+        return new URLClassLoader(new URL[] { location }, null).loadClass(cls.getName());
+    }
+
+    static class Thing {
+        final String name;
+
+        Thing(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class Other {
+    }
+
+}
@@ -0,0 +1,155 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class UtilTest {
+
+    @Test
+    public void testRoundTrip() {
+        Holder holder = new Holder("abc", new Value(12));
+        Holder h = Util.toObject(Util.toBytes(holder), Holder.class);
+        assertEquals("abc", h.name);
+        assertEquals(12, ((Value) h.value).n);
+    }
+
+    @Test
+    public void testNullRoundTrip() {
+        assertNull(Util.toObject(Util.toBytes(null), Holder.class));
+    }
+
+    @Test
+    public void testRegisteredClassIsWrittenMoreCompactlyAndStillReadable() {
+        Holder holder = new Holder("abc", new Registered(5));
+        byte[] before = Util.toBytes(holder);
+        KryoRegistry.register(Registered.class,
+                KryoRegistry.idFor(Registered.class.getCanonicalName()));
+        byte[] after = Util.toBytes(holder);
+        assertTrue(after.length < before.length);
+        assertEquals(5, ((Registered) Util.toObject(before, Holder.class).value).n);
+        assertEquals(5, ((Registered) Util.toObject(after, Holder.class).value).n);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRegisteringClassWithDifferentIdThrows() {
+        KryoRegistry.register(Other.class, 1000);
+        KryoRegistry.register(Other.class, 1001);
+    }
+
+    @Test
+    public void testRegisteringClassFromNewClassLoaderReplacesIt() throws Exception {
+        int id = KryoRegistry.idFor(Redeployed.class.getCanonicalName());
+        KryoRegistry.register(Redeployed.class, id);
+        URL classes = Redeployed.class.getProtectionDomain().getCodeSource().getLocation();
+        // no parent so that the class is loaded again as on redeploy
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classes }, null)) {
+            Class<?> redeployed = loader.loadClass(Redeployed.class.getName());
+            assertNotSame(Redeployed.class, redeployed);
+            KryoRegistry.register(redeployed, id);
+            assertSame(redeployed, KryoRegistry.classForTypeId(id));
+            assertEquals(Optional.of(id), KryoRegistry.typeId(Redeployed.class.getName()));
+        }
+    }
+
+    @Test
+    public void testTypeIds() {
+        int id = KryoRegistry.idFor(Typed.class.getCanonicalName());
+        KryoRegistry.register(Typed.class, id);
+        assertEquals(Optional.of(id), KryoRegistry.typeId(Typed.class.getName()));
+        assertSame(Typed.class, KryoRegistry.classForTypeId(id));
+        int stringId = KryoRegistry.typeId(String.class.getName()).get();
+        assertTrue(stringId < KryoRegistry.MIN_ID);
+        assertSame(String.class, KryoRegistry.classForTypeId(stringId));
+        assertEquals(Optional.<Integer> absent(), KryoRegistry.typeId(Value.class.getName()));
+    }
+
+    @Test
+    public void testQueuedSignalStoresTypeIdsInPlaceOfClassNames() {
+        KryoRegistry.register(Typed.class, KryoRegistry.idFor(Typed.class.getCanonicalName()));
+        QueuedSignal sig = new QueuedSignal(String.class.getName(), new byte[0],
+                Entity.class.getName(), Typed.class.getName(), new byte[0], 0,
+                Optional.<Long> absent(), "from", "to");
+        assertNull(sig.idClassName);
+        assertNull(sig.eventClassName);
+        assertSame(String.class, sig.idClass());
+        assertSame(Typed.class, sig.eventClass());
+    }
+
+    @Test
+    public void testQueuedSignalStoresNameOfClassWithoutTypeId() {
+        QueuedSignal sig = new QueuedSignal(Value.class.getName(), new byte[0],
+                Entity.class.getName(), Value.class.getName(), new byte[0], 0,
+                Optional.<Long> absent(), "from", "to");
+        assertNull(sig.idTypeId);
+        assertEquals(Value.class.getName(), sig.eventClassName);
+        assertSame(Value.class, sig.eventClass());
+    }
+
+    @Test
+    public void testDirectByteBufferRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        buffer.putInt(7);
+        int n = Util.toBytes(new Holder("abc", new Value(3)), buffer);
+        assertEquals(4 + n, buffer.position());
+        buffer.flip();
+        assertEquals(7, buffer.getInt());
+        Holder h = Util.toObject(buffer, Holder.class);
+        assertEquals("abc", h.name);
+        assertEquals(3, ((Value) h.value).n);
+        assertTrue(!buffer.hasRemaining());
+    }
+
+    @SuppressWarnings("serial")
+    static class Holder implements Serializable {
+        String name;
+        Object value;
+
+        Holder(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Value implements Serializable {
+        int n;
+
+        Value(int n) {
+            this.n = n;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Registered implements Serializable {
+        int n;
+
+        Registered(int n) {
+            this.n = n;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class Other implements Serializable {
+    }
+
+    @SuppressWarnings("serial")
+    public static class Redeployed implements Serializable {
+    }
+
+    @SuppressWarnings("serial")
+    static class Typed implements Serializable {
+    }
+
+}
@@ -0,0 +1,41 @@
+package xuml.tools.model.compiler.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class VirtualThreadSignalDispatcherTest {
+
+    @Test
+    public void testDispatchAfterStopLeavesNoMailbox() {
+        InFlightSignals inFlight = new InFlightSignals();
+        VirtualThreadSignalDispatcher dispatcher = new VirtualThreadSignalDispatcher(null, null,
+                SignalListenerDoesNothing.getInstance(), new SignalAcknowledgerDelete(),
+                SignalFailureHandlerDoesNothing.getInstance(), OptimisticLockRetry.none(),
+                inFlight, 1, 0);
+        dispatcher.stop();
+        try {
+            dispatcher.dispatch(signal());
+            throw new AssertionError("expected rejection");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(0, dispatcher.activeEntities());
+        assertEquals(0, inFlight.get());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal() {
+        return new Signal("from", Entity.class, new Event<Object>() {
+            @Override
+            public String signatureKey() {
+                return "";
+            }
+        }, 1, System.currentTimeMillis(), "1", "to");
+    }
+
+}
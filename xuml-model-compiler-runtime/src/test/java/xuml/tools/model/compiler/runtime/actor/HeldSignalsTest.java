@@ -0,0 +1,87 @@
+package xuml.tools.model.compiler.runtime.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import xuml.tools.model.compiler.runtime.Entity;
+import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.actor.SignalPriorityMailboxTest.Plain;
+import xuml.tools.model.compiler.runtime.actor.SignalPriorityMailboxTest.Urgent;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class HeldSignalsTest {
+
+    private long id;
+
+    @Test
+    public void testEntityWithHighestPrioritySignalIsServedFirst() {
+        HeldSignals held = new HeldSignals();
+        Signal<?> low = signal("a", new Plain());
+        Signal<?> high = signal("b", new Urgent(5));
+        held.add(low);
+        held.add(high);
+        assertEquals(high, held.poll());
+        assertEquals(low, held.poll());
+        assertTrue(held.isEmpty());
+    }
+
+    @Test
+    public void testEntitiesOfEqualPriorityAreServedInArrivalOrder() {
+        HeldSignals held = new HeldSignals();
+        Signal<?> a = signal("a", new Plain());
+        Signal<?> b = signal("b", new Plain());
+        Signal<?> a2 = signal("a", new Plain());
+        held.add(a);
+        held.add(b);
+        held.add(a2);
+        assertEquals(a, held.poll());
+        assertEquals(b, held.poll());
+        assertEquals(a2, held.poll());
+    }
+
+    @Test
+    public void testHighPrioritySignalDoesNotOvertakeSignalsToTheSameEntity() {
+        HeldSignals held = new HeldSignals();
+        Signal<?> other = signal("b", new Urgent(1));
+        Signal<?> first = signal("a", new Plain());
+        Signal<?> second = signal("a", new Urgent(-1));
+        Signal<?> urgent = signal("a", new Urgent(5));
+        held.add(other);
+        held.add(first);
+        held.add(second);
+        held.add(urgent);
+        // a is served first because it holds the highest priority signal,
+        // its signals in the order they arrived
+        assertEquals(Lists.newArrayList(first, second, urgent, other), pollAll(held));
+    }
+
+    @Test
+    public void testContainsEntitiesWithHeldSignals() {
+        HeldSignals held = new HeldSignals();
+        held.add(signal("a", new Plain()));
+        assertTrue(held.contains("a"));
+        assertFalse(held.contains("b"));
+        held.poll();
+        assertFalse(held.contains("a"));
+    }
+
+    private static List<Signal<?>> pollAll(HeldSignals held) {
+        List<Signal<?>> list = Lists.newArrayList();
+        while (!held.isEmpty())
+            list.add(held.poll());
+        return list;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Signal<?> signal(String to, Event<?> event) {
+        return new Signal("from", Entity.class, event, id++, System.currentTimeMillis(), to, to);
+    }
+
+}
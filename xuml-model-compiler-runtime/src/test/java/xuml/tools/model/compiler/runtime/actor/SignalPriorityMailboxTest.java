@@ -0,0 +1,75 @@
+package xuml.tools.model.compiler.runtime.actor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import xuml.tools.model.compiler.runtime.Entity;
+import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.PrioritisedEvent;
+import xuml.tools.model.compiler.runtime.message.ActorConfig;
+import xuml.tools.model.compiler.runtime.message.CloseEntityActor;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class SignalPriorityMailboxTest {
+
+    @Test
+    public void testSignalPriorityIsZeroForPlainEvents() {
+        assertEquals(0, signal(new Plain()).getPriority());
+    }
+
+    @Test
+    public void testSignalPriorityComesFromPrioritisedEvent() {
+        assertEquals(5, signal(new Urgent(5)).getPriority());
+    }
+
+    @Test
+    public void testSignalsKeepTheirOrderWhateverTheirPriority() {
+        assertEquals(order(signal(new Plain())), order(signal(new Urgent(5))));
+        assertEquals(order(signal(new Plain())), order(signal(new Urgent(-5))));
+    }
+
+    @Test
+    public void testConfigurationAndCloseGoBeforeAnySignal() {
+        int first = order(signal(new Urgent(Integer.MAX_VALUE)));
+        assertTrue(order(new ActorConfig(1)) < first);
+        assertTrue(order(new CloseEntityActor("to")) < first);
+    }
+
+    private static int order(Object message) {
+        return SignalPriorityMailbox.order(message);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Signal<?> signal(Event<?> event) {
+        return new Signal("from", Entity.class, event, 1, System.currentTimeMillis(), "1",
+                "to");
+    }
+
+    static class Plain implements Event<Object> {
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+    }
+
+    static class Urgent implements PrioritisedEvent<Object> {
+        final int priority;
+
+        Urgent(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public String signatureKey() {
+            return "";
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+    }
+
+}
@@ -67,8 +67,8 @@ public class AbcTest {
         // send asynchronous signal to a3 after a tiny delay (5ms)
         a3.signal(new A.Events.SomethingDone(13), Duration.create(5, TimeUnit.MILLISECONDS));
 
-        // wait a bit for all signals to be processed
-        Thread.sleep(2000);
+        // wait for all signals (and any signals they cause) to be processed
+        assertTrue(Context.awaitIdle(30, TimeUnit.SECONDS));
 
         // Check the signals were processed
 
@@ -163,8 +163,8 @@ public class AbcTest {
         Context.persistSignal("fromSomeId", a.getId(), A.class, new A.Events.SomethingDone(14),
                 System.currentTimeMillis(), Optional.<Long> absent(), a.uniqueId());
         assertEquals(1, Context.sendSignalsInQueue());
-        // wait a bit for all signals to be processed
-        Thread.sleep(2000);
+        // wait for all signals to be processed
+        assertTrue(Context.awaitIdle(30, TimeUnit.SECONDS));
 
         // Refresh the entities from the database using the
         // load method and check the signals were processed
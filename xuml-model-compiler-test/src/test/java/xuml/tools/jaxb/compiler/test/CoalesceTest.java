@@ -0,0 +1,34 @@
+package xuml.tools.jaxb.compiler.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import coalesce.Sensor;
+import xuml.tools.model.compiler.runtime.CoalescibleEvent;
+import xuml.tools.model.compiler.runtime.IdempotentEvent;
+
+public class CoalesceTest {
+
+    @Test
+    public void testEventsNamedWithDefaultModeAreCoalescible() {
+        assertTrue(CoalescibleEvent.class.isAssignableFrom(Sensor.Events.Measure.class));
+        assertFalse(IdempotentEvent.class.isAssignableFrom(Sensor.Events.Measure.class));
+    }
+
+    @Test
+    public void testEventsNamedWithIdempotentModeAreIdempotent() {
+        assertTrue(IdempotentEvent.class.isAssignableFrom(Sensor.Events.Reset.class));
+        assertFalse(CoalescibleEvent.class.isAssignableFrom(Sensor.Events.Reset.class));
+    }
+
+    @Test
+    public void testOtherEventsAreNotCoalesced() {
+        assertFalse(CoalescibleEvent.class.isAssignableFrom(Sensor.Events.Create.class));
+        assertFalse(IdempotentEvent.class.isAssignableFrom(Sensor.Events.Create.class));
+        assertFalse(CoalescibleEvent.class.isAssignableFrom(Sensor.Events.Start.class));
+        assertFalse(IdempotentEvent.class.isAssignableFrom(Sensor.Events.Start.class));
+    }
+
+}
@@ -0,0 +1,36 @@
+package xuml.tools.jaxb.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import priority.Job;
+import xuml.tools.model.compiler.runtime.PrioritisedEvent;
+import xuml.tools.model.compiler.runtime.message.Signal;
+
+public class PriorityTest {
+
+    @Test
+    public void testEventsNamedInPriorityExtensionArePrioritised() {
+        assertTrue(PrioritisedEvent.class.isAssignableFrom(Job.Events.Cancel.class));
+        assertTrue(PrioritisedEvent.class.isAssignableFrom(Job.Events.Report.class));
+        assertEquals(10, new Job.Events.Cancel().priority());
+        assertEquals(-1, new Job.Events.Report().priority());
+    }
+
+    @Test
+    public void testOtherEventsAreNotPrioritised() {
+        assertFalse(PrioritisedEvent.class.isAssignableFrom(Job.Events.Create.class));
+        assertFalse(PrioritisedEvent.class.isAssignableFrom(Job.Events.Run.class));
+    }
+
+    @Test
+    public void testSignalsTakeThePriorityOfTheirEvent() {
+        assertEquals(10, Signal.priority(new Job.Events.Cancel()));
+        assertEquals(-1, Signal.priority(new Job.Events.Report()));
+        assertEquals(0, Signal.priority(new Job.Events.Run()));
+    }
+
+}
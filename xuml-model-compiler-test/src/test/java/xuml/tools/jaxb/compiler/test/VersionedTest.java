@@ -0,0 +1,101 @@
+package xuml.tools.jaxb.compiler.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import javax.persistence.Column;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+import javax.persistence.Version;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Throwables;
+
+import versioned.Account;
+import versioned.Context;
+
+public class VersionedTest {
+
+    @BeforeClass
+    public static void setup() {
+        EntityManagerFactory emf = PersistenceHelper.createEmf("versioned");
+        Context.setEntityManagerFactory(emf, 10);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        Context.close();
+    }
+
+    @Test
+    public void testVersionColumnIsGenerated() throws NoSuchFieldException {
+        Field field = Account.class.getDeclaredField("entityVersion");
+        assertNotNull(field.getAnnotation(Version.class));
+        assertEquals("row_version", field.getAnnotation(Column.class).name());
+    }
+
+    @Test
+    public void testVersionIsIncrementedOnUpdate() {
+        EntityManager em = Context.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Account account = new Account().setId_(1).setBalance_(10).persist(em);
+            em.getTransaction().commit();
+            assertEquals(0, account.getEntityVersion());
+
+            em.getTransaction().begin();
+            account.setBalance(20);
+            em.getTransaction().commit();
+            assertEquals(1, account.getEntityVersion());
+        } finally {
+            em.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentUpdateFailsWithOptimisticLockException() {
+        EntityManager em = Context.createEntityManager();
+        em.getTransaction().begin();
+        new Account().setId_(2).setBalance_(10).persist(em);
+        em.getTransaction().commit();
+        em.close();
+
+        EntityManager em1 = Context.createEntityManager();
+        EntityManager em2 = Context.createEntityManager();
+        try {
+            em1.getTransaction().begin();
+            Account account1 = em1.find(Account.class, 2);
+            em2.getTransaction().begin();
+            em2.find(Account.class, 2).setBalance(20);
+            em2.getTransaction().commit();
+
+            // the update based on the stale version is rejected
+            account1.setBalance(30);
+            try {
+                em1.getTransaction().commit();
+                fail("expected the stale update to fail");
+            } catch (RollbackException e) {
+                boolean optimisticLockFailure = false;
+                for (Throwable t : Throwables.getCausalChain(e))
+                    optimisticLockFailure |= t instanceof OptimisticLockException;
+                assertTrue(optimisticLockFailure);
+            }
+        } finally {
+            em1.close();
+            em2.close();
+        }
+        em = Context.createEntityManager();
+        assertEquals(20, (int) em.find(Account.class, 2).getBalance());
+        em.close();
+    }
+
+}
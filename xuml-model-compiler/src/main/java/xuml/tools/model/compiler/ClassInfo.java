@@ -28,10 +28,16 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import xuml.tools.miuml.metamodel.extensions.jaxb.Coalesce;
+import xuml.tools.miuml.metamodel.extensions.jaxb.CoalesceMode;
+import xuml.tools.miuml.metamodel.extensions.jaxb.CoalescedEvent;
 import xuml.tools.miuml.metamodel.extensions.jaxb.Documentation;
 import xuml.tools.miuml.metamodel.extensions.jaxb.Find;
 import xuml.tools.miuml.metamodel.extensions.jaxb.Generation;
 import xuml.tools.miuml.metamodel.extensions.jaxb.Marshaller;
+import xuml.tools.miuml.metamodel.extensions.jaxb.Priority;
+import xuml.tools.miuml.metamodel.extensions.jaxb.PriorityEvent;
+import xuml.tools.miuml.metamodel.extensions.jaxb.Versioned;
 import xuml.tools.miuml.metamodel.jaxb.ActivePerspective;
 import xuml.tools.miuml.metamodel.jaxb.Association;
 import xuml.tools.miuml.metamodel.jaxb.AssociativeReference;
@@ -1102,6 +1108,63 @@ public class ClassInfo {
         return finds;
     }
 
+    /**
+     * Returns the coalescing mode of each event named in an
+     * <code>xt:Coalesce</code> extension of this class keyed by event name.
+     * 
+     * @return coalesced events
+     */
+    public Map<String, CoalesceMode> getCoalescedEvents() {
+        Map<String, CoalesceMode> map = Maps.newHashMap();
+        for (Extension ext : cls.getExtension()) {
+            for (Object any : ext.getAny()) {
+                Object e = getJaxbElementValue(any);
+                if (e != null && e instanceof Coalesce) {
+                    for (CoalescedEvent event : ((Coalesce) e).getEvent())
+                        map.put(event.getName(), event.getMode());
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the priority of each event named in an <code>xt:Priority</code>
+     * extension of this class keyed by event name.
+     * 
+     * @return event priorities
+     */
+    public Map<String, Integer> getEventPriorities() {
+        Map<String, Integer> map = Maps.newHashMap();
+        for (Extension ext : cls.getExtension()) {
+            for (Object any : ext.getAny()) {
+                Object e = getJaxbElementValue(any);
+                if (e != null && e instanceof Priority) {
+                    for (PriorityEvent event : ((Priority) e).getEvent())
+                        map.put(event.getName(), event.getPriority());
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Returns the name of the version column if this class has a
+     * <code>xt:Versioned</code> extension.
+     * 
+     * @return version column name
+     */
+    public Optional<String> getVersionColumnName() {
+        for (Extension ext : cls.getExtension()) {
+            for (Object any : ext.getAny()) {
+                Object e = getJaxbElementValue(any);
+                if (e != null && e instanceof Versioned)
+                    return Optional.of(((Versioned) e).getColumn());
+            }
+        }
+        return Optional.absent();
+    }
+
     public MyTypeDefinition getTypeDefinition(String name) {
         AtomicType t = lookups.getAtomicType(name);
         if (t instanceof SymbolicType)
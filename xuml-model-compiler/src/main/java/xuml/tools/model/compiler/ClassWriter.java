@@ -46,6 +46,7 @@ import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Transient;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
@@ -58,6 +59,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import scala.concurrent.duration.Duration;
+import xuml.tools.miuml.metamodel.extensions.jaxb.CoalesceMode;
 import xuml.tools.model.compiler.ClassInfo.OtherId;
 import xuml.tools.model.compiler.info.Mult;
 import xuml.tools.model.compiler.info.MyAttributeExtensions;
@@ -75,9 +77,12 @@ import xuml.tools.model.compiler.info.MyTransition;
 import xuml.tools.model.compiler.info.MyType;
 import xuml.tools.model.compiler.info.MyTypeDefinition;
 import xuml.tools.model.compiler.runtime.BehaviourFactoryNotSetException;
+import xuml.tools.model.compiler.runtime.CoalescibleEvent;
 import xuml.tools.model.compiler.runtime.CreationEvent;
 import xuml.tools.model.compiler.runtime.EntityHelper;
 import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.IdempotentEvent;
+import xuml.tools.model.compiler.runtime.PrioritisedEvent;
 import xuml.tools.model.compiler.runtime.RelationshipNotEstablishedException;
 import xuml.tools.model.compiler.runtime.Signaller;
 import xuml.tools.model.compiler.runtime.TooManySpecializationsException;
@@ -92,6 +97,7 @@ public class ClassWriter {
 
     private static final String BEHAVIOUR_COMMENT = "All actions like onEntry actions and defined\noperations are performed by this Behaviour class.";
     private static final String STATE_COMMENT = "For internal use only by the state machine but is persisted by the jpa provider.";
+    private static final String VERSION_COMMENT = "Incremented by the jpa provider on each update so that concurrent updates of\nthis entity fail with an OptimisticLockException instead of one being lost.";
     private static final String MEMBER_MODIFIERS = "private";
     private static final int MAX_VARCHAR_LENGTH = 65535;
     public static boolean useJpaJoinedStrategyForSpecialization = false;
@@ -114,12 +120,14 @@ public class ClassWriter {
         writeUniqueIdMethod(out, info);
         writeNonIdIndependentAttributeMembers(out, info, validationMethods);
         writeStateMember(out, info);
+        writeVersionMember(out, info);
         writeReferenceMembers(out, info, validationMethods);
         writeSuperclassValidationCheck(out, info, validationMethods);
         writePreUpdateCheck(out, info, validationMethods);
         writeIdGetterAndSetter(out, info);
         writeNonIdIndependentAttributeGettersAndSetters(out, info);
         writeStateGetterAndSetter(out, info);
+        writeVersionGetter(out, info);
         writeStates(out, info);
         writeEvents(out, info);
         writeSignalMethods(out, info);
@@ -742,6 +750,22 @@ public class ClassWriter {
         }
     }
 
+    private boolean hasVersionMember(ClassInfo info) {
+        // a joined subclass inherits the version of its superclass
+        return info.getVersionColumnName().isPresent()
+                && !(useJpaJoinedStrategyForSpecialization && info.isSubclass());
+    }
+
+    private void writeVersionMember(PrintStream out, ClassInfo info) {
+        if (hasVersionMember(info)) {
+            jd(out, VERSION_COMMENT, "    ");
+            out.format("    @%s\n", info.addType(Version.class));
+            out.format("    @%s(name=\"%s\",nullable=false)\n", info.addType(Column.class),
+                    info.getVersionColumnName().get());
+            out.format("    %s long entityVersion;\n\n", MEMBER_MODIFIERS);
+        }
+    }
+
     private void writeReferenceMembers(PrintStream out, ClassInfo info,
             Set<String> validationMethods) {
         for (MyReferenceMember ref : info.getReferenceMembers()) {
@@ -1004,6 +1028,15 @@ public class ClassWriter {
         }
     }
 
+    private void writeVersionGetter(PrintStream out, ClassInfo info) {
+        if (hasVersionMember(info)) {
+            jd(out, VERSION_COMMENT, "    ");
+            out.format("    public long getEntityVersion(){\n");
+            out.format("        return entityVersion;\n");
+            out.format("    }\n\n");
+        }
+    }
+
     private void writeStates(PrintStream out, ClassInfo info) {
         if (info.hasBehaviour()) {
             jd(out, "The list of all states from the state machine for this entity.", "    ");
@@ -1050,6 +1083,8 @@ public class ClassWriter {
             out.format("        }\n\n");
         }
 
+        Map<String, CoalesceMode> coalescedEvents = info.getCoalescedEvents();
+        Map<String, Integer> eventPriorities = info.getEventPriorities();
         for (MyEvent event : info.getEvents()) {
             String stateSignatureImplements;
             if (event.getStateName() != null)
@@ -1062,14 +1097,34 @@ public class ClassWriter {
                         + info.getJavaClassSimpleName() + ">";
             } else
                 creationEventImplements = "";
+            // xt:Coalesce extension
+            CoalesceMode coalesceMode = coalescedEvents.get(event.getName());
+            String coalesceImplements;
+            if (coalesceMode == CoalesceMode.LATEST)
+                coalesceImplements = ", " + info.addType(CoalescibleEvent.class) + "<"
+                        + info.getJavaClassSimpleName() + ">";
+            else if (coalesceMode == CoalesceMode.IDEMPOTENT)
+                coalesceImplements = ", " + info.addType(IdempotentEvent.class) + "<"
+                        + info.getJavaClassSimpleName() + ">";
+            else
+                coalesceImplements = "";
+            // xt:Priority extension
+            Integer priority = eventPriorities.get(event.getName());
+            String priorityImplements;
+            if (priority != null)
+                priorityImplements = ", " + info.addType(PrioritisedEvent.class) + "<"
+                        + info.getJavaClassSimpleName() + ">";
+            else
+                priorityImplements = "";
             out.println();
             jd(out, "Event implementation for event '" + event.getName() + "'", "        ");
 
             out.format("        @%s(\"serial\")\n", info.addType(SuppressWarnings.class));
-            out.format("        public static class %s implements %s<%s>, %s%s%s {\n\n",
+            out.format("        public static class %s implements %s<%s>, %s%s%s%s%s {\n\n",
                     event.getSimpleClassName(), info.addType(Event.class),
                     info.getJavaClassSimpleName(), info.addType(Serializable.class),
-                    stateSignatureImplements, creationEventImplements);
+                    stateSignatureImplements, creationEventImplements, coalesceImplements,
+                    priorityImplements);
 
             // add signature key method
             StringBuffer signature = new StringBuffer();
@@ -1085,6 +1140,13 @@ public class ClassWriter {
             out.format("                return signatureKey;\n");
             out.format("            }\n");
 
+            if (priority != null) {
+                out.println();
+                out.format("            public int priority() {\n");
+                out.format("                return %s;\n", priority);
+                out.format("            }\n");
+            }
+
             StringBuilder constructorBody = new StringBuilder();
             for (MyParameter p : event.getParameters()) {
                 constructorBody.append(String.format(
@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.math.BigInteger;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,6 +23,7 @@ import javax.xml.bind.JAXBElement;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import xuml.tools.miuml.metamodel.jaxb.Class;
 import xuml.tools.miuml.metamodel.jaxb.Domains;
@@ -27,12 +31,18 @@ import xuml.tools.miuml.metamodel.jaxb.LocalEffectiveSignalingEvent;
 import xuml.tools.miuml.metamodel.jaxb.ModeledDomain;
 import xuml.tools.miuml.metamodel.jaxb.Subsystem;
 import xuml.tools.miuml.metamodel.jaxb.SubsystemElement;
+import xuml.tools.model.compiler.info.MyEvent;
+import xuml.tools.model.compiler.runtime.ClusterLease;
 import xuml.tools.model.compiler.runtime.CreationEvent;
+import xuml.tools.model.compiler.runtime.DeadLetterSignal;
 import xuml.tools.model.compiler.runtime.Entity;
 import xuml.tools.model.compiler.runtime.Event;
+import xuml.tools.model.compiler.runtime.KryoRegistry;
 import xuml.tools.model.compiler.runtime.QueuedSignal;
 import xuml.tools.model.compiler.runtime.SignalProcessorListenerFactory;
 import xuml.tools.model.compiler.runtime.Signaller;
+import xuml.tools.model.compiler.runtime.SignallerConfig;
+import xuml.tools.model.compiler.runtime.TypeRegistry;
 
 /**
  * Generates code associated with one modeled domain.
@@ -215,6 +225,8 @@ public class CodeGeneratorJava {
             classes.add(info.getClassFullName());
         }
         classes.add(QueuedSignal.class.getName());
+        classes.add(ClusterLease.class.getName());
+        classes.add(DeadLetterSignal.class.getName());
         String xml = new PersistenceXmlWriter().generate(classes);
         return xml;
     }
@@ -225,6 +237,7 @@ public class CodeGeneratorJava {
 
         TypeRegister types = new TypeRegister();
         out.format("public class Context {\n\n");
+        writeTypeRegistrations(out, types, domain);
         out.format("    private static volatile %s signaller;\n\n", types.addType(Signaller.class));
         out.format("    public static int sendSignalsInQueue() {\n");
         out.format("        return signaller.sendSignalsInQueue();\n");
@@ -232,12 +245,36 @@ public class CodeGeneratorJava {
         out.format("    public static long queueSize() {\n");
         out.format("        return signaller.queueSize();\n");
         out.format("    }\n\n");
+        out.format("    public static long approximateQueueSize() {\n");
+        out.format("        return signaller.approximateQueueSize();\n");
+        out.format("    }\n\n");
+        out.format("    public static boolean isIdle() {\n");
+        out.format("        return signaller.isIdle();\n");
+        out.format("    }\n\n");
+        out.format(
+                "    public static boolean awaitIdle(long timeout, %s unit) throws %s {\n",
+                types.addType(TimeUnit.class), types.addType(InterruptedException.class));
+        out.format("        return signaller.awaitIdle(timeout, unit);\n");
+        out.format("    }\n\n");
         out.format("    public static %s<%s> queuedSignals() {\n", types.addType(List.class),
                 types.addType(QueuedSignal.class));
         out.format("        return signaller.queuedSignals();\n");
         out.format("    }\n\n");
+        out.format("    public static long deadLetterCount() {\n");
+        out.format("        return signaller.deadLetterCount();\n");
+        out.format("    }\n\n");
+        out.format("    public static %s<%s> deadLetters(int maxResults) {\n",
+                types.addType(List.class), types.addType(DeadLetterSignal.class));
+        out.format("        return signaller.deadLetters(maxResults);\n");
+        out.format("    }\n\n");
+        out.format("    public static boolean replayDeadLetter(long signalId) {\n");
+        out.format("        return signaller.replayDeadLetter(signalId);\n");
+        out.format("    }\n\n");
+        out.format("    public static int replayDeadLetters() {\n");
+        out.format("        return signaller.replayDeadLetters();\n");
+        out.format("    }\n\n");
         out.format(
-                "    public static <T extends %s<T>> String persistSignal(String fromEntityUniqueId, Object id, Class<T> cls, %s<T> event, long time, %s<Long> repeatIntervalMs, String entityUniqueId) {\n",
+                "    public static <T extends %s<T>> long persistSignal(String fromEntityUniqueId, Object id, Class<T> cls, %s<T> event, long time, %s<Long> repeatIntervalMs, String entityUniqueId) {\n",
                 types.addType(Entity.class), types.addType(Event.class),
                 types.addType(Optional.class));
         out.format(
@@ -266,8 +303,16 @@ public class CodeGeneratorJava {
         out.format(
                 "    public synchronized static void setEntityManagerFactory(%s emf, int entityActorPoolSize) {\n",
                 types.addType(EntityManagerFactory.class));
-        out.format("        signaller = new %s(emf, entityActorPoolSize, listenerFactory);\n",
-                types.addType(Signaller.class), types.addType(Signaller.class));
+        out.format(
+                "        setEntityManagerFactory(emf, %s.builder().entityActorPoolSize(entityActorPoolSize).build());\n",
+                types.addType(SignallerConfig.class));
+        out.format("    }\n\n");
+
+        out.format(
+                "    public synchronized static void setEntityManagerFactory(%s emf, %s config) {\n",
+                types.addType(EntityManagerFactory.class), types.addType(SignallerConfig.class));
+        out.format("        signaller = new %s(emf, config, listenerFactory);\n",
+                types.addType(Signaller.class));
         for (
 
         Subsystem subsystem : domain.getSubsystem())
@@ -366,6 +411,45 @@ public class CodeGeneratorJava {
 
     }
 
+    /**
+     * Registers the classes of the domain with {@link TypeRegistry}, with a
+     * constructor reference for each entity, so that signal replay and entity
+     * creation do not use reflection. Event and embedded id classes are also
+     * registered with Kryo under ids derived from their names (see
+     * {@link KryoRegistry#idFor}) so the ids stay the same when the model
+     * changes.
+     */
+    private void writeTypeRegistrations(PrintStream out, TypeRegister types,
+            ModeledDomain domain) {
+        List<String> entities = Lists.newArrayList();
+        // class literal in Context -> canonical class name
+        Map<String, String> registrations = Maps.newLinkedHashMap();
+        for (Class cls : getClasses(domain)) {
+            ClassInfo info = createClassInfo(cls);
+            String simpleName = types.addType(info.getClassFullName());
+            entities.add(simpleName);
+            for (MyEvent event : info.getEvents())
+                registrations.put(simpleName + ".Events." + event.getSimpleClassName(),
+                        info.getClassFullName() + ".Events." + event.getSimpleClassName());
+            if (info.hasCompositeId())
+                registrations.put(simpleName + "." + info.getEmbeddedIdSimpleClassName(),
+                        info.getClassFullName() + "." + info.getEmbeddedIdSimpleClassName());
+        }
+        if (entities.isEmpty())
+            return;
+        out.format("    static {\n");
+        for (String entity : entities)
+            out.format("        %s.registerEntity(%s.class, %s::new);\n",
+                    types.addType(TypeRegistry.class), entity, entity);
+        for (Entry<String, String> registration : registrations.entrySet()) {
+            out.format("        %s.registerClass(%s.class);\n", types.addType(TypeRegistry.class),
+                    registration.getKey());
+            out.format("        %s.register(%s.class, %s);\n", types.addType(KryoRegistry.class),
+                    registration.getKey(), KryoRegistry.idFor(registration.getValue()));
+        }
+        out.format("    }\n\n");
+    }
+
     private static void log(String message) {
         java.lang.System.out.println(message);
     }